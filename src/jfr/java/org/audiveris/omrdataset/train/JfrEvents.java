@@ -0,0 +1,332 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                        J f r E v e n t s                                       //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.train.Events.Kind;
+import org.audiveris.omrdataset.train.Events.Span;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Class {@code JfrEvents} implements {@link Events} on top of jdk.jfr API.
+ * <p>
+ * This class is loaded only when jdk.jfr API is available.
+ *
+ * @author Hervé Bitteur
+ */
+class JfrEvents
+        implements Events.Factory
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** One idle event per kind, just to check whether the kind is being recorded. */
+    private final Map<Kind, Event> probes = new EnumMap<Kind, Event>(Kind.class);
+
+    //~ Constructors -------------------------------------------------------------------------------
+    public JfrEvents ()
+    {
+        for (Kind kind : Kind.values()) {
+            probes.put(kind, create(kind));
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    @Override
+    public Span begin (Kind kind)
+    {
+        if (!probes.get(kind).isEnabled()) {
+            return null;
+        }
+
+        final Event event = create(kind);
+        event.begin();
+
+        return new JfrSpan(event);
+    }
+
+    private static Event create (Kind kind)
+    {
+        switch (kind) {
+        case SHEET:
+            return new SheetEvent();
+
+        case SYMBOLS:
+            return new SymbolsEvent();
+
+        case NONES:
+            return new NonesEvent();
+
+        case UNMARSHAL:
+            return new UnmarshalEvent();
+
+        case IMAGE_DECODE:
+            return new ImageDecodeEvent();
+
+        case EPOCH:
+            return new EpochEvent();
+
+        case BATCH:
+        default:
+            return new BatchEvent();
+        }
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----------//
+    // PageEvent //
+    //-----------//
+    /**
+     * Base for events related to a sheet.
+     */
+    @Category({"OMR Dataset", "Features"})
+    abstract static class PageEvent
+            extends Event
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        @Label("Sheet")
+        String sheet;
+
+        @Label("Symbols")
+        int symbols;
+
+        @Label("Interline")
+        double interline;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    //---------------//
+    // TrainingEvent //
+    //---------------//
+    /**
+     * Base for events related to training.
+     */
+    @Category({"OMR Dataset", "Training"})
+    abstract static class TrainingEvent
+            extends Event
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        @Label("Epoch")
+        int epoch;
+
+        @Label("Iteration")
+        int iteration;
+
+        @Label("Samples")
+        int samples;
+    }
+
+    //------------//
+    // BatchEvent //
+    //------------//
+    @Name("org.audiveris.omrdataset.Batch")
+    @Label("Training Batch")
+    @Description("Training of one batch, data loading included")
+    static class BatchEvent
+            extends TrainingEvent
+    {
+    }
+
+    //------------//
+    // EpochEvent //
+    //------------//
+    @Name("org.audiveris.omrdataset.Epoch")
+    @Label("Training Epoch")
+    static class EpochEvent
+            extends TrainingEvent
+    {
+    }
+
+    //------------------//
+    // ImageDecodeEvent //
+    //------------------//
+    @Name("org.audiveris.omrdataset.ImageDecode")
+    @Label("Image Decode")
+    @Description("Decoding of sheet image file")
+    static class ImageDecodeEvent
+            extends PageEvent
+    {
+    }
+
+    //---------//
+    // JfrSpan //
+    //---------//
+    /**
+     * Span on an actual JFR event.
+     */
+    private static class JfrSpan
+            extends Span
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        private final Event event;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public JfrSpan (Event event)
+        {
+            this.event = event;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public Span bytes (long bytes)
+        {
+            if (event instanceof PageEvent) {
+                ((PageEvent) event).bytes = bytes;
+            }
+
+            return this;
+        }
+
+        @Override
+        public void end ()
+        {
+            event.end();
+
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+        }
+
+        @Override
+        public Span epoch (int epoch)
+        {
+            if (event instanceof TrainingEvent) {
+                ((TrainingEvent) event).epoch = epoch;
+            }
+
+            return this;
+        }
+
+        @Override
+        public Span interline (double interline)
+        {
+            if (event instanceof PageEvent) {
+                ((PageEvent) event).interline = interline;
+            }
+
+            return this;
+        }
+
+        @Override
+        public boolean isRecorded ()
+        {
+            return true;
+        }
+
+        @Override
+        public Span iteration (int iteration)
+        {
+            if (event instanceof TrainingEvent) {
+                ((TrainingEvent) event).iteration = iteration;
+            }
+
+            return this;
+        }
+
+        @Override
+        public Span samples (int samples)
+        {
+            if (event instanceof TrainingEvent) {
+                ((TrainingEvent) event).samples = samples;
+            }
+
+            return this;
+        }
+
+        @Override
+        public Span sheet (String sheet)
+        {
+            if (event instanceof PageEvent) {
+                ((PageEvent) event).sheet = sheet;
+            }
+
+            return this;
+        }
+
+        @Override
+        public Span symbols (int symbols)
+        {
+            if (event instanceof PageEvent) {
+                ((PageEvent) event).symbols = symbols;
+            }
+
+            return this;
+        }
+    }
+
+    //------------//
+    // NonesEvent //
+    //------------//
+    @Name("org.audiveris.omrdataset.Nones")
+    @Label("None Symbols Insertion")
+    @Description("Insertion of None symbols in sheet, symbols is the count of inserted ones")
+    static class NonesEvent
+            extends PageEvent
+    {
+    }
+
+    //------------//
+    // SheetEvent //
+    //------------//
+    @Name("org.audiveris.omrdataset.Sheet")
+    @Label("Sheet Processing")
+    @Description("Features extraction of a whole sheet, bytes is the size of input files")
+    static class SheetEvent
+            extends PageEvent
+    {
+    }
+
+    //--------------//
+    // SymbolsEvent //
+    //--------------//
+    @Name("org.audiveris.omrdataset.Symbols")
+    @Label("Symbols Processing")
+    @Description("Extraction of context sub-images for the symbols of a sheet")
+    static class SymbolsEvent
+            extends PageEvent
+    {
+    }
+
+    //----------------//
+    // UnmarshalEvent //
+    //----------------//
+    @Name("org.audiveris.omrdataset.Unmarshal")
+    @Label("Annotations Unmarshal")
+    @Description("Unmarshalling of sheet annotations file")
+    static class UnmarshalEvent
+            extends PageEvent
+    {
+    }
+}
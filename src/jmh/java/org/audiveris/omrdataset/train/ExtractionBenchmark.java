@@ -0,0 +1,185 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                              E x t r a c t i o n B e n c h m a r k                             //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.SheetAnnotations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code ExtractionBenchmark} measures the per-sheet steps of features extraction,
+ * on the sample sheets.
+ * <p>
+ * Each operation processes all sample sheets. Features and journal records are formatted but
+ * written to a null output, to keep disk out of measurements.
+ *
+ * @author Hervé Bitteur
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ExtractionBenchmark
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    private SampleSheets sheets;
+
+    private final PrintWriter nullWriter = new PrintWriter(new NullWriter());
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Extract features (context patches and CSV records) of all symbols.
+     *
+     * @return number of features rows
+     * @throws IOException in case of IO problem
+     */
+    @Benchmark
+    public int extractFeatures ()
+            throws IOException
+    {
+        final List<ContextDataset> datasets = SampleSheets.createDatasets(nullWriter);
+        final int[] row = new int[1];
+
+        for (int i = 0; i < sheets.images.size(); i++) {
+            new SheetProcessor(
+                    i + 1,
+                    sheets.images.get(i),
+                    sheets.annotations.get(i),
+                    true,
+                    datasets).extractFeatures(nullWriter, row);
+        }
+
+        return row[0];
+    }
+
+    /**
+     * Scale sheet images.
+     *
+     * @param scaling scaling parameter
+     * @param hole    sink for scaled images
+     */
+    @Benchmark
+    public void scale (Scaling scaling,
+                       Blackhole hole)
+    {
+        for (BufferedImage img : sheets.images) {
+            hole.consume(SheetProcessor.scale(img, scaling.ratio));
+        }
+    }
+
+    @Setup
+    public void setup ()
+            throws IOException
+    {
+        sheets = new SampleSheets();
+    }
+
+    /**
+     * Unmarshal annotations files.
+     *
+     * @param hole sink for annotations
+     */
+    @Benchmark
+    public void unmarshal (Blackhole hole)
+            throws IOException
+    {
+        for (Path path : sheets.annotationsPaths) {
+            final SheetAnnotations annotations = SheetAnnotations.unmarshal(path);
+            hole.consume(annotations);
+        }
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //---------//
+    // Scaling //
+    //---------//
+    /**
+     * Scaling parameter, only for scale benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class Scaling
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Scaling ratio, as applied to sheets with interline 16 or 8. */
+        @Param({"0.625", "1.25"})
+        public double ratio;
+    }
+
+    //------------//
+    // NullWriter //
+    //------------//
+    /**
+     * Writer that discards everything.
+     */
+    private static class NullWriter
+            extends Writer
+    {
+        //~ Methods --------------------------------------------------------------------------------
+
+        @Override
+        public void close ()
+        {
+        }
+
+        @Override
+        public void flush ()
+        {
+        }
+
+        @Override
+        public void write (char[] cbuf,
+                           int off,
+                           int len)
+        {
+        }
+
+        @Override
+        public void write (String str,
+                           int off,
+                           int len)
+        {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                 J o u r n a l B e n c h m a r k                                //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code JournalBenchmark} measures the loading of journal and sheets files, as
+ * produced by features extraction on the sample sheets.
+ *
+ * @author Hervé Bitteur
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class JournalBenchmark
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    private Path folder;
+
+    private Path journalPath;
+
+    private Path sheetsPath;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    @Benchmark
+    public Journal load ()
+    {
+        return new Journal(journalPath, sheetsPath);
+    }
+
+    @Setup
+    public void setup ()
+            throws IOException
+    {
+        final StringWriter journal = new StringWriter();
+        final StringWriter sheets = new StringWriter();
+        new SampleSheets().extractAll(new StringWriter(), journal, sheets);
+
+        folder = Files.createTempDirectory("journal-benchmark");
+        journalPath = Files.write(
+                folder.resolve(App.JOURNAL_NAME),
+                journal.toString().getBytes(StandardCharsets.UTF_8));
+        sheetsPath = Files.write(
+                folder.resolve(App.SHEETS_NAME),
+                sheets.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown ()
+            throws IOException
+    {
+        Files.delete(journalPath);
+        Files.delete(sheetsPath);
+        Files.delete(folder);
+    }
+}
@@ -0,0 +1,96 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                   N o n e s B e n c h m a r k                                  //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.SheetAnnotations;
+import org.audiveris.omrdataset.api.SymbolInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code NonesBenchmark} measures the insertion of None symbols in a dense page.
+ * <p>
+ * The dense page gathers the symbols of all sample sheets, on the frame of the first one.
+ *
+ * @author Hervé Bitteur
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class NonesBenchmark
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** None sampling policy (MINING needs a trained model and is not measured). */
+    @Param({"RANDOM", "FREE"})
+    public NonesBuilder.Sampling sampling;
+
+    private SheetAnnotations densePage;
+
+    private int toAdd;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Insert None symbols, in the usual ratio to valid symbols.
+     *
+     * @return the inserted symbols
+     */
+    @Benchmark
+    public List<SymbolInfo> insertNones ()
+    {
+        return new NonesBuilder(densePage, sampling, null).insertNones(toAdd);
+    }
+
+    @Setup
+    public void setup ()
+            throws IOException
+    {
+        final SampleSheets sheets = new SampleSheets();
+        densePage = new SheetAnnotations();
+        densePage.setSheetInfo(sheets.annotations.get(0).getSheetInfo());
+
+        for (SheetAnnotations annotations : sheets.annotations) {
+            for (SymbolInfo symbol : annotations.getSymbols()) {
+                densePage.addSymbol(symbol);
+            }
+        }
+
+        toAdd = (int) Math.rint(App.NONE_RATIO * densePage.getSymbols().size());
+    }
+}
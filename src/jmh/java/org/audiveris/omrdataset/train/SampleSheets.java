@@ -0,0 +1,141 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                     S a m p l e S h e e t s                                    //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.SheetAnnotations;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Class {@code SampleSheets} gives access to the sample sheets used as benchmark inputs.
+ * <p>
+ * Sample sheets are read from the folder defined by "samples" system property, which defaults
+ * to the {@code data/input-images} folder of the project.
+ *
+ * @author Hervé Bitteur
+ */
+public class SampleSheets
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** Folder of sample sheets. */
+    public static final Path SAMPLES_PATH = Paths.get(
+            System.getProperty("samples", "data/input-images"));
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Annotations files. */
+    public final List<Path> annotationsPaths = new ArrayList<Path>();
+
+    /** Annotations, parallel to paths. */
+    public final List<SheetAnnotations> annotations = new ArrayList<SheetAnnotations>();
+
+    /** Gray images, parallel to paths. */
+    public final List<BufferedImage> images = new ArrayList<BufferedImage>();
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Load all sample sheets.
+     *
+     * @throws IOException in case of IO problem or if no sample is found
+     */
+    public SampleSheets ()
+            throws IOException
+    {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(SAMPLES_PATH, "*.xml")) {
+            for (Path path : stream) {
+                annotationsPaths.add(path);
+            }
+        }
+
+        if (annotationsPaths.isEmpty()) {
+            throw new IOException("No sample sheet in " + SAMPLES_PATH.toAbsolutePath());
+        }
+
+        Collections.sort(annotationsPaths);
+
+        for (Path path : annotationsPaths) {
+            final SheetAnnotations annots = SheetAnnotations.unmarshal(path);
+            annotations.add(annots);
+            images.add(
+                    ImageIO.read(
+                            path.resolveSibling(annots.getSheetInfo().imageFileName).toFile()));
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Create the datasets to be populated by SheetProcessor, just for default profile.
+     *
+     * @param features output for features records
+     * @return the datasets
+     */
+    public static List<ContextDataset> createDatasets (PrintWriter features)
+    {
+        return Collections.singletonList(new ContextDataset(ContextProfile.DEFAULT, features));
+    }
+
+    /**
+     * Run features extraction on all sample sheets.
+     *
+     * @param features output for features records
+     * @param journal  output for journal records
+     * @param sheets   output for sheets records
+     * @throws IOException in case of IO problem
+     */
+    public void extractAll (StringWriter features,
+                            StringWriter journal,
+                            StringWriter sheets)
+            throws IOException
+    {
+        final PrintWriter fw = new PrintWriter(features);
+        final PrintWriter jw = new PrintWriter(journal);
+        final PrintWriter sw = new PrintWriter(sheets);
+        final List<ContextDataset> datasets = createDatasets(fw);
+        final int[] row = new int[1];
+        fw.println("# header");
+        jw.println("# header");
+        sw.println("# header");
+
+        for (int i = 0; i < annotationsPaths.size(); i++) {
+            final int sheetId = i + 1;
+            sw.println(sheetId + "," + annotationsPaths.get(i));
+            new SheetProcessor(sheetId, images.get(i), annotations.get(i), true, datasets)
+                    .extractFeatures(jw, row);
+        }
+
+        fw.flush();
+        jw.flush();
+        sw.flush();
+    }
+}
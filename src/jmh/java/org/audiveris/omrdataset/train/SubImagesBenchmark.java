@@ -0,0 +1,144 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                               S u b I m a g e s B e n c h m a r k                              //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Class {@code SubImagesBenchmark} measures the building of one sub-image out of a features
+ * row (row parsing and rendering), and its writing to disk (which adds image encoding).
+ * <p>
+ * Features rows are those extracted from the sample sheets.
+ *
+ * @author Hervé Bitteur
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SubImagesBenchmark
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** Sub-images format. */
+    @Param({"png", "pgm"})
+    public PatchWriter.Format format;
+
+    private final List<String> lines = new ArrayList<String>();
+
+    private final byte[] patch = new byte[CONTEXT_WIDTH * CONTEXT_HEIGHT];
+
+    private PatchWriter writer;
+
+    private byte[] pixels;
+
+    private Path target;
+
+    private int index;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Parse next features row and render it.
+     *
+     * @return rendered pixels
+     */
+    @Benchmark
+    public byte[] buildSubImage ()
+    {
+        SubImages.parseLine(nextLine(), patch);
+        writer.render(patch, pixels, CONTEXT_WIDTH, 0, 0);
+
+        return pixels;
+    }
+
+    @Setup
+    public void setup ()
+            throws IOException
+    {
+        final StringWriter features = new StringWriter();
+        new SampleSheets().extractAll(features, new StringWriter(), new StringWriter());
+
+        for (String line : features.toString().split("\\R")) {
+            if (!line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+
+        writer = new PatchWriter(format, Deflater.DEFAULT_COMPRESSION);
+        pixels = new byte[CONTEXT_WIDTH * CONTEXT_HEIGHT * writer.getChannels()];
+        target = Files.createTempFile("sub-image", writer.getExtension());
+    }
+
+    @TearDown
+    public void tearDown ()
+            throws IOException
+    {
+        Files.deleteIfExists(target);
+    }
+
+    /**
+     * Parse next features row, render it and write it to disk.
+     *
+     * @return the sub-image shape
+     */
+    @Benchmark
+    public OmrShape writeSubImage ()
+            throws IOException
+    {
+        final OmrShape shape = SubImages.parseLine(nextLine(), patch);
+        writer.write(patch, target);
+
+        return shape;
+    }
+
+    private String nextLine ()
+    {
+        index = (index + 1) % lines.size();
+
+        return lines.get(index);
+    }
+}
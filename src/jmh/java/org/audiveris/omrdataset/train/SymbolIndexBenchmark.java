@@ -0,0 +1,190 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                             S y m b o l I n d e x B e n c h m a r k                            //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import org.audiveris.omrdataset.api.SymbolIndex;
+import org.audiveris.omrdataset.api.SymbolInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code SymbolIndexBenchmark} is a micro-benchmark of {@link SymbolIndex} queries
+ * versus plain linear scans, on a synthetic dense page.
+ *
+ * @author Hervé Bitteur
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SymbolIndexBenchmark
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** Number of top-level symbols in synthetic page. */
+    private static final int SYMBOL_COUNT = 6000;
+
+    /** Synthetic page width. */
+    private static final int PAGE_WIDTH = 2500;
+
+    /** Synthetic page height. */
+    private static final int PAGE_HEIGHT = 3500;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Top-level symbols. */
+    private List<SymbolInfo> symbols;
+
+    /** Top-level and inner symbols. */
+    private final List<SymbolInfo> all = new ArrayList<SymbolInfo>();
+
+    private SymbolIndex index;
+
+    private final Random random = new Random(456);
+
+    //~ Methods ------------------------------------------------------------------------------------
+    @Benchmark
+    public SymbolIndex indexBuild ()
+    {
+        return new SymbolIndex(symbols);
+    }
+
+    @Benchmark
+    public void indexNearest (Blackhole hole)
+    {
+        final double x = random.nextDouble() * PAGE_WIDTH;
+        final double y = random.nextDouble() * PAGE_HEIGHT;
+        hole.consume(index.getNearest(x, y, 8));
+    }
+
+    @Benchmark
+    public int indexOverlaps ()
+    {
+        return index.getOverlaps().size();
+    }
+
+    @Benchmark
+    public int indexWindow ()
+    {
+        return index.getIntersected(window(random)).size();
+    }
+
+    @Benchmark
+    public int linearWindow ()
+    {
+        final Rectangle2D w = window(random);
+        int scanned = 0;
+
+        for (SymbolInfo s : all) {
+            final Rectangle2D b = s.getBounds();
+
+            if ((b.getMinX() <= w.getMaxX()) && (b.getMaxX() >= w.getMinX())
+                && (b.getMinY() <= w.getMaxY()) && (b.getMaxY() >= w.getMinY())) {
+                scanned++;
+            }
+        }
+
+        return scanned;
+    }
+
+    @Setup
+    public void setup ()
+    {
+        symbols = createSymbols(new Random(123));
+
+        for (SymbolInfo symbol : symbols) {
+            all.add(symbol);
+            all.addAll(symbol.getInnerSymbols());
+        }
+
+        index = new SymbolIndex(symbols);
+    }
+
+    private static List<SymbolInfo> createSymbols (Random random)
+    {
+        final OmrShape[] shapes = OmrShape.values();
+        final List<SymbolInfo> symbols = new ArrayList<SymbolInfo>();
+
+        for (int i = 0; i < SYMBOL_COUNT; i++) {
+            final double w = 5 + random.nextInt(30);
+            final double h = 5 + random.nextInt(60);
+            final double x = random.nextDouble() * (PAGE_WIDTH - w);
+            final double y = random.nextDouble() * (PAGE_HEIGHT - h);
+            final OmrShape shape = shapes[1 + random.nextInt(shapes.length - 1)];
+            final SymbolInfo symbol = new SymbolInfo(
+                    shape,
+                    10,
+                    i + 1,
+                    null,
+                    new Rectangle2D.Double(x, y, w, h));
+
+            if ((i % 10) == 0) {
+                // Some outer symbol with 2 inner symbols
+                symbol.addInnerSymbol(
+                        new SymbolInfo(
+                                shape,
+                                10,
+                                null,
+                                null,
+                                new Rectangle2D.Double(x, y, w, h / 2)));
+                symbol.addInnerSymbol(
+                        new SymbolInfo(
+                                shape,
+                                10,
+                                null,
+                                null,
+                                new Rectangle2D.Double(x, y + (h / 2), w, h / 2)));
+            }
+
+            symbols.add(symbol);
+        }
+
+        return symbols;
+    }
+
+    private static Rectangle2D window (Random random)
+    {
+        return new Rectangle2D.Double(
+                random.nextDouble() * PAGE_WIDTH,
+                random.nextDouble() * PAGE_HEIGHT,
+                100,
+                100);
+    }
+}
@@ -21,20 +21,39 @@
 // </editor-fold>
 package org.audiveris.omrdataset;
 
+import org.audiveris.omrdataset.classifier.PatchClassifier;
+import static org.audiveris.omrdataset.classifier.Context.MODEL_NAME;
+import org.audiveris.omrdataset.train.ContextProfile;
+import org.audiveris.omrdataset.train.Deduplicator;
+import org.audiveris.omrdataset.train.NonesBuilder;
+import org.audiveris.omrdataset.train.Partition;
+import org.audiveris.omrdataset.train.PatchWriter;
+
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Localizable;
 import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionDef;
+import org.kohsuke.args4j.spi.OneArgumentOptionHandler;
+import org.kohsuke.args4j.spi.Setter;
 import org.kohsuke.args4j.spi.StopOptionHandler;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.StringWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
 
 /**
  * Class {@code CLI} parses and holds the command line parameters.
@@ -48,6 +67,44 @@ public class CLI
     private static final Logger logger = LoggerFactory.getLogger(
             CLI.class);
 
+    //~ Enumerations -------------------------------------------------------------------------------
+    /** Messages for inconsistent parameters, detected once all options are parsed. */
+    private enum Message
+            implements Localizable
+    {
+        //~ Enumeration constant initializers ------------------------------------------------------
+
+        BAD_COMPRESSION("PNG compression level {0} not within 0..9"),
+        BAD_DEDUP("Dedup distance {0} not within 0..{1}"),
+        DUPLICATE_PROFILE("Duplicate profile name {0}"),
+        NO_MODEL("MINING sampling needs a trained model, none found at {0}"),
+        BAD_REPLICAS("Replicas count {0} is not positive");
+
+        //~ Instance fields ------------------------------------------------------------------------
+        /** MessageFormat pattern. */
+        private final String pattern;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        Message (String pattern)
+        {
+            this.pattern = pattern;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public String format (Object... args)
+        {
+            return MessageFormat.format(pattern, args);
+        }
+
+        @Override
+        public String formatWithLocale (Locale locale,
+                                        Object... args)
+        {
+            return new MessageFormat(pattern, locale).format(args);
+        }
+    }
+
     //~ Instance fields ----------------------------------------------------------------------------
     /** Help mode. */
     @Option(name = "-help", help = true, usage = "Displays general help then stops")
@@ -65,10 +122,50 @@ public class CLI
     @Option(name = "-controls", usage = "Generates control images")
     public boolean controls;
 
+    /** Control overlays. */
+    @Option(name = "-overlays", usage = "Generates control overlays (SVG)")
+    public boolean overlays;
+
     /** Sub-images. */
     @Option(name = "-subimages", usage = "Generates subimages")
     public boolean subimages;
 
+    /** Mosaic size. */
+    @Option(name = "-mosaic", usage = "Tiles sub-images K per shape in mosaics", metaVar = "<K>")
+    public int mosaic;
+
+    /** Sub-images format. */
+    @Option(name = "-format", usage = "Defines sub-images format", metaVar = "<png|pgm>")
+    public PatchWriter.Format format = PatchWriter.Format.png;
+
+    /** PNG compression level. */
+    @Option(name = "-compression", usage = "Defines PNG compression level", metaVar = "<0..9>")
+    public int compression = Deflater.DEFAULT_COMPRESSION;
+
+    /** Context profiles. */
+    @Option(name = "-profile", usage = "Adds a context profile for features",
+            metaVar = "<name:interline:width:height>", handler = ProfileHandler.class)
+    public List<ContextProfile> profiles = new ArrayList<ContextProfile>();
+
+    /** Streaming. */
+    @Option(name = "-streaming", usage = "Decodes sheet images by bands, to bound memory")
+    public boolean streaming;
+
+    /** Partition of input sheets. */
+    @Option(name = "-partition", usage = "Processes only partition i out of N of input sheets",
+            metaVar = "<i/N>", handler = PartitionHandler.class)
+    public Partition partition;
+
+    /** Merge. */
+    @Option(name = "-merge", usage = "Merges features of input folders into output")
+    public boolean merge;
+
+    /** Deduplication. */
+    @Option(name = "-dedup",
+            usage = "Drops patches within Hamming distance of a previous one, per partition",
+            metaVar = "<distance>")
+    public Integer dedup;
+
     /** Names. */
     @Option(name = "-names", usage = "Prints all possible symbol names")
     public boolean names;
@@ -77,10 +174,54 @@ public class CLI
     @Option(name = "-nones", usage = "Generates none symbols")
     public boolean nones;
 
+    /** None sampling policy. */
+    @Option(name = "-sampling", usage = "Defines None sampling policy",
+            metaVar = "<RANDOM|FREE|MINING>")
+    public NonesBuilder.Sampling noneSampling = NonesBuilder.Sampling.RANDOM;
+
+    /** Synthetic corpus. */
+    @Option(name = "-synthesize", usage = "Synthesizes pages out of input sheets",
+            metaVar = "<count>")
+    public Integer synthesize;
+
+    /** Random seed. */
+    @Option(name = "-seed", usage = "Defines seed for random generation", metaVar = "<value>")
+    public long seed;
+
+    /** Detection. */
+    @Option(name = "-detect", usage = "Detects symbols in whole pages")
+    public boolean detect;
+
+    /** Inference server. */
+    @Option(name = "-serve", usage = "Serves classification requests on local port",
+            metaVar = "<port>")
+    public Integer servePort;
+
+    /** Classifier replicas. */
+    @Option(name = "-replicas", usage = "Defines number of classifier model replicas",
+            metaVar = "<count>")
+    public int replicas = PatchClassifier.DEFAULT_REPLICAS;
+
     /** Training. */
     @Option(name = "-training", usage = "Trains classifier on features")
     public boolean training;
 
+    /** Training augmentation. */
+    @Option(name = "-augment", usage = "Augments training patches on the fly")
+    public boolean augment;
+
+    /** Training web UI. */
+    @Option(name = "-ui", usage = "Monitors training in web UI (port 9000)")
+    public boolean ui;
+
+    /** Export. */
+    @Option(name = "-export", usage = "Exports model weights to a flat file")
+    public boolean export;
+
+    /** Quantization. */
+    @Option(name = "-quantize", usage = "Exports an int8-quantized copy of model")
+    public boolean quantize;
+
     /** Mistakes. */
     @Option(name = "-mistakes", usage = "Saves mistake images")
     public boolean mistakes;
@@ -117,6 +258,45 @@ public class CLI
 
         parser.parseArgument(args);
 
+        final Set<String> profileNames = new HashSet<String>();
+
+        for (ContextProfile profile : cli.profiles) {
+            if (!profileNames.add(profile.name)) {
+                throw new CmdLineException(parser, Message.DUPLICATE_PROFILE, profile.name);
+            }
+        }
+
+        if ((cli.compression != Deflater.DEFAULT_COMPRESSION)
+            && ((cli.compression < Deflater.NO_COMPRESSION)
+                || (cli.compression > Deflater.BEST_COMPRESSION))) {
+            throw new CmdLineException(
+                    parser,
+                    Message.BAD_COMPRESSION,
+                    Integer.toString(cli.compression));
+        }
+
+        if (cli.replicas < 1) {
+            throw new CmdLineException(
+                    parser,
+                    Message.BAD_REPLICAS,
+                    Integer.toString(cli.replicas));
+        }
+
+        if ((cli.dedup != null)
+            && ((cli.dedup < 0) || (cli.dedup > Deduplicator.MAX_DISTANCE))) {
+            throw new CmdLineException(
+                    parser,
+                    Message.BAD_DEDUP,
+                    Integer.toString(cli.dedup),
+                    Integer.toString(Deduplicator.MAX_DISTANCE));
+        }
+
+        if (cli.features && cli.nones && !cli.streaming
+            && (cli.noneSampling == NonesBuilder.Sampling.MINING)
+            && !Files.exists(cli.getModelPath())) {
+            throw new CmdLineException(parser, Message.NO_MODEL, cli.getModelPath().toString());
+        }
+
         if (args.length == 0) {
             cli.help = true;
         }
@@ -128,6 +308,26 @@ public class CLI
         return cli;
     }
 
+    /**
+     * Report the path to neural network model, as defined or by default in output folder.
+     *
+     * @return the model path
+     */
+    public Path getModelPath ()
+    {
+        return (modelPath != null) ? modelPath : getOutputFolder().resolve(MODEL_NAME);
+    }
+
+    /**
+     * Report the output folder, as defined or by default.
+     *
+     * @return the output folder
+     */
+    public Path getOutputFolder ()
+    {
+        return (outputFolder != null) ? outputFolder : Paths.get("data/output");
+    }
+
     /**
      * Print out the general syntax for the command line.
      */
@@ -154,4 +354,67 @@ public class CLI
         buf.append("\n");
         logger.info(buf.toString());
     }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //------------------//
+    // PartitionHandler //
+    //------------------//
+    /**
+     * Option handler for a partition, such as "2/8".
+     */
+    public static class PartitionHandler
+            extends OneArgumentOptionHandler<Partition>
+    {
+        //~ Constructors ---------------------------------------------------------------------------
+
+        public PartitionHandler (CmdLineParser parser,
+                                 OptionDef option,
+                                 Setter<? super Partition> setter)
+        {
+            super(parser, option, setter);
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        protected Partition parse (String argument)
+                throws CmdLineException
+        {
+            try {
+                return Partition.decode(argument);
+            } catch (IllegalArgumentException ex) {
+                throw new CmdLineException(owner, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    //----------------//
+    // ProfileHandler //
+    //----------------//
+    /**
+     * Option handler for a context profile, such as "wide:10:96:96".
+     */
+    public static class ProfileHandler
+            extends OneArgumentOptionHandler<ContextProfile>
+    {
+        //~ Constructors ---------------------------------------------------------------------------
+
+        public ProfileHandler (CmdLineParser parser,
+                               OptionDef option,
+                               Setter<? super ContextProfile> setter)
+        {
+            super(parser, option, setter);
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        protected ContextProfile parse (String argument)
+                throws CmdLineException
+        {
+            try {
+                return ContextProfile.decode(argument);
+            } catch (IllegalArgumentException ex) {
+                throw new CmdLineException(owner, ex.getMessage(), ex);
+            }
+        }
+    }
 }
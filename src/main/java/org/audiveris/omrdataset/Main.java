@@ -23,8 +23,15 @@ package org.audiveris.omrdataset;
 
 import org.audiveris.omrdataset.api.OmrShapes;
 import org.audiveris.omrdataset.train.Clean;
+import org.audiveris.omrdataset.train.Detections;
+import org.audiveris.omrdataset.train.Exporter;
 import org.audiveris.omrdataset.train.Features;
+import org.audiveris.omrdataset.train.InferenceServer;
+import org.audiveris.omrdataset.train.Merger;
+import org.audiveris.omrdataset.train.Metrics;
+import org.audiveris.omrdataset.train.Quantizer;
 import org.audiveris.omrdataset.train.SubImages;
+import org.audiveris.omrdataset.train.Synthesizer;
 import org.audiveris.omrdataset.train.Training;
 
 import org.slf4j.Logger;
@@ -69,11 +76,21 @@ public class Main
             new Clean().process();
         }
 
+        if (cli.synthesize != null) {
+            // Derive a synthetic corpus from input sheets
+            new Synthesizer(cli.synthesize, cli.seed).process();
+        }
+
         if (cli.features) {
             // Extract features
             new Features().process();
         }
 
+        if (cli.merge) {
+            // Merge features of separate runs
+            new Merger().process();
+        }
+
         if (cli.subimages) {
             // Extract subimages for visual check (not mandatory)
             new SubImages().process();
@@ -83,5 +100,28 @@ public class Main
             // Train the classifier
             new Training().process();
         }
+
+        if (cli.export) {
+            // Export model weights for the pure Java classifier
+            new Exporter().process();
+        }
+
+        if (cli.quantize) {
+            // Export an int8 version of the classifier
+            new Quantizer().process();
+        }
+
+        if (cli.detect) {
+            // Detect symbols in whole pages
+            new Detections().process();
+        }
+
+        // Report performance figures of this run
+        Metrics.store();
+
+        if (cli.servePort != null) {
+            // Serve classification requests, until stopped
+            new InferenceServer(cli.servePort).process();
+        }
     }
 }
@@ -81,6 +81,9 @@ public class SheetAnnotations
     @XmlElement(name = "Symbol")
     private ArrayList<SymbolInfo> symbols = new ArrayList<SymbolInfo>();
 
+    /** Spatial index on symbols, lazily built. */
+    private SymbolIndex symbolIndex;
+
     //~ Constructors -------------------------------------------------------------------------------
     /**
      * Creates a new {@code SheetAnnotations} object.
@@ -98,6 +101,7 @@ public class SheetAnnotations
     public void addSymbol (SymbolInfo symbol)
     {
         symbols.add(symbol);
+        invalidateSymbolIndex();
     }
 
     /**
@@ -110,6 +114,24 @@ public class SheetAnnotations
         return sheetInfo;
     }
 
+    /**
+     * Report the spatial index on sheet symbols (outer symbols and their inner symbols).
+     * <p>
+     * The index is built on first call, and kept until invalidated.
+     * Since {@link #getSymbols()} gives access to the live list, any caller that directly modifies
+     * this list must call {@link #invalidateSymbolIndex()}.
+     *
+     * @return the symbol index
+     */
+    public synchronized SymbolIndex getSymbolIndex ()
+    {
+        if (symbolIndex == null) {
+            symbolIndex = new SymbolIndex(symbols);
+        }
+
+        return symbolIndex;
+    }
+
     /**
      * @return the source
      */
@@ -136,6 +158,14 @@ public class SheetAnnotations
         return version;
     }
 
+    /**
+     * Discard the symbol index, if any, so that it gets rebuilt on next use.
+     */
+    public synchronized void invalidateSymbolIndex ()
+    {
+        symbolIndex = null;
+    }
+
     /**
      * Report whether these annotations are complete.
      *
@@ -163,8 +193,7 @@ public class SheetAnnotations
             Files.createDirectories(path.getParent());
         }
 
-        OutputStream os = new BufferedOutputStream(
-                Files.newOutputStream(path, StandardOpenOption.CREATE));
+        OutputStream os = new BufferedOutputStream(Files.newOutputStream(path));
         Marshaller m = getJaxbContext().createMarshaller();
         m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
         m.marshal(this, os);
@@ -0,0 +1,515 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                      S y m b o l I n d e x                                     //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.api;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Class {@code SymbolIndex} is a spatial index on the bounds of all symbols of a sheet,
+ * both outer symbols and their inner (leaf) symbols.
+ * <p>
+ * It is implemented as a static R-tree, packed once using the Sort-Tile-Recursive algorithm.
+ * It answers window, k-nearest and overlap queries, in logarithmic time for typical sheets.
+ * <p>
+ * The index is a snapshot: symbols added later are not indexed.
+ *
+ * @author Hervé Bitteur
+ */
+public class SymbolIndex
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** Maximum number of children per tree node: {@value}. */
+    private static final int NODE_CAPACITY = 16;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Indexed symbols, in packed order. */
+    private final SymbolInfo[] items;
+
+    /** Bounds of indexed symbols: minX, minY, maxX, maxY for each item. */
+    private final double[] itemBoxes;
+
+    /** Container of each inner symbol. */
+    private final Map<SymbolInfo, SymbolInfo> containers
+            = new IdentityHashMap<SymbolInfo, SymbolInfo>();
+
+    /** Tree levels, from the one right above items up to the root level (a single node). */
+    private final List<Level> levels = new ArrayList<Level>();
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code SymbolIndex} object on the provided symbols and, recursively,
+     * their inner symbols.
+     *
+     * @param symbols the top-level symbols
+     */
+    public SymbolIndex (List<SymbolInfo> symbols)
+    {
+        final List<SymbolInfo> all = new ArrayList<SymbolInfo>();
+        collect(symbols, null, all);
+
+        final int count = all.size();
+        final double[] boxes = new double[4 * count];
+
+        for (int i = 0; i < count; i++) {
+            setBox(boxes, i, all.get(i).getBounds());
+        }
+
+        // Pack items, then each level of nodes, until a single root node is left
+        int[] order = pack(boxes, count);
+        items = new SymbolInfo[count];
+        itemBoxes = reorder(boxes, order);
+
+        for (int i = 0; i < count; i++) {
+            items[i] = all.get(order[i]);
+        }
+
+        double[] childBoxes = itemBoxes;
+        int childCount = count;
+
+        while ((childCount > 1) || levels.isEmpty()) {
+            Level level = new Level(childBoxes, childCount);
+            order = pack(level.boxes, level.count);
+            level.reorder(order);
+            levels.add(level);
+            childBoxes = level.boxes;
+            childCount = level.count;
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Report all symbols whose bounds intersect the provided window.
+     * <p>
+     * Boundaries are inclusive, so that a symbol with empty bounds (such as a None symbol) is
+     * found when its location lies within the window.
+     *
+     * @param window the window to search
+     * @return the (perhaps empty) list of intersected symbols
+     */
+    public List<SymbolInfo> getIntersected (Rectangle2D window)
+    {
+        final double[] w = new double[4];
+        setBox(w, 0, window);
+
+        final List<SymbolInfo> found = new ArrayList<SymbolInfo>();
+        final Level root = levels.get(levels.size() - 1);
+
+        for (int n = 0; n < root.count; n++) {
+            searchWindow(levels.size() - 1, n, w, found);
+        }
+
+        return found;
+    }
+
+    /**
+     * Report the k symbols nearest to the provided point, sorted by increasing distance.
+     * <p>
+     * Distance is measured from the point to the symbol bounds, and is zero for a point located
+     * within bounds.
+     *
+     * @param x abscissa of point
+     * @param y ordinate of point
+     * @param k maximum number of symbols desired
+     * @return the (at most k) nearest symbols
+     */
+    public List<SymbolInfo> getNearest (double x,
+                                        double y,
+                                        int k)
+    {
+        final List<SymbolInfo> found = new ArrayList<SymbolInfo>();
+
+        if ((k <= 0) || (items.length == 0)) {
+            return found;
+        }
+
+        // Best-first traversal: nodes and items, ordered by their distance to point
+        final PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        final int top = levels.size() - 1;
+        final Level root = levels.get(top);
+
+        for (int n = 0; n < root.count; n++) {
+            queue.add(new Candidate(top, n, distanceSq(root.boxes, n, x, y)));
+        }
+
+        while (!queue.isEmpty() && (found.size() < k)) {
+            final Candidate c = queue.poll();
+
+            if (c.level < 0) {
+                found.add(items[c.index]);
+            } else {
+                final Level level = levels.get(c.level);
+                final double[] boxes = (c.level == 0) ? itemBoxes : levels.get(c.level - 1).boxes;
+
+                for (int i = level.starts[c.index]; i < level.ends[c.index]; i++) {
+                    queue.add(new Candidate(c.level - 1, i, distanceSq(boxes, i, x, y)));
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Report all the other symbols whose bounds overlap the bounds of the provided symbol.
+     * <p>
+     * Overlap requires a non-empty intersection area. Containers and inner symbols of the provided
+     * symbol are not reported, since they overlap by construction.
+     *
+     * @param symbol the provided symbol
+     * @return the (perhaps empty) list of overlapping symbols
+     */
+    public List<SymbolInfo> getOverlapping (SymbolInfo symbol)
+    {
+        final List<SymbolInfo> found = new ArrayList<SymbolInfo>();
+
+        for (SymbolInfo other : getIntersected(symbol.getBounds())) {
+            if ((other != symbol) && overlap(symbol, other) && !isNested(symbol, other)) {
+                found.add(other);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Report all pairs of distinct symbols whose bounds overlap, container / inner pairs
+     * excepted.
+     *
+     * @return the list of overlapping pairs, each pair reported once
+     */
+    public List<SymbolInfo[]> getOverlaps ()
+    {
+        final List<SymbolInfo[]> pairs = new ArrayList<SymbolInfo[]>();
+        final Map<SymbolInfo, Integer> ranks = new IdentityHashMap<SymbolInfo, Integer>();
+
+        for (int i = 0; i < items.length; i++) {
+            ranks.put(items[i], i);
+        }
+
+        for (int i = 0; i < items.length; i++) {
+            for (SymbolInfo other : getOverlapping(items[i])) {
+                if (ranks.get(other) > i) {
+                    pairs.add(new SymbolInfo[]{items[i], other});
+                }
+            }
+        }
+
+        return pairs;
+    }
+
+    /**
+     * Report the number of indexed symbols.
+     *
+     * @return the number of symbols
+     */
+    public int size ()
+    {
+        return items.length;
+    }
+
+    /**
+     * Flatten the symbols tree, recording the container of each inner symbol.
+     */
+    private void collect (List<SymbolInfo> symbols,
+                          SymbolInfo container,
+                          List<SymbolInfo> all)
+    {
+        for (SymbolInfo symbol : symbols) {
+            all.add(symbol);
+
+            if (container != null) {
+                containers.put(symbol, container);
+            }
+
+            collect(symbol.getInnerSymbols(), symbol, all);
+        }
+    }
+
+    private static double distanceSq (double[] boxes,
+                                      int i,
+                                      double x,
+                                      double y)
+    {
+        final double dx = Math.max(0, Math.max(boxes[4 * i] - x, x - boxes[(4 * i) + 2]));
+        final double dy = Math.max(0, Math.max(boxes[(4 * i) + 1] - y, y - boxes[(4 * i) + 3]));
+
+        return (dx * dx) + (dy * dy);
+    }
+
+    private static boolean intersects (double[] boxes,
+                                       int i,
+                                       double[] w)
+    {
+        return (boxes[4 * i] <= w[2]) && (boxes[(4 * i) + 2] >= w[0])
+               && (boxes[(4 * i) + 1] <= w[3]) && (boxes[(4 * i) + 3] >= w[1]);
+    }
+
+    /**
+     * Tell whether one symbol is nested (at any depth) within the other.
+     */
+    private boolean isNested (SymbolInfo s1,
+                              SymbolInfo s2)
+    {
+        for (SymbolInfo c = containers.get(s1); c != null; c = containers.get(c)) {
+            if (c == s2) {
+                return true;
+            }
+        }
+
+        for (SymbolInfo c = containers.get(s2); c != null; c = containers.get(c)) {
+            if (c == s1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean overlap (SymbolInfo s1,
+                                    SymbolInfo s2)
+    {
+        return s1.getBounds().intersects(s2.getBounds());
+    }
+
+    /**
+     * Compute the Sort-Tile-Recursive order of the provided boxes.
+     * Boxes are sorted by abscissa into vertical slices, and each slice is sorted by ordinate,
+     * so that consecutive runs of NODE_CAPACITY boxes are spatially compact.
+     *
+     * @param boxes the boxes to order
+     * @param count number of boxes
+     * @return the packing order, as a permutation of box indices
+     */
+    private static int[] pack (final double[] boxes,
+                               int count)
+    {
+        final Integer[] order = new Integer[count];
+
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, byCenter(boxes, 0));
+
+        final int nodes = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        final int slices = (int) Math.ceil(Math.sqrt(nodes));
+        final int sliceSize = slices * NODE_CAPACITY;
+
+        for (int start = 0; start < count; start += sliceSize) {
+            Arrays.sort(order, start, Math.min(count, start + sliceSize), byCenter(boxes, 1));
+        }
+
+        final int[] result = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            result[i] = order[i];
+        }
+
+        return result;
+    }
+
+    private static Comparator<Integer> byCenter (final double[] boxes,
+                                                 final int axis)
+    {
+        return new Comparator<Integer>()
+        {
+            @Override
+            public int compare (Integer i1,
+                                Integer i2)
+            {
+                return Double.compare(
+                        boxes[(4 * i1) + axis] + boxes[(4 * i1) + axis + 2],
+                        boxes[(4 * i2) + axis] + boxes[(4 * i2) + axis + 2]);
+            }
+        };
+    }
+
+    private static double[] reorder (double[] boxes,
+                                     int[] order)
+    {
+        final double[] result = new double[boxes.length];
+
+        for (int i = 0; i < order.length; i++) {
+            System.arraycopy(boxes, 4 * order[i], result, 4 * i, 4);
+        }
+
+        return result;
+    }
+
+    /**
+     * Collect items intersecting the window, within the provided node.
+     */
+    private void searchWindow (int l,
+                               int n,
+                               double[] w,
+                               List<SymbolInfo> found)
+    {
+        final Level level = levels.get(l);
+
+        if (!intersects(level.boxes, n, w)) {
+            return;
+        }
+
+        for (int i = level.starts[n]; i < level.ends[n]; i++) {
+            if (l == 0) {
+                if (intersects(itemBoxes, i, w)) {
+                    found.add(items[i]);
+                }
+            } else {
+                searchWindow(l - 1, i, w, found);
+            }
+        }
+    }
+
+    private static void setBox (double[] boxes,
+                                int i,
+                                Rectangle2D rect)
+    {
+        boxes[4 * i] = rect.getMinX();
+        boxes[(4 * i) + 1] = rect.getMinY();
+        boxes[(4 * i) + 2] = rect.getMaxX();
+        boxes[(4 * i) + 3] = rect.getMaxY();
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----------//
+    // Candidate //
+    //-----------//
+    /**
+     * A node or item, waiting in k-nearest traversal.
+     */
+    private static class Candidate
+            implements Comparable<Candidate>
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Tree level, or -1 for an item. */
+        final int level;
+
+        final int index;
+
+        final double distSq;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Candidate (int level,
+                          int index,
+                          double distSq)
+        {
+            this.level = level;
+            this.index = index;
+            this.distSq = distSq;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public int compareTo (Candidate that)
+        {
+            return Double.compare(this.distSq, that.distSq);
+        }
+    }
+
+    //-------//
+    // Level //
+    //-------//
+    /**
+     * One level of tree nodes, each node covering a contiguous range of children in the level
+     * below (or in items).
+     */
+    private static class Level
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        int count;
+
+        double[] boxes;
+
+        int[] starts;
+
+        int[] ends;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        /**
+         * Group consecutive (already packed) children by NODE_CAPACITY.
+         *
+         * @param childBoxes boxes of children
+         * @param childCount number of children
+         */
+        public Level (double[] childBoxes,
+                      int childCount)
+        {
+            count = Math.max(1, (childCount + NODE_CAPACITY - 1) / NODE_CAPACITY);
+            boxes = new double[4 * count];
+            starts = new int[count];
+            ends = new int[count];
+
+            for (int n = 0; n < count; n++) {
+                starts[n] = n * NODE_CAPACITY;
+                ends[n] = Math.min(childCount, starts[n] + NODE_CAPACITY);
+
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+
+                for (int i = starts[n]; i < ends[n]; i++) {
+                    minX = Math.min(minX, childBoxes[4 * i]);
+                    minY = Math.min(minY, childBoxes[(4 * i) + 1]);
+                    maxX = Math.max(maxX, childBoxes[(4 * i) + 2]);
+                    maxY = Math.max(maxY, childBoxes[(4 * i) + 3]);
+                }
+
+                boxes[4 * n] = minX;
+                boxes[(4 * n) + 1] = minY;
+                boxes[(4 * n) + 2] = maxX;
+                boxes[(4 * n) + 3] = maxY;
+            }
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        /**
+         * Reorder the nodes of this level.
+         *
+         * @param order the new order
+         */
+        public void reorder (int[] order)
+        {
+            final int[] oldStarts = starts;
+            final int[] oldEnds = ends;
+            boxes = SymbolIndex.reorder(boxes, order);
+            starts = new int[count];
+            ends = new int[count];
+
+            for (int i = 0; i < count; i++) {
+                starts[i] = oldStarts[order[i]];
+                ends[i] = oldEnds[order[i]];
+            }
+        }
+    }
+}
@@ -71,6 +71,12 @@ public abstract class Context
     /** File name for neural network model: {@value}. */
     public static final String MODEL_NAME = "patch-classifier.zip";
 
+    /** File name for flat float model: {@value}. */
+    public static final String FLAT_MODEL_NAME = "patch-classifier.f32";
+
+    /** File name for int8-quantized neural network model: {@value}. */
+    public static final String QUANTIZED_MODEL_NAME = "patch-classifier.q8";
+
     //~ Methods ------------------------------------------------------------------------------------
     /**
      * Report the integer value (as multiple of MULTIPLE).
@@ -0,0 +1,518 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                  F l o a t C l a s s i f i e r                                 //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.classifier;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class {@code FloatClassifier} runs the patch classifier in pure Java, without any
+ * DL4J / ND4J dependency, out of the model weights exported to a flat binary file.
+ * <p>
+ * The network follows the architecture defined in {@code Training}: convolution C0 (5x5),
+ * max-pooling S1 (2x2), convolution C2 (5x5), max-pooling S3 (2x2), dense D4 (ReLU) and
+ * output O5 (softmax).
+ * <p>
+ * Computation buffers are allocated once per thread, so that an instance can be shared and
+ * that {@link #classify(int[], float[])} produces no garbage.
+ * As in {@link QuantizedClassifier}, every inner loop is an "axpy" between two arrays indexed
+ * alike, so that the JIT compiler can vectorize it.
+ * <p>
+ * The flat model file is written by {@link #write(Path)}, typically by the {@code Exporter}
+ * of the training application.
+ *
+ * @author Hervé Bitteur
+ */
+public class FloatClassifier
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(FloatClassifier.class);
+
+    /** File magic number ("OMF4"). */
+    private static final int MAGIC = 0x4f4d4634;
+
+    /** File format version. */
+    private static final int VERSION = 1;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Pixels mean value. */
+    private final float mean;
+
+    /** Pixels standard deviation. */
+    private final float std;
+
+    /** Convolution C0. */
+    private final Layer c0;
+
+    /** Convolution C2. */
+    private final Layer c2;
+
+    /** Dense D4. */
+    private final Layer d4;
+
+    /** Output O5. */
+    private final Layer o5;
+
+    /** Normalized input value for each raw pixel value. */
+    private final float[] inputLut = new float[FOREGROUND + 1];
+
+    /** Geometry. */
+    private final int h1 = (CONTEXT_HEIGHT - 4) / 2;
+
+    private final int w1 = (CONTEXT_WIDTH - 4) / 2;
+
+    private final int h3 = (h1 - 4) / 2;
+
+    private final int w3 = (w1 - 4) / 2;
+
+    /** Computation buffers, per thread. */
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>()
+    {
+        @Override
+        protected Buffers initialValue ()
+        {
+            return new Buffers();
+        }
+    };
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code FloatClassifier} object from its components.
+     *
+     * @param mean pixels mean value
+     * @param std  pixels standard deviation
+     * @param c0   C0 layer
+     * @param c2   C2 layer
+     * @param d4   D4 layer
+     * @param o5   O5 layer
+     */
+    public FloatClassifier (float mean,
+                            float std,
+                            Layer c0,
+                            Layer c2,
+                            Layer d4,
+                            Layer o5)
+    {
+        this.mean = mean;
+        this.std = std;
+        this.c0 = c0;
+        this.c2 = c2;
+        this.d4 = d4;
+        this.o5 = o5;
+
+        if ((c0.inputs != 1) || (c2.inputs != c0.outputs)
+            || (d4.inputs != (c2.outputs * h3 * w3)) || (o5.inputs != d4.outputs)) {
+            throw new IllegalArgumentException("Inconsistent layers");
+        }
+
+        for (int p = 0; p <= FOREGROUND; p++) {
+            inputLut[p] = (p - mean) / std;
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Load a classifier from its flat model file.
+     *
+     * @param path path to flat model file
+     * @return the loaded classifier
+     * @throws IOException in case of IO problem or invalid file
+     */
+    public static FloatClassifier load (Path path)
+            throws IOException
+    {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if ((dis.readInt() != MAGIC) || (dis.readInt() != VERSION)) {
+                throw new IOException("Not a flat model file: " + path);
+            }
+
+            final float mean = dis.readFloat();
+            final float std = dis.readFloat();
+            final FloatClassifier classifier = new FloatClassifier(
+                    mean,
+                    std,
+                    Layer.read(dis),
+                    Layer.read(dis),
+                    Layer.read(dis),
+                    Layer.read(dis));
+            logger.info("FloatClassifier loaded from {}", path.toAbsolutePath());
+
+            return classifier;
+        }
+    }
+
+    /**
+     * Classify one patch.
+     *
+     * @param patch the CONTEXT_HEIGHT * CONTEXT_WIDTH raw pixel values, foreground high
+     * @param k     maximum number of predictions
+     * @return the top-k predictions, by decreasing probability
+     */
+    public List<Prediction> classify (int[] patch,
+                                      int k)
+    {
+        final float[] probs = buffers.get().probs;
+        classify(patch, probs);
+
+        final double[] values = new double[probs.length];
+
+        for (int i = 0; i < probs.length; i++) {
+            values[i] = probs[i];
+        }
+
+        return Prediction.topK(values, k);
+    }
+
+    /**
+     * Compute shape probabilities for one patch, without allocating any object.
+     *
+     * @param patch the CONTEXT_HEIGHT * CONTEXT_WIDTH raw pixel values, foreground high
+     * @param probs (output) the probabilities, indexed by shape ordinal
+     */
+    public void classify (int[] patch,
+                          float[] probs)
+    {
+        final Buffers b = buffers.get();
+
+        for (int i = 0; i < b.input.length; i++) {
+            b.input[i] = inputLut[patch[i]];
+        }
+
+        convolve(c0, b.input, CONTEXT_HEIGHT, CONTEXT_WIDTH, b, b.pooled1);
+        convolve(c2, b.pooled1, h1, w1, b, b.pooled3);
+
+        // D4: ReLU
+        dense(d4, b.pooled3, b.hidden);
+
+        for (int o = 0; o < d4.outputs; o++) {
+            b.hidden[o] = Math.max(0, b.hidden[o]);
+        }
+
+        // O5: softmax
+        dense(o5, b.hidden, probs);
+
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int o = 0; o < o5.outputs; o++) {
+            max = Math.max(max, probs[o]);
+        }
+
+        float sum = 0;
+
+        for (int o = 0; o < o5.outputs; o++) {
+            probs[o] = (float) Math.exp(probs[o] - max);
+            sum += probs[o];
+        }
+
+        for (int o = 0; o < o5.outputs; o++) {
+            probs[o] /= sum;
+        }
+    }
+
+    /**
+     * Report the number of shape classes.
+     *
+     * @return number of output values
+     */
+    public int getClassCount ()
+    {
+        return o5.outputs;
+    }
+
+    /**
+     * Write this classifier to a flat model file.
+     *
+     * @param path target file
+     * @throws IOException in case of IO problem
+     */
+    public void write (Path path)
+            throws IOException
+    {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeFloat(mean);
+            dos.writeFloat(std);
+
+            for (Layer layer : new Layer[]{c0, c2, d4, o5}) {
+                layer.write(dos);
+            }
+        }
+    }
+
+    /**
+     * Apply a 5x5 convolution layer followed by a 2x2 max-pooling.
+     * <p>
+     * Convolution is computed over whole input rows, the last (kernel - 1) values of each output
+     * row being meaningless and thus ignored by pooling.
+     *
+     * @param layer  the convolution layer
+     * @param in     input, channel by channel
+     * @param height input height
+     * @param width  input width
+     * @param b      computation buffers
+     * @param out    (output) pooled output, channel by channel
+     */
+    private void convolve (Layer layer,
+                           float[] in,
+                           int height,
+                           int width,
+                           Buffers b,
+                           float[] out)
+    {
+        final int k = layer.kernel;
+        final int ch = (height - k) + 1;
+        final int cw = (width - k) + 1;
+        final int ph = ch / 2;
+        final int pw = cw / 2;
+        final int span = ((ch - 1) * width) + cw; // Span of meaningful values in a plane
+        final float[] shifted = b.shifted;
+
+        for (int co = 0; co < layer.outputs; co++) {
+            Arrays.fill(b.planes[co], 0, span, 0);
+        }
+
+        for (int ci = 0; ci < layer.inputs; ci++) {
+            for (int ky = 0; ky < k; ky++) {
+                for (int kx = 0; kx < k; kx++) {
+                    final float[] weights = layer.values[(((ci * k) + ky) * k) + kx];
+                    System.arraycopy(in, (((ci * height) + ky) * width) + kx, shifted, 0, span);
+
+                    int co = 0;
+
+                    // Output channels by pairs, to load each shifted value only once
+                    for (; (co + 1) < layer.outputs; co += 2) {
+                        final float weight1 = weights[co];
+                        final float weight2 = weights[co + 1];
+                        final float[] p1 = b.planes[co];
+                        final float[] p2 = b.planes[co + 1];
+
+                        for (int i = 0; i < span; i++) {
+                            final float v = shifted[i];
+                            p1[i] += (weight1 * v);
+                            p2[i] += (weight2 * v);
+                        }
+                    }
+
+                    for (; co < layer.outputs; co++) {
+                        final float w = weights[co];
+                        final float[] plane = b.planes[co];
+
+                        for (int i = 0; i < span; i++) {
+                            plane[i] += (w * shifted[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Max-pooling, then bias
+        for (int co = 0; co < layer.outputs; co++) {
+            final float[] plane = b.planes[co];
+            final float bias = layer.bias[co];
+            final int outBase = co * ph * pw;
+
+            for (int py = 0; py < ph; py++) {
+                final int r0 = 2 * py * width;
+                final int r1 = r0 + width;
+
+                for (int px = 0; px < pw; px++) {
+                    final int c = 2 * px;
+                    final float max = Math.max(
+                            Math.max(plane[r0 + c], plane[r0 + c + 1]),
+                            Math.max(plane[r1 + c], plane[r1 + c + 1]));
+                    out[outBase + (py * pw) + px] = max + bias;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a dense layer, without activation.
+     *
+     * @param layer the dense layer
+     * @param in    input
+     * @param out   (output) biased products
+     */
+    private void dense (Layer layer,
+                        float[] in,
+                        float[] out)
+    {
+        final int n = layer.outputs;
+        System.arraycopy(layer.bias, 0, out, 0, n);
+
+        for (int i = 0; i < layer.inputs; i++) {
+            final float x = in[i];
+
+            if (x != 0) {
+                final float[] weights = layer.values[i];
+
+                for (int o = 0; o < n; o++) {
+                    out[o] += (x * weights[o]);
+                }
+            }
+        }
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-------//
+    // Layer //
+    //-------//
+    /**
+     * A weighted layer.
+     * <p>
+     * Convolution weights are stored as [output][input][ky][kx], dense weights as [input][output],
+     * which is the 'c' order of DL4J parameters.
+     */
+    public static class Layer
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Number of input channels (or values). */
+        public final int inputs;
+
+        /** Number of output channels (or values). */
+        public final int outputs;
+
+        /** Kernel size for a convolution, 0 for a dense layer. */
+        public final int kernel;
+
+        /** Weights. */
+        public final float[] weights;
+
+        /** Bias, per output. */
+        public final float[] bias;
+
+        /** Weights, as [input tap][output]. */
+        private final float[][] values;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Layer (int inputs,
+                      int outputs,
+                      int kernel,
+                      float[] weights,
+                      float[] bias)
+        {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.kernel = kernel;
+            this.weights = weights;
+            this.bias = bias;
+
+            final int taps = weights.length / outputs;
+            values = new float[taps][outputs];
+
+            for (int t = 0; t < taps; t++) {
+                for (int o = 0; o < outputs; o++) {
+                    final int pos = (kernel > 0) ? ((o * taps) + t) : ((t * outputs) + o);
+                    values[t][o] = weights[pos];
+                }
+            }
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        private static Layer read (DataInputStream dis)
+                throws IOException
+        {
+            final int inputs = dis.readInt();
+            final int outputs = dis.readInt();
+            final int kernel = dis.readInt();
+            final float[] weights = readFloats(
+                    dis,
+                    inputs * outputs * Math.max(1, kernel * kernel));
+            final float[] bias = readFloats(dis, outputs);
+
+            return new Layer(inputs, outputs, kernel, weights, bias);
+        }
+
+        private static float[] readFloats (DataInputStream dis,
+                                           int count)
+                throws IOException
+        {
+            final float[] vals = new float[count];
+
+            for (int i = 0; i < count; i++) {
+                vals[i] = dis.readFloat();
+            }
+
+            return vals;
+        }
+
+        private void write (DataOutputStream dos)
+                throws IOException
+        {
+            dos.writeInt(inputs);
+            dos.writeInt(outputs);
+            dos.writeInt(kernel);
+
+            for (float w : weights) {
+                dos.writeFloat(w);
+            }
+
+            for (float b : bias) {
+                dos.writeFloat(b);
+            }
+        }
+    }
+
+    //---------//
+    // Buffers //
+    //---------//
+    /**
+     * Computation buffers for one thread.
+     */
+    private class Buffers
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        final float[] input = new float[CONTEXT_HEIGHT * CONTEXT_WIDTH];
+
+        final float[][] planes = new float[Math.max(c0.outputs, c2.outputs)][input.length];
+
+        final float[] shifted = new float[input.length];
+
+        final float[] pooled1 = new float[c0.outputs * h1 * w1];
+
+        final float[] pooled3 = new float[c2.outputs * h3 * w3];
+
+        final float[] hidden = new float[d4.outputs];
+
+        final float[] probs = new float[o5.outputs];
+    }
+}
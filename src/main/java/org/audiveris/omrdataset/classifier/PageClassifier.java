@@ -0,0 +1,633 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                   P a g e C l a s s i f i e r                                  //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.classifier;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class {@code PageClassifier} classifies all context windows of a whole page at once.
+ * <p>
+ * Classifying every candidate location one patch at a time would repeat almost all the
+ * convolutional work between overlapping windows. Instead, the convolution and pooling layers
+ * (C0 to S3) are run only once over the whole page, rescaled to {@link Context#INTERLINE}.
+ * Since both pooling layers divide by 2, a window whose origin is a multiple of 4 pixels maps
+ * exactly to a CONTEXT_HEIGHT/4-3 x CONTEXT_WIDTH/4-3 window of the resulting feature maps.
+ * The dense layers (D4 and O5) are then applied by plain matrix products as a strided sweep
+ * over these feature maps.
+ * <p>
+ * The page is padded with background, so that windows can be centered on any page location.
+ * The result is a {@link ProbabilityMap}, from which {@link Detection} instances are derived by
+ * non-maximum suppression.
+ * <p>
+ * Layers are expected to follow the architecture defined in {@code Training}.
+ * A PageClassifier instance processes one page at a time.
+ *
+ * @author Hervé Bitteur
+ */
+public class PageClassifier
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(PageClassifier.class);
+
+    /** Total sub-sampling factor of the convolution part: {@value}. */
+    public static final int CELL = 4;
+
+    /** Default sweep stride, in pixels at standard interline: {@value}. */
+    public static final int DEFAULT_STRIDE = CELL;
+
+    /** Half size of the suppression box, in pixels at standard interline: {@value}. */
+    public static final int NMS_RADIUS = INTERLINE;
+
+    /** Index of last convolution/pooling layer. */
+    private static final int LAST_CONV_LAYER = 3;
+
+    /** Index of hidden dense layer. */
+    private static final int DENSE_LAYER = 4;
+
+    /** Index of output layer. */
+    private static final int OUTPUT_LAYER = 5;
+
+    /** Number of feature maps rows computed in one convolution band. */
+    private static final int BAND_ROWS = 32;
+
+    /** Maximum number of windows in one dense sweep chunk. */
+    private static final int MAX_CHUNK = 1024;
+
+    /** Width of window in feature maps. */
+    private static final int MAP_WIDTH = (CONTEXT_WIDTH / CELL) - 3;
+
+    /** Height of window in feature maps. */
+    private static final int MAP_HEIGHT = (CONTEXT_HEIGHT / CELL) - 3;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Trained model. */
+    private final MultiLayerNetwork model;
+
+    /** Pixels mean value. */
+    private final double mean;
+
+    /** Pixels standard deviation. */
+    private final double std;
+
+    /** Number of feature maps output by last convolution layer. */
+    private final int channels;
+
+    /** Weights of D4 layer. */
+    private final INDArray w4;
+
+    /** Bias of D4 layer. */
+    private final INDArray b4;
+
+    /** Weights of O5 layer. */
+    private final INDArray w5;
+
+    /** Bias of O5 layer. */
+    private final INDArray b5;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code PageClassifier} object.
+     *
+     * @param modelPath path to model file (which also contains the pixels normalizer)
+     * @throws IOException in case of IO problem
+     */
+    public PageClassifier (Path modelPath)
+            throws IOException
+    {
+        this(
+                ModelSerializer.restoreMultiLayerNetwork(modelPath.toFile(), false),
+                ModelSerializer.<NormalizerStandardize>restoreNormalizerFromFile(
+                        modelPath.toFile()));
+        logger.info("PageClassifier model:{}", modelPath.toAbsolutePath());
+    }
+
+    /**
+     * Creates a new {@code PageClassifier} object on an already loaded model.
+     *
+     * @param model      the trained model
+     * @param normalizer the pixels normalizer
+     */
+    public PageClassifier (MultiLayerNetwork model,
+                           NormalizerStandardize normalizer)
+    {
+        if (normalizer == null) {
+            throw new IllegalArgumentException("No pixels normalizer provided");
+        }
+
+        this.model = model;
+        mean = normalizer.getMean().getDouble(0);
+        std = normalizer.getStd().getDouble(0);
+
+        w4 = model.getLayer(DENSE_LAYER).getParam("W");
+        b4 = model.getLayer(DENSE_LAYER).getParam("b");
+        w5 = model.getLayer(OUTPUT_LAYER).getParam("W");
+        b5 = model.getLayer(OUTPUT_LAYER).getParam("b");
+        channels = w4.rows() / (MAP_WIDTH * MAP_HEIGHT);
+
+        if ((channels * MAP_WIDTH * MAP_HEIGHT) != w4.rows()) {
+            throw new IllegalArgumentException("Unexpected D4 input size " + w4.rows());
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Compute the probability map of a page, at default stride.
+     *
+     * @param img       the (gray) page image
+     * @param interline page interline
+     * @return the probability map
+     */
+    public ProbabilityMap classify (BufferedImage img,
+                                    int interline)
+    {
+        return classify(img, interline, DEFAULT_STRIDE);
+    }
+
+    /**
+     * Compute the probability map of a page.
+     *
+     * @param img       the (gray) page image
+     * @param interline page interline
+     * @param stride    sweep stride, in pixels at standard interline, a multiple of CELL
+     * @return the probability map
+     */
+    public synchronized ProbabilityMap classify (BufferedImage img,
+                                                 int interline,
+                                                 int stride)
+    {
+        if ((stride < CELL) || ((stride % CELL) != 0)) {
+            throw new IllegalArgumentException("Stride " + stride + " not a multiple of " + CELL);
+        }
+
+        if (img.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new IllegalArgumentException("Page image is not TYPE_BYTE_GRAY");
+        }
+
+        final long start = System.nanoTime();
+        final double ratio = (double) INTERLINE / interline;
+        final BufferedImage scaled = (interline == INTERLINE) ? img : scale(img, ratio);
+
+        // Window centers, on a CELL grid
+        final int columns = (scaled.getWidth() + CELL - 1) / CELL;
+        final int rows = (scaled.getHeight() + CELL - 1) / CELL;
+        final float[] maps = computeFeatureMaps(scaled, columns, rows);
+        final long convDone = System.nanoTime();
+
+        final int step = stride / CELL;
+        final ProbabilityMap map = new ProbabilityMap(
+                ratio,
+                stride,
+                ((columns - 1) / step) + 1,
+                ((rows - 1) / step) + 1,
+                w5.columns());
+        sweep(maps, columns + MAP_WIDTH - 1, rows + MAP_HEIGHT - 1, step, map);
+
+        final long end = System.nanoTime();
+        logger.info(
+                "Page {}x{} windows:{} conv:{}ms dense:{}ms",
+                scaled.getWidth(),
+                scaled.getHeight(),
+                map.columns * map.rows,
+                (convDone - start) / 1000000,
+                (end - convDone) / 1000000);
+
+        return map;
+    }
+
+    /**
+     * Detect the valid symbols in a page, at default stride.
+     *
+     * @param img            the (gray) page image
+     * @param interline      page interline
+     * @param minProbability minimum probability for a detection
+     * @return the detections, by decreasing probability
+     */
+    public List<Detection> detect (BufferedImage img,
+                                   int interline,
+                                   double minProbability)
+    {
+        return classify(img, interline).getDetections(minProbability);
+    }
+
+    /**
+     * Run the convolution layers over the whole (padded and normalized) page.
+     * <p>
+     * This is done by horizontal bands, to bound the memory needed by convolution buffers.
+     * Feature maps element (c, y, x) is at index (c * mapsHeight + y) * mapsWidth + x
+     *
+     * @param scaled  page image at standard interline
+     * @param columns number of window columns
+     * @param rows    number of window rows
+     * @return the feature maps of the whole page
+     */
+    private float[] computeFeatureMaps (BufferedImage scaled,
+                                        int columns,
+                                        int rows)
+    {
+        final int width = scaled.getWidth();
+        final int height = scaled.getHeight();
+        final byte[] bytes = ((DataBufferByte) scaled.getRaster().getDataBuffer()).getData();
+
+        // Padding, so that window (0,0) is centered on pixel (0,0)
+        final int padX = CONTEXT_WIDTH / 2;
+        final int padY = CONTEXT_HEIGHT / 2;
+        final int paddedWidth = (CELL * (columns - 1)) + CONTEXT_WIDTH;
+        final int mapsWidth = columns + MAP_WIDTH - 1;
+        final int mapsHeight = rows + MAP_HEIGHT - 1;
+        final float[] maps = new float[channels * mapsHeight * mapsWidth];
+        final float background = (float) ((BACKGROUND - mean) / std);
+        final float[] lut = new float[256];
+
+        for (int i = 0; i < 256; i++) {
+            lut[i] = (float) (((255 - i) - mean) / std);
+        }
+
+        for (int y0 = 0; y0 < mapsHeight; y0 += BAND_ROWS) {
+            final int bandRows = Math.min(BAND_ROWS, mapsHeight - y0);
+            final int bandHeight = (CELL * bandRows) + (CONTEXT_HEIGHT - (CELL * MAP_HEIGHT));
+            final float[] band = new float[bandHeight * paddedWidth];
+
+            for (int by = 0; by < bandHeight; by++) {
+                final int y = ((CELL * y0) + by) - padY; // Page ordinate
+                final int offset = by * paddedWidth;
+
+                for (int bx = 0; bx < paddedWidth; bx++) {
+                    final int x = bx - padX; // Page abscissa
+                    band[offset + bx] = ((y < 0) || (y >= height) || (x < 0) || (x >= width))
+                            ? background : lut[bytes[(y * width) + x] & 0xff];
+                }
+            }
+
+            final INDArray input = Nd4j.create(band, new int[]{1, 1, bandHeight, paddedWidth});
+            final List<INDArray> activations = model.feedForwardToLayer(
+                    LAST_CONV_LAYER,
+                    input,
+                    false);
+            final INDArray out = activations.get(activations.size() - 1).dup('c');
+            final float[] data = out.data().asFloat();
+            final int outHeight = out.size(2);
+            final int outWidth = out.size(3);
+
+            if ((outHeight != bandRows) || (outWidth != mapsWidth)) {
+                throw new IllegalStateException(
+                        "Unexpected band maps " + outWidth + "x" + outHeight);
+            }
+
+            for (int c = 0; c < channels; c++) {
+                System.arraycopy(
+                        data,
+                        c * bandRows * mapsWidth,
+                        maps,
+                        ((c * mapsHeight) + y0) * mapsWidth,
+                        bandRows * mapsWidth);
+            }
+        }
+
+        return maps;
+    }
+
+    /**
+     * Build a scaled version of an image.
+     *
+     * @param img   image to scale
+     * @param ratio scaling ratio
+     * @return the scaled image
+     */
+    private static BufferedImage scale (BufferedImage img,
+                                        double ratio)
+    {
+        AffineTransform at = AffineTransform.getScaleInstance(ratio, ratio);
+        AffineTransformOp atop = new AffineTransformOp(at, AffineTransformOp.TYPE_BILINEAR);
+        BufferedImage scaledImg = new BufferedImage(
+                (int) Math.ceil(img.getWidth() * ratio),
+                (int) Math.ceil(img.getHeight() * ratio),
+                img.getType());
+
+        return atop.filter(img, scaledImg);
+    }
+
+    /**
+     * Apply the dense layers on every window of the sweep.
+     *
+     * @param maps       feature maps of the whole page
+     * @param mapsWidth  feature maps width
+     * @param mapsHeight feature maps height
+     * @param step       sweep step, in feature maps cells
+     * @param map        (output) the probability map to populate
+     */
+    private void sweep (float[] maps,
+                        int mapsWidth,
+                        int mapsHeight,
+                        int step,
+                        ProbabilityMap map)
+    {
+        final int inputs = channels * MAP_HEIGHT * MAP_WIDTH;
+        final int classes = map.classes;
+        final int chunkRows = Math.max(1, MAX_CHUNK / map.columns);
+
+        for (int r0 = 0; r0 < map.rows; r0 += chunkRows) {
+            final int nRows = Math.min(chunkRows, map.rows - r0);
+            final int count = nRows * map.columns;
+            final float[] data = new float[count * inputs];
+            int offset = 0;
+
+            // Gather windows, in the flattening order of D4 input: channel, row, column
+            for (int r = r0; r < (r0 + nRows); r++) {
+                final int my = r * step;
+
+                for (int col = 0; col < map.columns; col++) {
+                    final int mx = col * step;
+
+                    for (int c = 0; c < channels; c++) {
+                        for (int y = 0; y < MAP_HEIGHT; y++) {
+                            System.arraycopy(
+                                    maps,
+                                    (((c * mapsHeight) + my + y) * mapsWidth) + mx,
+                                    data,
+                                    offset,
+                                    MAP_WIDTH);
+                            offset += MAP_WIDTH;
+                        }
+                    }
+                }
+            }
+
+            final INDArray hidden = Nd4j.create(data, new int[]{count, inputs}).mmul(w4);
+            hidden.addiRowVector(b4);
+            Transforms.relu(hidden, false);
+
+            final INDArray logits = hidden.mmul(w5).addiRowVector(b5);
+            final float[] out = logits.dup('c').data().asFloat();
+
+            // Softmax, row by row
+            for (int i = 0; i < count; i++) {
+                final int base = i * classes;
+                float max = Float.NEGATIVE_INFINITY;
+
+                for (int k = 0; k < classes; k++) {
+                    max = Math.max(max, out[base + k]);
+                }
+
+                double sum = 0;
+
+                for (int k = 0; k < classes; k++) {
+                    final double e = Math.exp(out[base + k] - max);
+                    out[base + k] = (float) e;
+                    sum += e;
+                }
+
+                for (int k = 0; k < classes; k++) {
+                    out[base + k] /= sum;
+                }
+            }
+
+            System.arraycopy(out, 0, map.probs, r0 * map.columns * classes, count * classes);
+        }
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----------//
+    // Detection //
+    //-----------//
+    /**
+     * A symbol detected in page.
+     */
+    public static class Detection
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Detected shape. */
+        public final OmrShape shape;
+
+        /** Probability of shape. */
+        public final double probability;
+
+        /** Window center, in initial page coordinates. */
+        public final Point2D center;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Detection (OmrShape shape,
+                          double probability,
+                          Point2D center)
+        {
+            this.shape = shape;
+            this.probability = probability;
+            this.center = center;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public String toString ()
+        {
+            return String.format(
+                    "%s:%.3f@(%.1f,%.1f)",
+                    shape,
+                    probability,
+                    center.getX(),
+                    center.getY());
+        }
+    }
+
+    //----------------//
+    // ProbabilityMap //
+    //----------------//
+    /**
+     * Shape probabilities for each window of a page sweep.
+     * <p>
+     * Window (column, row) is centered on pixel (column * stride, row * stride) of the page
+     * rescaled to standard interline.
+     */
+    public static class ProbabilityMap
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Scaling ratio from initial page to standard interline. */
+        public final double ratio;
+
+        /** Sweep stride, in pixels at standard interline. */
+        public final int stride;
+
+        /** Number of window columns. */
+        public final int columns;
+
+        /** Number of window rows. */
+        public final int rows;
+
+        /** Number of shape classes. */
+        public final int classes;
+
+        /** Probabilities, indexed by (row * columns + column) * classes + shape. */
+        private final float[] probs;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public ProbabilityMap (double ratio,
+                               int stride,
+                               int columns,
+                               int rows,
+                               int classes)
+        {
+            this.ratio = ratio;
+            this.stride = stride;
+            this.columns = columns;
+            this.rows = rows;
+            this.classes = classes;
+            probs = new float[columns * rows * classes];
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        /**
+         * Report the window center, in initial page coordinates.
+         *
+         * @param column window column
+         * @param row    window row
+         * @return window center
+         */
+        public Point2D getCenter (int column,
+                                  int row)
+        {
+            return new Point2D.Double((column * stride) / ratio, (row * stride) / ratio);
+        }
+
+        /**
+         * Derive detections by non-maximum suppression.
+         * <p>
+         * A window is a candidate if its best shape is not none and reaches the minimum
+         * probability. Candidates are then accepted by decreasing probability, each accepted
+         * detection suppressing the candidates of same shape within NMS_RADIUS.
+         *
+         * @param minProbability minimum probability for a detection
+         * @return the detections, by decreasing probability
+         */
+        public List<Detection> getDetections (double minProbability)
+        {
+            final int noneIndex = OmrShape.none.ordinal();
+            final List<Integer> candidates = new ArrayList<Integer>();
+            final int[] bestShapes = new int[columns * rows];
+
+            for (int w = 0; w < bestShapes.length; w++) {
+                final int base = w * classes;
+                int best = 0;
+
+                for (int k = 1; k < classes; k++) {
+                    if (probs[base + k] > probs[base + best]) {
+                        best = k;
+                    }
+                }
+
+                bestShapes[w] = best;
+
+                if ((best != noneIndex) && (probs[base + best] >= minProbability)) {
+                    candidates.add(w);
+                }
+            }
+
+            Collections.sort(
+                    candidates,
+                    new Comparator<Integer>()
+            {
+                @Override
+                public int compare (Integer w1,
+                                    Integer w2)
+                {
+                    return Float.compare(
+                            probs[(w2 * classes) + bestShapes[w2]],
+                            probs[(w1 * classes) + bestShapes[w1]]);
+                }
+            });
+
+            // Suppressed windows, per shape
+            final BitSet[] suppressed = new BitSet[classes];
+            final int radius = NMS_RADIUS / stride;
+            final OmrShape[] shapes = OmrShape.values();
+            final List<Detection> detections = new ArrayList<Detection>();
+
+            for (int w : candidates) {
+                final int shape = bestShapes[w];
+
+                if (suppressed[shape] == null) {
+                    suppressed[shape] = new BitSet(columns * rows);
+                } else if (suppressed[shape].get(w)) {
+                    continue;
+                }
+
+                final int column = w % columns;
+                final int row = w / columns;
+                detections.add(
+                        new Detection(
+                                shapes[shape],
+                                probs[(w * classes) + shape],
+                                getCenter(column, row)));
+
+                final int cMin = Math.max(0, column - radius);
+                final int cMax = Math.min(columns - 1, column + radius);
+
+                for (int r = Math.max(0, row - radius); r <= Math.min(rows - 1, row + radius);
+                        r++) {
+                    suppressed[shape].set((r * columns) + cMin, (r * columns) + cMax + 1);
+                }
+            }
+
+            return detections;
+        }
+
+        /**
+         * Report the probability of a shape for a window.
+         *
+         * @param column window column
+         * @param row    window row
+         * @param shape  the shape
+         * @return shape probability
+         */
+        public double getProbability (int column,
+                                      int row,
+                                      OmrShape shape)
+        {
+            return probs[(((row * columns) + column) * classes) + shape.ordinal()];
+        }
+    }
+}
@@ -0,0 +1,495 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                  P a t c h C l a s s i f i e r                                 //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.classifier;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.factory.Nd4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class {@code PatchClassifier} is a thread-safe inference engine for context patches.
+ * <p>
+ * The model and its bundled pixels normalizer are loaded only once.
+ * Patches submitted by any number of caller threads are queued and coalesced into mini-batches:
+ * a batch is run as soon as it reaches the maximum batch size or when its oldest patch has waited
+ * for the maximum wait time.
+ * <p>
+ * Since {@link MultiLayerNetwork} is not thread-safe, batches are run by a small pool of worker
+ * threads, each with its own model replica.
+ * <p>
+ * A patch is the CONTEXT_HEIGHT * CONTEXT_WIDTH raw pixel values, row by row, with foreground
+ * high (exactly as written in features file). Normalization is performed by the classifier.
+ *
+ * @author Hervé Bitteur
+ */
+public class PatchClassifier
+        implements AutoCloseable
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(PatchClassifier.class);
+
+    /**
+     * Default number of model replicas: {@value}.
+     * Each replica already runs its batches on the multi-threaded native backend, hence more
+     * replicas than this would mostly compete for the same cores and multiply model memory.
+     */
+    public static final int DEFAULT_REPLICAS = 2;
+
+    /** Default maximum number of patches per batch: {@value}. */
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /** Default maximum wait time, in microseconds, before a partial batch is run: {@value}. */
+    public static final long DEFAULT_MAX_WAIT_MICROS = 2000;
+
+    /** Number of pixels in a patch. */
+    private static final int PATCH_LENGTH = CONTEXT_HEIGHT * CONTEXT_WIDTH;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Pixels mean value. */
+    private final double mean;
+
+    /** Pixels standard deviation. */
+    private final double std;
+
+    /** Maximum number of patches per batch. */
+    private final int maxBatch;
+
+    /** Maximum wait time for a batch, in nanoseconds. */
+    private final long maxWaitNanos;
+
+    /** Pending requests. */
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+
+    /** Worker threads, one per model replica. */
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    /** Number of batches run so far. */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /** Number of patches classified so far. */
+    private final AtomicLong patchCount = new AtomicLong();
+
+    /** Set when classifier is closed. */
+    private volatile boolean closed;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code PatchClassifier} object, with default parameters.
+     *
+     * @param modelPath path to model file (which also contains the pixels normalizer)
+     * @throws IOException in case of IO problem
+     */
+    public PatchClassifier (Path modelPath)
+            throws IOException
+    {
+        this(modelPath, DEFAULT_REPLICAS);
+    }
+
+    /**
+     * Creates a new {@code PatchClassifier} object, with default batch parameters.
+     *
+     * @param modelPath path to model file (which also contains the pixels normalizer)
+     * @param replicas  number of model replicas (and worker threads)
+     * @throws IOException in case of IO problem
+     */
+    public PatchClassifier (Path modelPath,
+                            int replicas)
+            throws IOException
+    {
+        this(modelPath, replicas, DEFAULT_MAX_BATCH, DEFAULT_MAX_WAIT_MICROS);
+    }
+
+    /**
+     * Creates a new {@code PatchClassifier} object.
+     *
+     * @param modelPath     path to model file (which also contains the pixels normalizer)
+     * @param replicas      number of model replicas (and worker threads)
+     * @param maxBatch      maximum number of patches per batch
+     * @param maxWaitMicros maximum wait time for a partial batch, in microseconds
+     * @throws IOException in case of IO problem
+     */
+    public PatchClassifier (Path modelPath,
+                            int replicas,
+                            int maxBatch,
+                            long maxWaitMicros)
+            throws IOException
+    {
+        this(
+                ModelSerializer.restoreMultiLayerNetwork(modelPath.toFile(), false),
+                restoreNormalizer(modelPath),
+                replicas,
+                maxBatch,
+                maxWaitMicros);
+        logger.info(
+                "PatchClassifier model:{} replicas:{} maxBatch:{} maxWait:{}us",
+                modelPath.toAbsolutePath(),
+                replicas,
+                maxBatch,
+                maxWaitMicros);
+    }
+
+    /**
+     * Creates a new {@code PatchClassifier} object on an already loaded model.
+     *
+     * @param model         the trained model, used as first replica
+     * @param normalizer    the pixels normalizer
+     * @param replicas      number of model replicas (and worker threads)
+     * @param maxBatch      maximum number of patches per batch
+     * @param maxWaitMicros maximum wait time for a partial batch, in microseconds
+     */
+    public PatchClassifier (MultiLayerNetwork model,
+                            NormalizerStandardize normalizer,
+                            int replicas,
+                            int maxBatch,
+                            long maxWaitMicros)
+    {
+        if ((replicas < 1) || (maxBatch < 1) || (maxWaitMicros < 0)) {
+            throw new IllegalArgumentException(
+                    "Illegal replicas:" + replicas + " maxBatch:" + maxBatch + " maxWait:"
+                    + maxWaitMicros);
+        }
+
+        this.mean = normalizer.getMean().getDouble(0);
+        this.std = normalizer.getStd().getDouble(0);
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+
+        for (int i = 0; i < replicas; i++) {
+            final MultiLayerNetwork replica = (i == 0) ? model : model.clone();
+            final Thread worker = new Thread(new Worker(replica), "classifier-" + (i + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Classify one patch, waiting for the result.
+     *
+     * @param patch the patch pixels
+     * @param k     maximum number of predictions
+     * @return the top-k predictions, by decreasing probability
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Prediction> classify (int[] patch,
+                                      int k)
+            throws InterruptedException
+    {
+        try {
+            return submit(patch, k).get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Classification failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Close the classifier.
+     * <p>
+     * Worker threads are stopped and any pending request is cancelled.
+     */
+    @Override
+    public void close ()
+    {
+        closed = true;
+
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+
+        for (Request request; (request = requests.poll()) != null;) {
+            request.future.cancel(false);
+        }
+    }
+
+    /**
+     * Report the number of batches run so far.
+     *
+     * @return count of batches
+     */
+    public long getBatchCount ()
+    {
+        return batchCount.get();
+    }
+
+    /**
+     * Report the number of patches classified so far.
+     *
+     * @return count of patches
+     */
+    public long getPatchCount ()
+    {
+        return patchCount.get();
+    }
+
+    /**
+     * Submit one patch for asynchronous classification.
+     *
+     * @param patch the patch pixels
+     * @param k     maximum number of predictions, at least 1
+     * @return the future top-k predictions, by decreasing probability
+     * @throws IllegalArgumentException if patch length is wrong or k is less than 1
+     * @throws IllegalStateException    if classifier is closed
+     */
+    public Future<List<Prediction>> submit (int[] patch,
+                                            int k)
+    {
+        if (patch.length != PATCH_LENGTH) {
+            throw new IllegalArgumentException(
+                    "Patch length " + patch.length + " != " + PATCH_LENGTH);
+        }
+
+        if (k < 1) {
+            throw new IllegalArgumentException("Illegal k:" + k);
+        }
+
+        if (closed) {
+            throw new IllegalStateException("PatchClassifier is closed");
+        }
+
+        final Request request = new Request(patch, k);
+        requests.add(request);
+
+        // Re-check, since close() may have drained the queue just before our request got in
+        if (closed) {
+            requests.remove(request);
+            request.future.cancel(false);
+
+            throw new IllegalStateException("PatchClassifier is closed");
+        }
+
+        return request.future;
+    }
+
+    /**
+     * Restore the pixels normalizer bundled with the model.
+     *
+     * @param modelPath path to model file
+     * @return the normalizer
+     * @throws IOException in case of IO problem or if no normalizer is found
+     */
+    private static NormalizerStandardize restoreNormalizer (Path modelPath)
+            throws IOException
+    {
+        NormalizerStandardize normalizer = ModelSerializer.restoreNormalizerFromFile(
+                modelPath.toFile());
+
+        if (normalizer == null) {
+            throw new IOException("No pixels normalizer found in " + modelPath);
+        }
+
+        return normalizer;
+    }
+
+    /**
+     * Report the top-k predictions out of one row of probabilities.
+     *
+     * @param output probabilities, one row per patch
+     * @param row    patch row in output
+     * @param k      maximum number of predictions
+     * @return the predictions, by decreasing probability
+     */
+    private static List<Prediction> topK (INDArray output,
+                                          int row,
+                                          int k)
+    {
+        final double[] probs = new double[output.columns()];
+
+        for (int c = 0; c < probs.length; c++) {
+            probs[c] = output.getDouble(row, c);
+        }
+
+        return Prediction.topK(probs, k);
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //---------//
+    // Request //
+    //---------//
+    /**
+     * A pending classification request.
+     */
+    private static class Request
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        final int[] patch;
+
+        final int k;
+
+        final long arrival = System.nanoTime();
+
+        final CompletableFuture<List<Prediction>> future
+                = new CompletableFuture<List<Prediction>>();
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Request (int[] patch,
+                        int k)
+        {
+            this.patch = patch;
+            this.k = k;
+        }
+    }
+
+    //--------//
+    // Worker //
+    //--------//
+    /**
+     * A worker thread, which gathers requests into batches and runs them on its model replica.
+     */
+    private class Worker
+            implements Runnable
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        private final MultiLayerNetwork replica;
+
+        private final List<Request> batch = new ArrayList<Request>(maxBatch);
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Worker (MultiLayerNetwork replica)
+        {
+            this.replica = replica;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public void run ()
+        {
+            try {
+                while (!closed) {
+                    gather();
+                    process();
+                }
+            } catch (InterruptedException ex) {
+                logger.debug("{} stopped", Thread.currentThread().getName());
+            } finally {
+                for (Request request : batch) {
+                    request.future.cancel(false);
+                }
+            }
+        }
+
+        /**
+         * Gather the next batch of requests.
+         * <p>
+         * We block until one request is available, then collect more requests until batch is full
+         * or the first request has waited long enough.
+         */
+        private void gather ()
+                throws InterruptedException
+        {
+            batch.clear();
+
+            final Request first = requests.take();
+            batch.add(first);
+
+            final long deadline = first.arrival + maxWaitNanos;
+            requests.drainTo(batch, maxBatch - batch.size());
+
+            while (batch.size() < maxBatch) {
+                final long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    break;
+                }
+
+                final Request request = requests.poll(remaining, TimeUnit.NANOSECONDS);
+
+                if (request == null) {
+                    break;
+                }
+
+                batch.add(request);
+                requests.drainTo(batch, maxBatch - batch.size());
+            }
+        }
+
+        /**
+         * Run the current batch through the model replica and complete its requests.
+         */
+        private void process ()
+        {
+            final int count = batch.size();
+
+            try {
+                final float[] data = new float[count * PATCH_LENGTH];
+
+                for (int i = 0; i < count; i++) {
+                    final int[] patch = batch.get(i).patch;
+                    final int offset = i * PATCH_LENGTH;
+
+                    for (int j = 0; j < PATCH_LENGTH; j++) {
+                        data[offset + j] = (float) ((patch[j] - mean) / std);
+                    }
+                }
+
+                final INDArray input = Nd4j.create(data, new int[]{count, PATCH_LENGTH});
+                final INDArray output = replica.output(input, false);
+                batchCount.incrementAndGet();
+                patchCount.addAndGet(count);
+
+                // A failure on one request must not affect the other requests of the batch
+                for (int i = 0; i < count; i++) {
+                    final Request request = batch.get(i);
+
+                    try {
+                        request.future.complete(
+                                Collections.unmodifiableList(topK(output, i, request.k)));
+                    } catch (Throwable ex) {
+                        request.future.completeExceptionally(ex);
+                    }
+                }
+            } catch (Throwable ex) {
+                logger.warn("Error classifying batch of {} patches", count, ex);
+
+                for (Request request : batch) {
+                    request.future.completeExceptionally(ex);
+                }
+            }
+
+            batch.clear();
+        }
+    }
+}
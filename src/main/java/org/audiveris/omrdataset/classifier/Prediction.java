@@ -0,0 +1,94 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       P r e d i c t i o n                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.classifier;
+
+import org.audiveris.omrdataset.api.OmrShape;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class {@code Prediction} is one shape predicted by a classifier, with its probability.
+ *
+ * @author Hervé Bitteur
+ */
+public class Prediction
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** Predicted shape. */
+    public final OmrShape shape;
+
+    /** Probability of this shape. */
+    public final double probability;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code Prediction} object.
+     *
+     * @param shape       predicted shape
+     * @param probability shape probability
+     */
+    public Prediction (OmrShape shape,
+                       double probability)
+    {
+        this.shape = shape;
+        this.probability = probability;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Report the top-k predictions out of the probabilities of all shapes.
+     *
+     * @param probs probabilities, indexed by shape ordinal (array is modified)
+     * @param k     maximum number of predictions
+     * @return the predictions, by decreasing probability
+     */
+    public static List<Prediction> topK (double[] probs,
+                                         int k)
+    {
+        final OmrShape[] shapes = OmrShape.values();
+        final int count = Math.min(k, probs.length);
+        final List<Prediction> predictions = new ArrayList<Prediction>(count);
+
+        for (int i = 0; i < count; i++) {
+            int best = 0;
+
+            for (int c = 1; c < probs.length; c++) {
+                if (probs[c] > probs[best]) {
+                    best = c;
+                }
+            }
+
+            predictions.add(new Prediction(shapes[best], probs[best]));
+            probs[best] = Double.NEGATIVE_INFINITY;
+        }
+
+        return predictions;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format("%s:%.3f", shape, probability);
+    }
+}
@@ -0,0 +1,576 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                              Q u a n t i z e d C l a s s i f i e r                             //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.classifier;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class {@code QuantizedClassifier} runs an int8-quantized version of the patch classifier,
+ * in pure Java.
+ * <p>
+ * The network follows the architecture defined in {@code Training}: convolution C0 (5x5),
+ * max-pooling S1 (2x2), convolution C2 (5x5), max-pooling S3 (2x2), dense D4 (ReLU) and
+ * output O5 (softmax).
+ * <p>
+ * Weights are int8 values with one scale per output channel. The input of each weighted layer
+ * is quantized to int8 with one scale per layer, calibrated on a sample of features.
+ * Products are cumulated in int32, and the cumulated values are converted back to float with
+ * the product of input and weight scales. Since all scales are positive, max-pooling is
+ * performed directly on int32 values.
+ * <p>
+ * Int8 values are widened to int in memory, and every inner loop is an "axpy" between two
+ * arrays indexed alike, the only form the JIT compiler reliably vectorizes. To this end,
+ * convolutions run along whole input rows, each shifted input slice being copied once and then
+ * applied to all output channels.
+ * Computation buffers are allocated once per thread, so that an instance can be shared.
+ * <p>
+ * Since computation is thus performed on 32-bit values, this class is not significantly faster
+ * than {@link FloatClassifier}: on Java 8, loops over {@code byte[]} or {@code short[]} operands
+ * widened to int are not vectorized, and measured slower than the int loops used here.
+ * The gain of quantization is the model size, about 4 times smaller, not the latency.
+ * <p>
+ * The quantized model file is written by {@link #write(Path)}, typically by the
+ * {@code Quantizer} of the training application.
+ *
+ * @author Hervé Bitteur
+ */
+public class QuantizedClassifier
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(QuantizedClassifier.class);
+
+    /** File magic number ("OMQ8"). */
+    private static final int MAGIC = 0x4f4d5138;
+
+    /** File format version. */
+    private static final int VERSION = 1;
+
+    /** Maximum magnitude of an int8 value. */
+    public static final int QMAX = 127;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Pixels mean value. */
+    private final float mean;
+
+    /** Pixels standard deviation. */
+    private final float std;
+
+    /** Convolution C0. */
+    private final Layer c0;
+
+    /** Convolution C2. */
+    private final Layer c2;
+
+    /** Dense D4. */
+    private final Layer d4;
+
+    /** Output O5. */
+    private final Layer o5;
+
+    /** Quantized input value for each raw pixel value. */
+    private final int[] inputLut = new int[FOREGROUND + 1];
+
+    /** Geometry. */
+    private final int h0 = CONTEXT_HEIGHT - 4;
+
+    private final int w0 = CONTEXT_WIDTH - 4;
+
+    private final int h1 = h0 / 2;
+
+    private final int w1 = w0 / 2;
+
+    private final int h2 = h1 - 4;
+
+    private final int w2 = w1 - 4;
+
+    private final int h3 = h2 / 2;
+
+    private final int w3 = w2 / 2;
+
+    /** Computation buffers, per thread. */
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>()
+    {
+        @Override
+        protected Buffers initialValue ()
+        {
+            return new Buffers();
+        }
+    };
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code QuantizedClassifier} object from its components.
+     *
+     * @param mean pixels mean value
+     * @param std  pixels standard deviation
+     * @param c0   quantized C0 layer
+     * @param c2   quantized C2 layer
+     * @param d4   quantized D4 layer
+     * @param o5   quantized O5 layer
+     */
+    public QuantizedClassifier (float mean,
+                                float std,
+                                Layer c0,
+                                Layer c2,
+                                Layer d4,
+                                Layer o5)
+    {
+        this.mean = mean;
+        this.std = std;
+        this.c0 = c0;
+        this.c2 = c2;
+        this.d4 = d4;
+        this.o5 = o5;
+
+        if ((c0.inputs != 1) || (c2.inputs != c0.outputs)
+            || (d4.inputs != (c2.outputs * h3 * w3)) || (o5.inputs != d4.outputs)) {
+            throw new IllegalArgumentException("Inconsistent layers");
+        }
+
+        for (int p = 0; p <= FOREGROUND; p++) {
+            inputLut[p] = quantize((p - mean) / std, c0.inputScale);
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Load a quantized classifier from its file.
+     *
+     * @param path path to quantized model file
+     * @return the loaded classifier
+     * @throws IOException in case of IO problem or invalid file
+     */
+    public static QuantizedClassifier load (Path path)
+            throws IOException
+    {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if ((dis.readInt() != MAGIC) || (dis.readInt() != VERSION)) {
+                throw new IOException("Not a quantized model file: " + path);
+            }
+
+            final float mean = dis.readFloat();
+            final float std = dis.readFloat();
+            final QuantizedClassifier classifier = new QuantizedClassifier(
+                    mean,
+                    std,
+                    Layer.read(dis),
+                    Layer.read(dis),
+                    Layer.read(dis),
+                    Layer.read(dis));
+            logger.info("QuantizedClassifier loaded from {}", path.toAbsolutePath());
+
+            return classifier;
+        }
+    }
+
+    /**
+     * Quantize a value with the provided scale.
+     *
+     * @param val   the float value
+     * @param scale the quantization scale
+     * @return the int8 value, clamped to [-QMAX..QMAX]
+     */
+    public static byte quantize (float val,
+                                 float scale)
+    {
+        return (byte) Math.max(-QMAX, Math.min(QMAX, Math.round(val / scale)));
+    }
+
+    /**
+     * Classify one patch.
+     *
+     * @param patch the CONTEXT_HEIGHT * CONTEXT_WIDTH raw pixel values, foreground high
+     * @param k     maximum number of predictions
+     * @return the top-k predictions, by decreasing probability
+     */
+    public List<Prediction> classify (int[] patch,
+                                      int k)
+    {
+        final float[] probs = buffers.get().probs;
+        classify(patch, probs);
+
+        final double[] values = new double[probs.length];
+
+        for (int i = 0; i < probs.length; i++) {
+            values[i] = probs[i];
+        }
+
+        return Prediction.topK(values, k);
+    }
+
+    /**
+     * Compute shape probabilities for one patch, without allocating any object.
+     *
+     * @param patch the CONTEXT_HEIGHT * CONTEXT_WIDTH raw pixel values, foreground high
+     * @param probs (output) the probabilities, indexed by shape ordinal
+     */
+    public void classify (int[] patch,
+                          float[] probs)
+    {
+        final Buffers b = buffers.get();
+
+        // Quantized input
+        for (int i = 0; i < b.input.length; i++) {
+            b.input[i] = inputLut[patch[i]];
+        }
+
+        convolve(c0, b.input, CONTEXT_HEIGHT, CONTEXT_WIDTH, b, b.pooled1, c2.inputScale);
+        convolve(c2, b.pooled1, h1, w1, b, b.pooled3, d4.inputScale);
+        dense(d4, b.pooled3, b.acc4);
+
+        // D4: ReLU then quantization as O5 input
+        final float s4 = d4.inputScale;
+
+        for (int o = 0; o < d4.outputs; o++) {
+            final float v = (b.acc4[o] * s4 * d4.scales[o]) + d4.bias[o];
+            b.hidden[o] = (v > 0) ? quantize(v, o5.inputScale) : 0;
+        }
+
+        dense(o5, b.hidden, b.acc5);
+
+        // O5: softmax
+        final float s5 = o5.inputScale;
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int o = 0; o < o5.outputs; o++) {
+            probs[o] = (b.acc5[o] * s5 * o5.scales[o]) + o5.bias[o];
+            max = Math.max(max, probs[o]);
+        }
+
+        float sum = 0;
+
+        for (int o = 0; o < o5.outputs; o++) {
+            probs[o] = (float) Math.exp(probs[o] - max);
+            sum += probs[o];
+        }
+
+        for (int o = 0; o < o5.outputs; o++) {
+            probs[o] /= sum;
+        }
+    }
+
+    /**
+     * Report the number of shape classes.
+     *
+     * @return number of output values
+     */
+    public int getClassCount ()
+    {
+        return o5.outputs;
+    }
+
+    /**
+     * Write this quantized classifier to a file.
+     *
+     * @param path target file
+     * @throws IOException in case of IO problem
+     */
+    public void write (Path path)
+            throws IOException
+    {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeFloat(mean);
+            dos.writeFloat(std);
+
+            for (Layer layer : new Layer[]{c0, c2, d4, o5}) {
+                layer.write(dos);
+            }
+        }
+    }
+
+    /**
+     * Apply a 5x5 convolution layer followed by a 2x2 max-pooling, and quantize the result.
+     * <p>
+     * Convolution is computed over whole input rows, the last (kernel - 1) values of each output
+     * row being meaningless and thus ignored by pooling.
+     *
+     * @param layer       the convolution layer
+     * @param in          quantized input, channel by channel
+     * @param height      input height
+     * @param width       input width
+     * @param b           computation buffers
+     * @param out         (output) quantized pooled output, channel by channel
+     * @param outputScale quantization scale for output
+     */
+    private void convolve (Layer layer,
+                           int[] in,
+                           int height,
+                           int width,
+                           Buffers b,
+                           int[] out,
+                           float outputScale)
+    {
+        final int k = layer.kernel;
+        final int ch = (height - k) + 1;
+        final int cw = (width - k) + 1;
+        final int ph = ch / 2;
+        final int pw = cw / 2;
+        final int span = ((ch - 1) * width) + cw; // Span of meaningful values in a plane
+        final int[] shifted = b.shifted;
+
+        for (int co = 0; co < layer.outputs; co++) {
+            Arrays.fill(b.planes[co], 0, span, 0);
+        }
+
+        for (int ci = 0; ci < layer.inputs; ci++) {
+            for (int ky = 0; ky < k; ky++) {
+                for (int kx = 0; kx < k; kx++) {
+                    final int[] weights = layer.values[(((ci * k) + ky) * k) + kx];
+                    System.arraycopy(in, (((ci * height) + ky) * width) + kx, shifted, 0, span);
+
+                    int co = 0;
+
+                    // Output channels by pairs, to load each shifted value only once
+                    for (; (co + 1) < layer.outputs; co += 2) {
+                        final int w1 = weights[co];
+                        final int w2 = weights[co + 1];
+                        final int[] p1 = b.planes[co];
+                        final int[] p2 = b.planes[co + 1];
+
+                        for (int i = 0; i < span; i++) {
+                            final int v = shifted[i];
+                            p1[i] += (w1 * v);
+                            p2[i] += (w2 * v);
+                        }
+                    }
+
+                    for (; co < layer.outputs; co++) {
+                        final int w = weights[co];
+                        final int[] plane = b.planes[co];
+
+                        for (int i = 0; i < span; i++) {
+                            plane[i] += (w * shifted[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Max-pooling on int32 values, then de-quantization, bias, and re-quantization
+        for (int co = 0; co < layer.outputs; co++) {
+            final int[] plane = b.planes[co];
+            final float scale = layer.inputScale * layer.scales[co];
+            final float bias = layer.bias[co];
+            final int outBase = co * ph * pw;
+
+            for (int py = 0; py < ph; py++) {
+                final int r0 = 2 * py * width;
+                final int r1 = r0 + width;
+
+                for (int px = 0; px < pw; px++) {
+                    final int c = 2 * px;
+                    final int max = Math.max(
+                            Math.max(plane[r0 + c], plane[r0 + c + 1]),
+                            Math.max(plane[r1 + c], plane[r1 + c + 1]));
+                    out[outBase + (py * pw) + px] = quantize((max * scale) + bias, outputScale);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the int8 products of a dense layer.
+     *
+     * @param layer the dense layer
+     * @param in    quantized input
+     * @param acc   (output) int32 cumulated products
+     */
+    private void dense (Layer layer,
+                        int[] in,
+                        int[] acc)
+    {
+        final int n = layer.outputs;
+        Arrays.fill(acc, 0, n, 0);
+
+        for (int i = 0; i < layer.inputs; i++) {
+            final int x = in[i];
+
+            if (x != 0) {
+                final int[] weights = layer.values[i];
+
+                for (int o = 0; o < n; o++) {
+                    acc[o] += (x * weights[o]);
+                }
+            }
+        }
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-------//
+    // Layer //
+    //-------//
+    /**
+     * A quantized weighted layer.
+     * <p>
+     * Convolution weights are stored as [output][input][ky][kx], dense weights as [input][output].
+     */
+    public static class Layer
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Number of input channels (or values). */
+        public final int inputs;
+
+        /** Number of output channels (or values). */
+        public final int outputs;
+
+        /** Kernel size for a convolution, 0 for a dense layer. */
+        public final int kernel;
+
+        /** Quantization scale of layer input. */
+        public final float inputScale;
+
+        /** Quantization scale of weights, per output. */
+        public final float[] scales;
+
+        /** Quantized weights. */
+        public final byte[] weights;
+
+        /** Bias, per output. */
+        public final float[] bias;
+
+        /** Quantized weights, widened to int, as [input tap][output]. */
+        private final int[][] values;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Layer (int inputs,
+                      int outputs,
+                      int kernel,
+                      float inputScale,
+                      float[] scales,
+                      byte[] weights,
+                      float[] bias)
+        {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.kernel = kernel;
+            this.inputScale = inputScale;
+            this.scales = scales;
+            this.weights = weights;
+            this.bias = bias;
+
+            final int taps = weights.length / outputs;
+            values = new int[taps][outputs];
+
+            for (int t = 0; t < taps; t++) {
+                for (int o = 0; o < outputs; o++) {
+                    final int pos = (kernel > 0) ? ((o * taps) + t) : ((t * outputs) + o);
+                    values[t][o] = weights[pos];
+                }
+            }
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        private static Layer read (DataInputStream dis)
+                throws IOException
+        {
+            final int inputs = dis.readInt();
+            final int outputs = dis.readInt();
+            final int kernel = dis.readInt();
+            final float inputScale = dis.readFloat();
+            final float[] scales = new float[outputs];
+
+            for (int i = 0; i < outputs; i++) {
+                scales[i] = dis.readFloat();
+            }
+
+            final byte[] weights = new byte[inputs * outputs * Math.max(1, kernel * kernel)];
+            dis.readFully(weights);
+
+            final float[] bias = new float[outputs];
+
+            for (int i = 0; i < outputs; i++) {
+                bias[i] = dis.readFloat();
+            }
+
+            return new Layer(inputs, outputs, kernel, inputScale, scales, weights, bias);
+        }
+
+        private void write (DataOutputStream dos)
+                throws IOException
+        {
+            dos.writeInt(inputs);
+            dos.writeInt(outputs);
+            dos.writeInt(kernel);
+            dos.writeFloat(inputScale);
+
+            for (float scale : scales) {
+                dos.writeFloat(scale);
+            }
+
+            dos.write(weights);
+
+            for (float b : bias) {
+                dos.writeFloat(b);
+            }
+        }
+    }
+
+    //---------//
+    // Buffers //
+    //---------//
+    /**
+     * Computation buffers for one thread.
+     */
+    private class Buffers
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        final int[] input = new int[CONTEXT_HEIGHT * CONTEXT_WIDTH];
+
+        final int[][] planes = new int[Math.max(c0.outputs, c2.outputs)][input.length];
+
+        final int[] shifted = new int[input.length];
+
+        final int[] pooled1 = new int[c0.outputs * h1 * w1];
+
+        final int[] pooled3 = new int[c2.outputs * h3 * w3];
+
+        final int[] acc4 = new int[d4.outputs];
+
+        final int[] hidden = new int[d4.outputs];
+
+        final int[] acc5 = new int[o5.outputs];
+
+        final float[] probs = new float[o5.outputs];
+    }
+}
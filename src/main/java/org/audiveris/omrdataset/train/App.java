@@ -43,15 +43,96 @@ public abstract class App
     /** Ordinate margin around a None symbol location. */
     public static final int NONE_Y_MARGIN = (int) Math.rint(INTERLINE * 0.5);
 
+    /** Grid step between None candidates scored by mining, in context pixels: {@value}. */
+    public static final int MINING_STEP = 4;
+
+    /** Maximum number of None candidates scored by mining, per sheet: {@value}. */
+    public static final int MINING_MAX_CANDIDATES = 4096;
+
     /** Ratio of None symbols created versus valid symbols found in page: {@value}. */
     public static final double NONE_RATIO = 0.2; // 1.0;
 
+    /** Minimum probability for a symbol detected in page: {@value}. */
+    public static final double DETECTION_MIN_PROBABILITY = 0.5;
+
+    /** Number of threads handling server requests: {@value}. */
+    public static final int SERVER_THREADS = 16;
+
+    /** Number of most recent requests kept for server latency statistics: {@value}. */
+    public static final int SERVER_LATENCY_WINDOW = 10000;
+
+    /** Maximum size, in bytes, of an image posted to server: {@value}. */
+    public static final int SERVER_MAX_IMAGE_BYTES = 64 << 20;
+
+    /** Minimum interline of an image posted to server, to bound its upscaling: {@value}. */
+    public static final int SERVER_MIN_INTERLINE = 5;
+
+    /** Maximum interline of an image posted to server: {@value}. */
+    public static final int SERVER_MAX_INTERLINE = 100;
+
+    /** Maximum number of pixels of a posted image, once scaled to standard interline. */
+    public static final long SERVER_MAX_PIXELS = 1L << 28;
+
+    /** Number of training iterations between telemetry samples: {@value}. */
+    public static final int TELEMETRY_INTERVAL = 10;
+
+    /** Maximum rotation of an augmented training patch, in degrees: {@value}. */
+    public static final double AUGMENT_MAX_ROTATION = 3.0;
+
+    /** Maximum relative scale change of an augmented training patch: {@value}. */
+    public static final double AUGMENT_MAX_SCALE = 0.06;
+
+    /** Maximum translation of an augmented training patch, in pixels: {@value}. */
+    public static final double AUGMENT_MAX_SHIFT = 2.0;
+
+    /** Probability of an erosion, or of a dilation, of an augmented training patch: {@value}. */
+    public static final double AUGMENT_MORPHOLOGY_RATIO = 0.1;
+
+    /** Maximum standard deviation of noise on an augmented training patch: {@value}. */
+    public static final double AUGMENT_MAX_NOISE = 24.0;
+
+    /** Ratio of pixels hit by salt and pepper noise: {@value}. */
+    public static final double AUGMENT_SALT_PEPPER_RATIO = 0.01;
+
+    /** Features rows sampled for quantization calibration, and for evaluation: {@value}. */
+    public static final int QUANTIZATION_SAMPLES = 1000;
+
+    /** Minimum latency ratio expected from quantized model over flat float model: {@value}. */
+    public static final double QUANTIZATION_MIN_SPEEDUP = 2.0;
+
+    /** Features rows sampled to check exported model: {@value}. */
+    public static final int EXPORT_SAMPLES = 1000;
+
+    /** Maximum probability difference between exported model and DL4J model: {@value}. */
+    public static final double EXPORT_TOLERANCE = 1e-4;
+
+    /** Minimum interline value of synthesized pages: {@value}. */
+    public static final int SYNTHETIC_MIN_INTERLINE = 8;
+
+    /** Maximum interline value of synthesized pages: {@value}. */
+    public static final int SYNTHETIC_MAX_INTERLINE = 20;
+
+    /** Maximum number of synthesized pages per sub-folder: {@value}. */
+    public static final int SYNTHETIC_FOLDER_SIZE = 1000;
+
+    /** Rows kept below one context height, in the sliding window of streaming mode: {@value}. */
+    public static final int STREAMING_MARGIN = 384;
+
+    /** Number of slowest sheets listed in metrics report: {@value}. */
+    public static final int METRICS_SLOWEST_SHEETS = 10;
+
     /** Format for output images (sub-images and control-images): {@value}. */
     public static final String OUTPUT_IMAGES_FORMAT = "png";
 
     /** File extension for output images: {@value}. */
     public static final String OUTPUT_IMAGES_EXT = "." + OUTPUT_IMAGES_FORMAT;
 
+    /** File extension for control overlays: {@value}. */
+    public static final String OVERLAY_EXT = ".svg";
+
+    /** Maximum number of control images waiting for rendering: {@value}. */
+    public static final int CONTROLS_QUEUE_SIZE = 8;
+
     /** File extension for page info: {@value}. */
     public static final String INFO_EXT = ".xml";
 
@@ -61,6 +142,12 @@ public abstract class App
     /** Folder name for sub-images: {@value}. */
     public static final String SUB_IMAGES_NAME = "sub-images";
 
+    /** File name for mosaics index, within sub-images folder: {@value}. */
+    public static final String MOSAICS_NAME = "mosaics.csv";
+
+    /** Folder name for synthesized pages: {@value}. */
+    public static final String SYNTHETIC_NAME = "synthetic";
+
     /** Folder name for mistakes: {@value}. */
     public static final String MISTAKES_NAME = "mistakes";
 
@@ -73,6 +160,24 @@ public abstract class App
     /** File name for sheets: {@value}. */
     public static final String SHEETS_NAME = "sheets.csv";
 
+    /** File name for duplicates report: {@value}. */
+    public static final String DEDUP_NAME = "dedup.csv";
+
+    /** File name for page detections: {@value}. */
+    public static final String DETECTIONS_NAME = "detections.csv";
+
+    /** File name for quantization report: {@value}. */
+    public static final String QUANTIZATION_NAME = "quantization.txt";
+
+    /** File name for training telemetry: {@value}. */
+    public static final String TELEMETRY_NAME = "telemetry.csv";
+
+    /** File name for run metrics report: {@value}. */
+    public static final String METRICS_NAME = "metrics.json";
+
+    /** File name for raw statistics accumulators: {@value}. */
+    public static final String STATS_NAME = "stats.csv";
+
     /** File name for pixel standards: {@value}. */
     public static final String PIXELS_NAME = "pixels.dat";
 }
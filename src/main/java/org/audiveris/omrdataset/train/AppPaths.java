@@ -23,11 +23,11 @@ package org.audiveris.omrdataset.train;
 
 import org.audiveris.omrdataset.Main;
 import static org.audiveris.omrdataset.classifier.Context.DIMS_NAME;
-import static org.audiveris.omrdataset.classifier.Context.MODEL_NAME;
+import static org.audiveris.omrdataset.classifier.Context.FLAT_MODEL_NAME;
+import static org.audiveris.omrdataset.classifier.Context.QUANTIZED_MODEL_NAME;
 import static org.audiveris.omrdataset.train.App.*;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
 
 /**
  * Class {@code AppPaths} gathers paths for Omr Dataset application
@@ -39,8 +39,7 @@ public class AppPaths
     //~ Static fields/initializers -----------------------------------------------------------------
 
     /** Path to where the data is written. */
-    public static final Path OUTPUT_PATH = (Main.cli.outputFolder != null) ? Main.cli.outputFolder
-            : Paths.get("data/output");
+    public static final Path OUTPUT_PATH = Main.cli.getOutputFolder();
 
     /** Path to created control-images. */
     public static final Path CONTROL_IMAGES_PATH = OUTPUT_PATH.resolve(CONTROL_IMAGES_NAME);
@@ -48,6 +47,9 @@ public class AppPaths
     /** Path to created sub-images. */
     public static final Path SUB_IMAGES_PATH = OUTPUT_PATH.resolve(SUB_IMAGES_NAME);
 
+    /** Path to synthesized pages. */
+    public static final Path SYNTHETIC_PATH = OUTPUT_PATH.resolve(SYNTHETIC_NAME);
+
     /** Path to mistakes. */
     public static final Path MISTAKES_PATH = OUTPUT_PATH.resolve(MISTAKES_NAME);
 
@@ -60,6 +62,18 @@ public class AppPaths
     /** Path to single sheets file. */
     public static final Path SHEETS_PATH = OUTPUT_PATH.resolve(SHEETS_NAME);
 
+    /** Path to duplicates report. */
+    public static final Path DEDUP_PATH = OUTPUT_PATH.resolve(DEDUP_NAME);
+
+    /** Path to page detections file. */
+    public static final Path DETECTIONS_PATH = OUTPUT_PATH.resolve(DETECTIONS_NAME);
+
+    /** Path to training telemetry. */
+    public static final Path TELEMETRY_PATH = OUTPUT_PATH.resolve(TELEMETRY_NAME);
+
+    /** Path to run metrics report. */
+    public static final Path METRICS_PATH = OUTPUT_PATH.resolve(METRICS_NAME);
+
     /** Path to pixels populations. */
     public static final Path PIXELS_PATH = OUTPUT_PATH.resolve(PIXELS_NAME);
 
@@ -67,6 +81,14 @@ public class AppPaths
     public static final Path DIMS_PATH = OUTPUT_PATH.resolve(DIMS_NAME);
 
     /** Path to neural network model. */
-    public static final Path MODEL_PATH = (Main.cli.modelPath != null) ? Main.cli.modelPath
-            : OUTPUT_PATH.resolve(MODEL_NAME);
+    public static final Path MODEL_PATH = Main.cli.getModelPath();
+
+    /** Path to flat float model, next to neural network model. */
+    public static final Path FLAT_MODEL_PATH = MODEL_PATH.resolveSibling(FLAT_MODEL_NAME);
+
+    /** Path to int8-quantized model, next to neural network model. */
+    public static final Path QUANTIZED_PATH = MODEL_PATH.resolveSibling(QUANTIZED_MODEL_NAME);
+
+    /** Path to quantization report. */
+    public static final Path QUANTIZATION_PATH = OUTPUT_PATH.resolve(QUANTIZATION_NAME);
 }
@@ -0,0 +1,357 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                        A u g m e n t e r                                       //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+import static org.audiveris.omrdataset.train.App.*;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class {@code Augmenter} randomly distorts training patches, so that each epoch sees
+ * slightly different versions of the same symbols.
+ * <p>
+ * Each patch, made of raw feature values (BACKGROUND..FOREGROUND), goes through:
+ * <ol>
+ * <li>a small affine transform around patch center (rotation, scaling and translation), with
+ * bilinear interpolation,
+ * <li>sometimes an erosion or a dilation of the symbol strokes,
+ * <li>a noise of random kind and strength.
+ * </ol>
+ * Augmentation works in place, on the data loading thread, and before any normalization.
+ * Each thread draws from its own random generator, derived from the provided seed, so that a
+ * given thread always gets the same sequence of distortions.
+ *
+ * @author Hervé Bitteur
+ */
+public class Augmenter
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Augmenter.class);
+
+    /** Step between seeds of successive threads. */
+    private static final long SEED_STEP = 0x9E3779B97F4A7C15L;
+
+    //~ Enumerations -------------------------------------------------------------------------------
+    /** Kinds of noise. */
+    public enum Noise
+    {
+        //~ Enumeration constant initializers ------------------------------------------------------
+
+        /** No noise at all. */
+        NONE,
+        /** Additive gaussian noise. */
+        GAUSSIAN,
+        /** Multiplicative noise, hitting only the ink. */
+        SPECKLE,
+        /** Pixels randomly set to background or foreground. */
+        SALT_PEPPER;
+    }
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Patch width. */
+    private final int width;
+
+    /** Patch height. */
+    private final int height;
+
+    /** Base seed. */
+    private final long seed;
+
+    /** Count of threads using this augmenter. */
+    private final AtomicInteger threads = new AtomicInteger();
+
+    /** Random generator and buffer of each thread. */
+    private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>()
+    {
+        @Override
+        protected Workspace initialValue ()
+        {
+            final int index = threads.getAndIncrement();
+            logger.debug("Augmenter workspace #{}", index);
+
+            return new Workspace(seed + (index * SEED_STEP), width * height);
+        }
+    };
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code Augmenter} object.
+     *
+     * @param width  patch width
+     * @param height patch height
+     * @param seed   base seed for random generation
+     */
+    public Augmenter (int width,
+                      int height,
+                      long seed)
+    {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    //---------//
+    // augment //
+    //---------//
+    /**
+     * Augment in place every patch of a features matrix, one patch per row.
+     *
+     * @param features the features matrix
+     */
+    public void augment (INDArray features)
+    {
+        final double[] data = features.dup('c').data().asDouble();
+        final int size = width * height;
+
+        for (int offset = 0; offset < data.length; offset += size) {
+            augment(data, offset);
+        }
+
+        features.assign(Nd4j.create(data, features.shape(), 'c'));
+    }
+
+    //---------//
+    // augment //
+    //---------//
+    /**
+     * Augment in place one patch.
+     *
+     * @param data   features values
+     * @param offset index of patch first value in data
+     */
+    public void augment (double[] data,
+                         int offset)
+    {
+        final Workspace ws = workspace.get();
+        final Random random = ws.random;
+        final double[] buffer = ws.buffer;
+
+        // Geometry
+        final double angle = Math.toRadians(AUGMENT_MAX_ROTATION) * uniform(random);
+        final double scale = 1 + (AUGMENT_MAX_SCALE * uniform(random));
+        final double dx = AUGMENT_MAX_SHIFT * uniform(random);
+        final double dy = AUGMENT_MAX_SHIFT * uniform(random);
+        transform(data, offset, buffer, angle, scale, dx, dy);
+
+        // Morphology
+        final double morpho = random.nextDouble();
+
+        if (morpho < AUGMENT_MORPHOLOGY_RATIO) {
+            morphology(buffer, false);
+        } else if (morpho < (2 * AUGMENT_MORPHOLOGY_RATIO)) {
+            morphology(buffer, true);
+        }
+
+        // Noise
+        final Noise noise = Noise.values()[random.nextInt(Noise.values().length)];
+        final double sigma = AUGMENT_MAX_NOISE * random.nextDouble();
+
+        for (int i = 0; i < buffer.length; i++) {
+            double val = buffer[i];
+
+            switch (noise) {
+            case GAUSSIAN:
+                val += (sigma * random.nextGaussian());
+
+                break;
+
+            case SPECKLE:
+                val += ((val * sigma * random.nextGaussian()) / FOREGROUND);
+
+                break;
+
+            case SALT_PEPPER:
+
+                if (random.nextDouble() < AUGMENT_SALT_PEPPER_RATIO) {
+                    val = random.nextBoolean() ? FOREGROUND : BACKGROUND;
+                }
+
+                break;
+
+            default:
+            }
+
+            data[offset + i] = Math.max(BACKGROUND, Math.min(FOREGROUND, val));
+        }
+    }
+
+    //------------//
+    // morphology //
+    //------------//
+    /**
+     * Erode or dilate the patch strokes, using a 2x2 structuring element.
+     * <p>
+     * Since foreground values are the high ones, erosion is a minimum and dilation a maximum.
+     * Processing in raster order allows to work in place, since each pixel only depends on
+     * itself and on its right and lower neighbors, not yet modified.
+     *
+     * @param buffer patch values
+     * @param dilate true for dilation, false for erosion
+     */
+    private void morphology (double[] buffer,
+                             boolean dilate)
+    {
+        for (int y = 0; y < height; y++) {
+            final int row = y * width;
+
+            for (int x = 0; x < width; x++) {
+                double val = buffer[row + x];
+
+                if (x + 1 < width) {
+                    val = pick(val, buffer[row + x + 1], dilate);
+                }
+
+                if (y + 1 < height) {
+                    val = pick(val, buffer[row + width + x], dilate);
+
+                    if (x + 1 < width) {
+                        val = pick(val, buffer[row + width + x + 1], dilate);
+                    }
+                }
+
+                buffer[row + x] = val;
+            }
+        }
+    }
+
+    //--------//
+    // sample //
+    //--------//
+    /**
+     * Report the source value at provided integer location, BACKGROUND if out of patch.
+     */
+    private double sample (double[] data,
+                           int offset,
+                           int x,
+                           int y)
+    {
+        if ((x < 0) || (x >= width) || (y < 0) || (y >= height)) {
+            return BACKGROUND;
+        }
+
+        return data[offset + (y * width) + x];
+    }
+
+    //-----------//
+    // transform //
+    //-----------//
+    /**
+     * Apply the affine transform to the source patch, writing the result to buffer.
+     * <p>
+     * Each target pixel is mapped back to source, and interpolated from its 4 source neighbors.
+     *
+     * @param data   source values
+     * @param offset index of patch first value in data
+     * @param buffer target values
+     * @param angle  rotation angle, in radians
+     * @param scale  scaling ratio
+     * @param dx     abscissa translation
+     * @param dy     ordinate translation
+     */
+    private void transform (double[] data,
+                            int offset,
+                            double[] buffer,
+                            double angle,
+                            double scale,
+                            double dx,
+                            double dy)
+    {
+        final double cx = (width - 1) / 2.0;
+        final double cy = (height - 1) / 2.0;
+        final double cos = Math.cos(angle) / scale;
+        final double sin = Math.sin(angle) / scale;
+
+        for (int y = 0; y < height; y++) {
+            final double v = y - cy - dy;
+
+            for (int x = 0; x < width; x++) {
+                final double u = x - cx - dx;
+                final double sx = ((cos * u) + (sin * v)) + cx;
+                final double sy = ((-sin * u) + (cos * v)) + cy;
+                final int x0 = (int) Math.floor(sx);
+                final int y0 = (int) Math.floor(sy);
+                final double fx = sx - x0;
+                final double fy = sy - y0;
+                final double top = ((1 - fx) * sample(data, offset, x0, y0))
+                                   + (fx * sample(data, offset, x0 + 1, y0));
+                final double bottom = ((1 - fx) * sample(data, offset, x0, y0 + 1))
+                                      + (fx * sample(data, offset, x0 + 1, y0 + 1));
+                buffer[(y * width) + x] = ((1 - fy) * top) + (fy * bottom);
+            }
+        }
+    }
+
+    //------//
+    // pick //
+    //------//
+    private static double pick (double a,
+                                double b,
+                                boolean max)
+    {
+        return max ? Math.max(a, b) : Math.min(a, b);
+    }
+
+    //---------//
+    // uniform //
+    //---------//
+    /**
+     * Report a random value uniformly distributed in [-1..1).
+     */
+    private static double uniform (Random random)
+    {
+        return (2 * random.nextDouble()) - 1;
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----------//
+    // Workspace //
+    //-----------//
+    /**
+     * Per-thread random generator and patch buffer.
+     */
+    private static class Workspace
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        final Random random;
+
+        final double[] buffer;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Workspace (long seed,
+                          int size)
+        {
+            random = new Random(seed);
+            buffer = new double[size];
+        }
+    }
+}
@@ -0,0 +1,317 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       B a n d S o u r c e                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.train.Metrics.Stage;
+import static org.audiveris.omrdataset.train.App.STREAMING_MARGIN;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Class {@code BandSource} is a context source that never holds the whole sheet image in
+ * memory.
+ * <p>
+ * Patches are processed by increasing ordinate, within a sliding window one context height tall
+ * plus a margin of {@link App#STREAMING_MARGIN} sheet image rows. When a patch does not fit in
+ * the window, the window is moved down to the patch and the related horizontal band of the sheet
+ * image is decoded, through an {@link ImageReader} with a source region. For a non-standard
+ * interline, just the band is scaled.
+ * <p>
+ * A bilevel sheet image is kept packed in the window, unless it has to be scaled.
+ * <p>
+ * Memory needed per sheet is thus bounded by the window size, whatever the sheet height.
+ * Note that some image formats (such as PNG) must be decoded from the start for each band, so
+ * streaming trades CPU for memory.
+ *
+ * @author Hervé Bitteur
+ */
+public class BandSource
+        extends ContextSource
+        implements Closeable
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** Extra source rows decoded above and below a band, for bilinear scaling. */
+    private static final int SCALING_MARGIN = 2;
+
+    private static final Comparator<Patch> byOrdinate = new Comparator<Patch>()
+    {
+        @Override
+        public int compare (Patch p1,
+                            Patch p2)
+        {
+            return Integer.compare(p1.ayMin, p2.ayMin);
+        }
+    };
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Sheet image file. */
+    private final Path imgPath;
+
+    /** Input on sheet image file. */
+    private final ImageInputStream stream;
+
+    /** Reader on sheet image. */
+    private final ImageReader reader;
+
+    /** Sheet image width. */
+    private final int width;
+
+    /** Sheet image height. */
+    private final int height;
+
+    /** Sheet image type, perhaps null. */
+    private final ImageTypeSpecifier imageType;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code BandSource} object, reading just the sheet image header.
+     *
+     * @param imgPath path to sheet image file
+     * @throws IOException if image cannot be read
+     */
+    public BandSource (Path imgPath)
+            throws IOException
+    {
+        this.imgPath = imgPath;
+        stream = ImageIO.createImageInputStream(imgPath.toFile());
+
+        if (stream == null) {
+            throw new IOException("Cannot open " + imgPath);
+        }
+
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+
+        if (!readers.hasNext()) {
+            stream.close();
+            throw new IOException("No image reader for " + imgPath);
+        }
+
+        reader = readers.next();
+        reader.setInput(stream, true, true);
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+        imageType = reader.getRawImageType(0);
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    @Override
+    public void close ()
+            throws IOException
+    {
+        reader.dispose();
+        stream.close();
+    }
+
+    @Override
+    public void extract (List<Patch> patches)
+            throws IOException
+    {
+        for (List<Patch> group : groupByScale(patches)) {
+            extractGroup(group);
+        }
+    }
+
+    @Override
+    public int getHeight ()
+    {
+        return height;
+    }
+
+    /**
+     * Report the type of sheet image.
+     *
+     * @return the image type, or null if unknown
+     */
+    public ImageTypeSpecifier getImageType ()
+    {
+        return imageType;
+    }
+
+    @Override
+    public int getWidth ()
+    {
+        return width;
+    }
+
+    /**
+     * Decode the band made of the provided sheet image rows.
+     *
+     * @param y0   first row
+     * @param y1   last row (excluded)
+     * @param dest destination image, or null
+     * @param dy   destination ordinate of first row
+     * @return the image written into
+     */
+    private BufferedImage decode (int y0,
+                                  int y1,
+                                  BufferedImage dest,
+                                  int dy)
+            throws IOException
+    {
+        final long nanos = System.nanoTime();
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, y0, width, y1 - y0));
+
+        if (dest != null) {
+            param.setDestination(dest);
+            param.setDestinationOffset(new Point(0, dy));
+        }
+
+        // Bytes actually read from file, a reader may read them all on first band
+        final long start = stream.getStreamPosition();
+        final Events.Span imageSpan = Events.begin(Events.Kind.IMAGE_DECODE);
+        final BufferedImage img = reader.read(0, param);
+        Metrics.record(Stage.IMAGE_DECODE, nanos);
+        imageSpan.sheet(imgPath).bytes(Math.max(0, stream.getStreamPosition() - start)).end();
+
+        return img;
+    }
+
+    /**
+     * Extract the patches of one scaled image, using the ratio of the first one.
+     *
+     * @param group the patches, all with the same profile interline and symbol interline
+     * @throws IOException in case of IO problem
+     */
+    private void extractGroup (List<Patch> group)
+            throws IOException
+    {
+        final double ratio = group.get(0).ratio;
+        final boolean rescale = group.get(0).isScaled();
+        final int scaledWidth = rescale ? (int) Math.ceil(width * ratio) : width;
+        final int scaledHeight = rescale ? (int) Math.ceil(height * ratio) : height;
+
+        // Margin is defined in sheet image rows, to bound decoded bands when scaling down
+        final int margin = (int) Math.ceil(STREAMING_MARGIN * Math.min(1.0, ratio));
+        int contextHeight = 0;
+
+        for (Patch patch : group) {
+            contextHeight = Math.max(contextHeight, patch.profile.height);
+        }
+
+        final int windowHeight = contextHeight + margin;
+        final boolean packed = !rescale && Bilevel.isBilevel(imageType);
+        final BufferedImage window = packed
+                ? imageType.createBufferedImage(scaledWidth, windowHeight)
+                : new BufferedImage(scaledWidth, windowHeight, BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] bytes = ((DataBufferByte) window.getRaster().getDataBuffer()).getData();
+        final byte white = packed ? Bilevel.backgroundByte(window.getColorModel()) : (byte) 255;
+        final int[] context = new int[maxSize(group)];
+
+        final List<Patch> sorted = new ArrayList<Patch>(group);
+        Collections.sort(sorted, byOrdinate);
+
+        Integer top = null; // Window top ordinate in scaled image
+
+        for (Patch patch : sorted) {
+            if ((top == null) || ((patch.ayMin + patch.profile.height) > (top + windowHeight))) {
+                // Move window down to this patch
+                top = patch.ayMin;
+
+                final int validTop = Math.max(top, 0);
+                final int validBottom = Math.min(top + windowHeight, scaledHeight);
+
+                // Rows beyond image get white pixels, that is background features
+                Arrays.fill(bytes, white);
+
+                if (validTop < validBottom) {
+                    if (!rescale) {
+                        decode(validTop, validBottom, window, validTop - top);
+                    } else {
+                        fillBand(window, ratio, top, validTop, validBottom);
+                    }
+                }
+            }
+
+            final long nanos = System.nanoTime();
+            SheetProcessor.extractContext(
+                    window,
+                    patch.axMin,
+                    patch.ayMin - top,
+                    patch.profile.width,
+                    patch.profile.height,
+                    context);
+            patch.setPixels(context);
+            Metrics.record(Stage.PATCH_EXTRACTION, nanos);
+        }
+    }
+
+    /**
+     * Fill window rows with the scaled sheet image, as in a scaled copy of the whole sheet image.
+     * <p>
+     * The source band is decoded with a few more rows above and below, so that bilinear
+     * interpolation in window rows never depends on band borders.
+     *
+     * @param window      the window image
+     * @param ratio       scaling ratio
+     * @param top         window top ordinate in scaled image
+     * @param validTop    first scaled image row to fill
+     * @param validBottom last scaled image row to fill (excluded)
+     * @throws IOException in case of IO problem
+     */
+    private void fillBand (BufferedImage window,
+                           double ratio,
+                           int top,
+                           int validTop,
+                           int validBottom)
+            throws IOException
+    {
+        final int s0 = Math.max(0, (int) Math.floor(validTop / ratio) - SCALING_MARGIN);
+        final int s1 = Math.min(height, (int) Math.ceil(validBottom / ratio) + SCALING_MARGIN);
+        BufferedImage band = decode(s0, s1, null, 0);
+
+        if (band.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            band = Bilevel.toGray(band);
+        }
+
+        // Pixels not reached by the transform stay black, as in a scaled copy
+        final byte[] bytes = ((DataBufferByte) window.getRaster().getDataBuffer()).getData();
+        final int w = window.getWidth();
+        Arrays.fill(bytes, (validTop - top) * w, (validBottom - top) * w, (byte) 0);
+
+        final long nanos = System.nanoTime();
+        final AffineTransform at = new AffineTransform(ratio, 0, 0, ratio, 0, (ratio * s0) - top);
+        new AffineTransformOp(at, AffineTransformOp.TYPE_BILINEAR).filter(band, window);
+        Metrics.record(Stage.RESCALE, nanos);
+    }
+}
@@ -0,0 +1,263 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                          B i l e v e l                                         //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+import javax.imageio.ImageTypeSpecifier;
+
+/**
+ * Class {@code Bilevel} handles sheet images made of packed 1-bit pixels, as found in bilevel
+ * PNG or TIFF scans, without expanding them to 8-bit gray.
+ * <p>
+ * A bilevel image is a {@link BufferedImage#TYPE_BYTE_BINARY} image whose 2-entry palette is
+ * black and white (in either order). Its black pixels are mapped to FOREGROUND and its white
+ * pixels to BACKGROUND, so that features are exactly those of the equivalent gray image, where
+ * black is 0 and white is 255.
+ * <p>
+ * Context rows are read from packed bits a 64-bit word at a time, and runs of background bits
+ * are filled at once.
+ *
+ * @author Hervé Bitteur
+ */
+public abstract class Bilevel
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** Maximum number of pixels read from one word, allowing any bit offset: {@value}. */
+    private static final int WORD_BITS = Long.SIZE - Byte.SIZE;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    //----------------//
+    // backgroundByte //
+    //----------------//
+    /**
+     * Report the packed byte made of 8 background pixels.
+     *
+     * @param cm the bilevel color model
+     * @return the background byte
+     */
+    public static byte backgroundByte (ColorModel cm)
+    {
+        return (featureValues(cm)[1] == BACKGROUND) ? (byte) 0xff : (byte) 0;
+    }
+
+    //----------------//
+    // extractContext //
+    //----------------//
+    /**
+     * Extract the context values of a bilevel image, just like
+     * {@link SheetProcessor#extractContext} does for a gray image.
+     *
+     * @param img     the bilevel image
+     * @param axMin   abscissa of context left side
+     * @param ayMin   ordinate of context top side
+     * @param width   context width
+     * @param height  context height
+     * @param context the height * width values to fill, row by row
+     */
+    public static void extractContext (BufferedImage img,
+                                       int axMin,
+                                       int ayMin,
+                                       int width,
+                                       int height,
+                                       int[] context)
+    {
+        final int imgWidth = img.getWidth();
+        final int imgHeight = img.getHeight();
+        final Raster raster = img.getRaster();
+        final MultiPixelPackedSampleModel model = (MultiPixelPackedSampleModel) raster
+                .getSampleModel();
+        final byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+        final long rowBits = (long) model.getScanlineStride() * Byte.SIZE;
+        final long originBit = model.getDataBitOffset() - raster.getSampleModelTranslateX()
+                               - (raster.getSampleModelTranslateY() * rowBits);
+        final int[] values = featureValues(img.getColorModel());
+        final long backgroundWord = (values[1] == BACKGROUND) ? -1L : 0L;
+
+        // Context abscissae [xStart..xStop[ lie within image
+        final int xStart = Math.max(0, Math.min(width, -axMin));
+        final int xStop = Math.max(xStart, Math.min(width, imgWidth - axMin));
+        int index = 0;
+
+        for (int y = 0; y < height; y++) {
+            int ay = ayMin + y; // Absolute y
+
+            if ((ay < 0) || (ay >= imgHeight)) {
+                // Fill row with background value
+                Arrays.fill(context, index, index + width, BACKGROUND);
+                index += width;
+
+                continue;
+            }
+
+            Arrays.fill(context, index, index + xStart, BACKGROUND);
+            index += xStart;
+
+            long bit = originBit + (ay * rowBits) + axMin + xStart;
+
+            for (int x = xStart; x < xStop;) {
+                final int n = Math.min(WORD_BITS, xStop - x);
+                long word = readWord(bytes, (int) (bit >>> 3)) << (bit & 7);
+
+                if (((word ^ backgroundWord) >>> (Long.SIZE - n)) == 0) {
+                    // Just background
+                    Arrays.fill(context, index, index + n, BACKGROUND);
+                    index += n;
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        context[index++] = values[(int) (word >>> (Long.SIZE - 1))];
+                        word <<= 1;
+                    }
+                }
+
+                x += n;
+                bit += n;
+            }
+
+            Arrays.fill(context, index, index + (width - xStop), BACKGROUND);
+            index += (width - xStop);
+        }
+    }
+
+    //-----------//
+    // isBilevel //
+    //-----------//
+    /**
+     * Report whether the provided image type is a bilevel one.
+     *
+     * @param type the image type, perhaps null
+     * @return true if packed 1-bit black and white
+     */
+    public static boolean isBilevel (ImageTypeSpecifier type)
+    {
+        if ((type == null) || (type.getBufferedImageType() != BufferedImage.TYPE_BYTE_BINARY)) {
+            return false;
+        }
+
+        if (!(type.getColorModel() instanceof IndexColorModel)) {
+            return false;
+        }
+
+        final IndexColorModel icm = (IndexColorModel) type.getColorModel();
+
+        if ((icm.getPixelSize() != 1) || (icm.getMapSize() != 2)) {
+            return false;
+        }
+
+        final int rgb0 = icm.getRGB(0) & 0xffffff;
+        final int rgb1 = icm.getRGB(1) & 0xffffff;
+
+        return ((rgb0 == 0) && (rgb1 == 0xffffff)) || ((rgb0 == 0xffffff) && (rgb1 == 0));
+    }
+
+    //--------//
+    // toGray //
+    //--------//
+    /**
+     * Build the equivalent gray image of a bilevel image.
+     *
+     * @param img the bilevel image
+     * @return the gray image, with black as 0 and white as 255
+     */
+    public static BufferedImage toGray (BufferedImage img)
+    {
+        final BufferedImage gray = new BufferedImage(
+                img.getWidth(),
+                img.getHeight(),
+                BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] grayBytes = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        final Raster raster = img.getRaster();
+        final MultiPixelPackedSampleModel model = (MultiPixelPackedSampleModel) raster
+                .getSampleModel();
+        final byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+        final long rowBits = (long) model.getScanlineStride() * Byte.SIZE;
+        final long originBit = model.getDataBitOffset() - raster.getSampleModelTranslateX()
+                               - (raster.getSampleModelTranslateY() * rowBits);
+        final int[] values = featureValues(img.getColorModel());
+        final byte[] grays = new byte[]{(byte) (255 - values[0]), (byte) (255 - values[1])};
+        int index = 0;
+
+        for (int y = 0; y < img.getHeight(); y++) {
+            long bit = originBit + (y * rowBits);
+
+            for (int x = 0; x < img.getWidth(); x++, bit++) {
+                final int b = (bytes[(int) (bit >>> 3)] >>> (7 - (int) (bit & 7))) & 1;
+                grayBytes[index++] = grays[b];
+            }
+        }
+
+        return gray;
+    }
+
+    //---------------//
+    // featureValues //
+    //---------------//
+    /**
+     * Report the feature value of each bit value.
+     *
+     * @param cm the bilevel color model
+     * @return feature values for bit 0 and bit 1
+     */
+    private static int[] featureValues (ColorModel cm)
+    {
+        final int[] values = new int[2];
+
+        for (int i = 0; i < 2; i++) {
+            values[i] = ((cm.getRGB(i) & 0xffffff) == 0) ? FOREGROUND : BACKGROUND;
+        }
+
+        return values;
+    }
+
+    //----------//
+    // readWord //
+    //----------//
+    /**
+     * Read the 8 bytes starting at provided position, as a big-endian word.
+     * Bytes beyond array end are read as zero.
+     *
+     * @param bytes the packed bytes
+     * @param pos   position of first byte
+     * @return the word
+     */
+    private static long readWord (byte[] bytes,
+                                  int pos)
+    {
+        final int end = Math.min(pos + Byte.SIZE, bytes.length);
+        long word = 0;
+
+        for (int i = pos; i < end; i++) {
+            word = (word << 8) | (bytes[i] & 0xff);
+        }
+
+        return word << (Byte.SIZE * ((pos + Byte.SIZE) - end));
+    }
+}
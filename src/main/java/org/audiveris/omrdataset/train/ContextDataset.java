@@ -0,0 +1,123 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                   C o n t e x t D a t a s e t                                  //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import org.audiveris.omrdataset.train.ContextSource.Patch;
+import static org.audiveris.omrdataset.classifier.Context.DIMS_NAME;
+import static org.audiveris.omrdataset.train.App.PIXELS_NAME;
+import static org.audiveris.omrdataset.train.App.STATS_NAME;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+
+/**
+ * Class {@code ContextDataset} gathers the features extracted for one {@link ContextProfile}:
+ * the features records, the histogram of pixel values and the populations of symbol
+ * dimensions per shape.
+ * <p>
+ * Once all sheets are processed, the dataset statistics are stored as Norm (mean + stdDev)
+ * for: <ul>
+ * <li>all pixel values whatever the shape
+ * <li>symbol width per valid shape
+ * <li>symbol height per valid shape
+ * </ul>
+ * They are also stored as raw accumulators (see {@link DatasetStats}), so that datasets
+ * extracted separately can later be merged.
+ *
+ * @author Hervé Bitteur
+ */
+public class ContextDataset
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** Contexts geometry. */
+    public final ContextProfile profile;
+
+    /** Output for features records. */
+    private final PrintWriter features;
+
+    /** Pixel values and symbol dimensions. */
+    private final DatasetStats stats = new DatasetStats();
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code ContextDataset} object.
+     *
+     * @param profile  contexts geometry
+     * @param features output for features records
+     */
+    public ContextDataset (ContextProfile profile,
+                           PrintWriter features)
+    {
+        this.profile = profile;
+        this.features = features;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Close features output, and store the dataset statistics into the provided folder.
+     *
+     * @param folder target folder
+     * @throws IOException in case of IO problem
+     */
+    public void store (Path folder)
+            throws IOException
+    {
+        features.flush();
+        features.close();
+
+        final String title = "profile " + profile;
+        stats.storeDims(folder.resolve(DIMS_NAME), title);
+        stats.storePixels(folder.resolve(PIXELS_NAME), title);
+        stats.write(folder.resolve(STATS_NAME));
+    }
+
+    /**
+     * Write the features record of an extracted patch.
+     * We also collect pixel values to populate pixels histogram, and symbol width/height,
+     * as scaled to profile interline, to populate mean/std populations of symbol shape.
+     *
+     * @param patch the extracted patch
+     */
+    public void write (Patch patch)
+    {
+        final OmrShape shape = patch.symbol.getOmrShape();
+        final Rectangle2D box = patch.symbol.getBounds();
+        stats.includeDims(shape, box.getWidth() * patch.ratio, box.getHeight() * patch.ratio);
+
+        final byte[] context = patch.pixels;
+
+        for (int i = 0; i < context.length; i++) {
+            final int val = context[i] & 0xff;
+            features.print(val);
+            features.print(",");
+            stats.includePixel(val);
+        }
+
+        // Add (OMR) shape index
+        features.print(shape.ordinal());
+        features.println();
+    }
+}
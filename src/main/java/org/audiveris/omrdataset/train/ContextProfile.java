@@ -0,0 +1,136 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                   C o n t e x t P r o f i l e                                  //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class {@code ContextProfile} defines the geometry of symbol contexts: the standard interline
+ * that sheets are scaled to, and the context width and height at this interline.
+ * <p>
+ * The {@link #DEFAULT} profile is the one defined by {@link
+ * org.audiveris.omrdataset.classifier.Context} constants, used by training and classifiers.
+ * Other profiles, defined on command line, allow to extract datasets for other resolutions or
+ * context sizes in the same pass.
+ *
+ * @author Hervé Bitteur
+ */
+public class ContextProfile
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** The compiled profile. */
+    public static final ContextProfile DEFAULT = new ContextProfile(
+            "default",
+            INTERLINE,
+            CONTEXT_WIDTH,
+            CONTEXT_HEIGHT);
+
+    /** Profile specification: name:interline:width:height. */
+    private static final Pattern SPEC = Pattern.compile(
+            "([A-Za-z0-9_-]+):([0-9]+):([0-9]+):([0-9]+)");
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Profile name, also used as output sub-folder name. */
+    public final String name;
+
+    /** Standard interline, in pixels. */
+    public final int interline;
+
+    /** Context width, in pixels. */
+    public final int width;
+
+    /** Context height, in pixels. */
+    public final int height;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code ContextProfile} object.
+     *
+     * @param name      profile name
+     * @param interline standard interline
+     * @param width     context width
+     * @param height    context height
+     */
+    public ContextProfile (String name,
+                           int interline,
+                           int width,
+                           int height)
+    {
+        this.name = name;
+        this.interline = interline;
+        this.width = width;
+        this.height = height;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Decode a profile specification.
+     *
+     * @param spec specification such as "wide:10:96:96"
+     * @return the profile
+     * @throws IllegalArgumentException if specification is not valid
+     */
+    public static ContextProfile decode (String spec)
+    {
+        final Matcher matcher = SPEC.matcher(spec);
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(
+                    "Illegal profile " + spec + ", expected name:interline:width:height");
+        }
+
+        final int interline = Integer.parseInt(matcher.group(2));
+        final int width = Integer.parseInt(matcher.group(3));
+        final int height = Integer.parseInt(matcher.group(4));
+
+        if ((interline == 0) || (width == 0) || (height == 0)) {
+            throw new IllegalArgumentException("Null value in profile " + spec);
+        }
+
+        if (((width % MULTIPLE) != 0) || ((height % MULTIPLE) != 0)) {
+            throw new IllegalArgumentException(
+                    "Context dimensions must be multiples of " + MULTIPLE + " in profile " + spec);
+        }
+
+        return new ContextProfile(matcher.group(1), interline, width, height);
+    }
+
+    /**
+     * Report the number of pixels in a context.
+     *
+     * @return width * height
+     */
+    public int getSize ()
+    {
+        return width * height;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return name + ":" + interline + ":" + width + ":" + height;
+    }
+}
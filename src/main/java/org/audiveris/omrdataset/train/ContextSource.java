@@ -0,0 +1,197 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                    C o n t e x t S o u r c e                                   //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.SymbolInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class {@code ContextSource} provides the context sub-images of a sheet, at the standard
+ * interline of their profile.
+ * <p>
+ * All the patches of a sheet, for all profiles, are provided at once, so that a source is free
+ * to process them in the order that best fits its image access pattern, and to share sheet
+ * image decoding and scaling between profiles.
+ *
+ * @author Hervé Bitteur
+ */
+public abstract class ContextSource
+{
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Extract the pixels of all provided patches.
+     * <p>
+     * Pixel values are inverted (foreground is high) and any pixel beyond image borders gets the
+     * background value.
+     *
+     * @param patches the patches to populate, in any order
+     * @throws IOException in case of IO problem
+     */
+    public abstract void extract (List<Patch> patches)
+            throws IOException;
+
+    /**
+     * Report the height of sheet image.
+     *
+     * @return image height
+     */
+    public abstract int getHeight ();
+
+    /**
+     * Report the width of sheet image.
+     *
+     * @return image width
+     */
+    public abstract int getWidth ();
+
+    /**
+     * Gather patches by scaled image, that is by profile interline and symbol interline.
+     *
+     * @param patches the patches to gather
+     * @return the groups of patches, in order of first appearance
+     */
+    protected static Collection<List<Patch>> groupByScale (List<Patch> patches)
+    {
+        final Map<List<Integer>, List<Patch>> groups
+                = new LinkedHashMap<List<Integer>, List<Patch>>();
+
+        for (Patch patch : patches) {
+            final List<Integer> key = Arrays.asList(patch.profile.interline, patch.interline);
+            List<Patch> group = groups.get(key);
+
+            if (group == null) {
+                groups.put(key, group = new ArrayList<Patch>());
+            }
+
+            group.add(patch);
+        }
+
+        return groups.values();
+    }
+
+    /**
+     * Report the largest context size among the provided patches.
+     *
+     * @param patches the patches
+     * @return the maximum number of context pixels
+     */
+    protected static int maxSize (List<Patch> patches)
+    {
+        int size = 0;
+
+        for (Patch patch : patches) {
+            size = Math.max(size, patch.pixels.length);
+        }
+
+        return size;
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-------//
+    // Patch //
+    //-------//
+    /**
+     * The context sub-image of a symbol.
+     */
+    public static class Patch
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Related symbol. */
+        public final SymbolInfo symbol;
+
+        /** Contexts geometry. */
+        public final ContextProfile profile;
+
+        /** Symbol interline, rounded. */
+        public final int interline;
+
+        /** Scaling ratio from sheet image to profile interline. */
+        public final double ratio;
+
+        /** Abscissa of context left side, in scaled image. */
+        public final int axMin;
+
+        /** Ordinate of context top side, in scaled image. */
+        public final int ayMin;
+
+        /** The profile height * width pixel values, row by row. */
+        public final byte[] pixels;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        /**
+         * Creates a new {@code Patch} object.
+         *
+         * @param symbol    related symbol
+         * @param profile   contexts geometry
+         * @param interline symbol interline, rounded
+         * @param ratio     scaling ratio
+         * @param axMin     abscissa of context left side, in scaled image
+         * @param ayMin     ordinate of context top side, in scaled image
+         */
+        public Patch (SymbolInfo symbol,
+                      ContextProfile profile,
+                      int interline,
+                      double ratio,
+                      int axMin,
+                      int ayMin)
+        {
+            this.symbol = symbol;
+            this.profile = profile;
+            this.interline = interline;
+            this.ratio = ratio;
+            this.axMin = axMin;
+            this.ayMin = ayMin;
+            pixels = new byte[profile.getSize()];
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        /**
+         * Report whether the sheet image must be scaled for this patch.
+         *
+         * @return true if symbol interline differs from profile interline
+         */
+        public boolean isScaled ()
+        {
+            return interline != profile.interline;
+        }
+
+        /**
+         * Set patch pixels from the provided context values.
+         *
+         * @param context the profile height * width pixel values (at least), row by row
+         */
+        public void setPixels (int[] context)
+        {
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (byte) context[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                     D a t a s e t S t a t s                                    //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Class {@code DatasetStats} cumulates the statistics of a features dataset: the histogram
+ * of pixel values and the populations of symbol dimensions per shape.
+ * <p>
+ * Besides the final Norm (mean + stdDev) files used by training, these accumulators can be
+ * written as is to a stats file, in which each line is one of: <ul>
+ * <li>{@code pixel,value,count} for each pixel value met
+ * <li>{@code width,shape,count,sum,squares} for each populated shape
+ * <li>{@code height,shape,count,sum,squares} for each populated shape
+ * </ul>
+ * Symbol dimensions are cumulated in fixed point, as integer multiples of
+ * 1/{@value #DIM_RESOLUTION} pixel, so that sums do not depend on the order values are included.
+ * Stats files of datasets extracted separately (e.g. by distinct partitions) can then be read
+ * back and merged, with the very same result as if all sheets had been processed in a single run.
+ *
+ * @author Hervé Bitteur
+ */
+public class DatasetStats
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(DatasetStats.class);
+
+    private static final int SHAPE_COUNT = OmrShape.values().length;
+
+    /** Minimum standard deviation, to avoid division by zero (same as Nd4j.EPS_THRESHOLD). */
+    private static final double MIN_STD = 1e-5;
+
+    /** Number of fixed-point units per pixel, for symbol dimensions. */
+    private static final int DIM_RESOLUTION = 100;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Histogram of pixel values, for mean/std of pixels. */
+    private final long[] pixels = new long[FOREGROUND + 1];
+
+    /** Cumulate values for mean/std of width and height per shape. */
+    private final Map<OmrShape, FixedPopulation[]> dimMap
+            = new EnumMap<OmrShape, FixedPopulation[]>(OmrShape.class);
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Merge the statistics of another dataset into this one.
+     *
+     * @param other the statistics to include
+     */
+    public void include (DatasetStats other)
+    {
+        for (int val = 0; val < pixels.length; val++) {
+            pixels[val] += other.pixels[val];
+        }
+
+        for (Entry<OmrShape, FixedPopulation[]> entry : other.dimMap.entrySet()) {
+            final FixedPopulation[] wh = getDims(entry.getKey());
+            wh[0].include(entry.getValue()[0]);
+            wh[1].include(entry.getValue()[1]);
+        }
+    }
+
+    /**
+     * Include the dimensions of a symbol.
+     *
+     * @param shape  symbol shape
+     * @param width  symbol width
+     * @param height symbol height
+     */
+    public void includeDims (OmrShape shape,
+                             double width,
+                             double height)
+    {
+        final FixedPopulation[] wh = getDims(shape);
+        wh[0].include(width);
+        wh[1].include(height);
+    }
+
+    /**
+     * Include one pixel value.
+     *
+     * @param val pixel value
+     */
+    public void includePixel (int val)
+    {
+        pixels[val]++;
+    }
+
+    //------//
+    // read //
+    //------//
+    /**
+     * Read statistics back from a stats file.
+     *
+     * @param path stats file
+     * @return the statistics read
+     * @throws IOException in case of IO problem or malformed line
+     */
+    public static DatasetStats read (Path path)
+            throws IOException
+    {
+        final DatasetStats stats = new DatasetStats();
+
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue; // Header comment line
+                }
+
+                try {
+                    final String[] f = line.split(",");
+
+                    switch (f[0]) {
+                    case "pixel":
+                        stats.pixels[Integer.parseInt(f[1])] += Long.parseLong(f[2]);
+
+                        break;
+
+                    case "width":
+                    case "height":
+                        final FixedPopulation pop = new FixedPopulation(
+                                Long.parseLong(f[2]),
+                                Long.parseLong(f[3]),
+                                Long.parseLong(f[4]));
+                        stats.getDims(OmrShape.valueOf(f[1]))[f[0].equals("width") ? 0 : 1]
+                                .include(pop);
+
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Unknown kind " + f[0]);
+                    }
+                } catch (RuntimeException ex) {
+                    throw new IOException("Malformed line in " + path + ": " + line, ex);
+                }
+            }
+        }
+
+        return stats;
+    }
+
+    /**
+     * Store the mean/std values for width/height of each (populated) omr shape.
+     *
+     * @param path  target file
+     * @param title title for log
+     * @throws IOException on IO error
+     */
+    public void storeDims (Path path,
+                           String title)
+            throws IOException
+    {
+        final float[] dimStats = new float[4 * SHAPE_COUNT];
+        logger.info("Symbol dimensions for populated shapes, {}:", title);
+
+        for (Entry<OmrShape, FixedPopulation[]> entry : dimMap.entrySet()) {
+            OmrShape shape = entry.getKey();
+            Population[] wh = new Population[]{
+                entry.getValue()[0].toPopulation(), entry.getValue()[1].toPopulation()
+            };
+            int index = shape.ordinal();
+            double meanWidth = wh[0].getMeanValue();
+            double stdWidth = Math.max(wh[0].getStandardDeviation(), MIN_STD);
+            double meanHeight = wh[1].getMeanValue();
+            double stdHeight = Math.max(wh[1].getStandardDeviation(), MIN_STD);
+            dimStats[index] = (float) meanWidth;
+            dimStats[SHAPE_COUNT + index] = (float) stdWidth;
+            dimStats[(2 * SHAPE_COUNT) + index] = (float) meanHeight;
+            dimStats[(3 * SHAPE_COUNT) + index] = (float) stdHeight;
+            logger.info(
+                    String.format(
+                            "%27s width{mean:%.2f std:%.2f} height{mean:%.2f std:%.2f}",
+                            shape,
+                            meanWidth,
+                            stdWidth,
+                            meanHeight,
+                            stdHeight));
+        }
+
+        Nd4jBinary.writeMatrix(path, dimStats, 4, SHAPE_COUNT);
+    }
+
+    /**
+     * Store pixels mean/std, as a standardize normalizer.
+     * <p>
+     * Values are computed exactly from the histogram of pixel values.
+     *
+     * @param path  target file
+     * @param title title for log
+     * @throws IOException in case of IO problem
+     */
+    public void storePixels (Path path,
+                             String title)
+            throws IOException
+    {
+        final Population population = new Population();
+
+        for (int val = 0; val < pixels.length; val++) {
+            population.includeValue(val, pixels[val]);
+        }
+
+        final double mean = population.getMeanValue();
+        final double std = Math.max(population.getStandardDeviation(), MIN_STD);
+        logger.info(String.format("pixels mean:%.2f std:%.2f, %s", mean, std, title));
+        Nd4jBinary.writeStandardize(path, (float) mean, (float) std);
+    }
+
+    //-------//
+    // write //
+    //-------//
+    /**
+     * Write these statistics, as raw accumulators, to a stats file.
+     * <p>
+     * Dimension sums are written as their fixed-point integer values, so that reading gives back
+     * the same values.
+     *
+     * @param path target file
+     * @throws IOException in case of IO problem
+     */
+    public void write (Path path)
+            throws IOException
+    {
+        try (PrintWriter pw = new PrintWriter(
+                Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            pw.println(
+                    "# kind, key, count[, sum, squares], dimensions in 1/" + DIM_RESOLUTION
+                    + " pixel");
+
+            for (int val = 0; val < pixels.length; val++) {
+                if (pixels[val] != 0) {
+                    pw.println("pixel," + val + "," + pixels[val]);
+                }
+            }
+
+            for (Entry<OmrShape, FixedPopulation[]> entry : dimMap.entrySet()) {
+                writePopulation(pw, "width", entry.getKey(), entry.getValue()[0]);
+                writePopulation(pw, "height", entry.getKey(), entry.getValue()[1]);
+            }
+
+            if (pw.checkError()) {
+                throw new IOException("Error writing " + path);
+            }
+        }
+    }
+
+    //---------//
+    // getDims //
+    //---------//
+    private FixedPopulation[] getDims (OmrShape shape)
+    {
+        FixedPopulation[] wh = dimMap.get(shape);
+
+        if (wh == null) {
+            dimMap.put(
+                    shape,
+                    wh = new FixedPopulation[]{new FixedPopulation(), new FixedPopulation()});
+        }
+
+        return wh;
+    }
+
+    //-----------------//
+    // writePopulation //
+    //-----------------//
+    private static void writePopulation (PrintWriter pw,
+                                         String kind,
+                                         OmrShape shape,
+                                         FixedPopulation pop)
+    {
+        pw.println(kind + "," + shape.name() + "," + pop.count + "," + pop.sum + "," + pop.squares);
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----------------//
+    // FixedPopulation //
+    //-----------------//
+    /**
+     * Population of values cumulated in fixed point, as multiples of 1/DIM_RESOLUTION.
+     * <p>
+     * Integer sums are exact, hence independent of the order of inclusions.
+     * An overflow raises an {@link ArithmeticException} rather than giving wrong statistics.
+     */
+    private static class FixedPopulation
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Number of values. */
+        private long count;
+
+        /** Sum of values, in fixed-point units. */
+        private long sum;
+
+        /** Sum of squared values, in squared fixed-point units. */
+        private long squares;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        FixedPopulation ()
+        {
+        }
+
+        FixedPopulation (long count,
+                         long sum,
+                         long squares)
+        {
+            this.count = count;
+            this.sum = sum;
+            this.squares = squares;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        void include (double val)
+        {
+            final long units = Math.round(val * DIM_RESOLUTION);
+            count++;
+            sum = Math.addExact(sum, units);
+            squares = Math.addExact(squares, Math.multiplyExact(units, units));
+        }
+
+        void include (FixedPopulation other)
+        {
+            count += other.count;
+            sum = Math.addExact(sum, other.sum);
+            squares = Math.addExact(squares, other.squares);
+        }
+
+        Population toPopulation ()
+        {
+            return new Population(
+                    count,
+                    sum / (double) DIM_RESOLUTION,
+                    squares / ((double) DIM_RESOLUTION * DIM_RESOLUTION));
+        }
+    }
+}
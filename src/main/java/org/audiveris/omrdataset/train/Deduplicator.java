@@ -0,0 +1,338 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                     D e d u p l i c a t o r                                    //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import org.audiveris.omrdataset.train.ContextSource.Patch;
+import org.audiveris.omrdataset.train.Metrics.Counter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Class {@code Deduplicator} detects near-duplicate context patches, such as the many
+ * identical note heads of reprints or of pages rendered by the same engine.
+ * <p>
+ * Each patch is summarized by a 128-bit perceptual hash: the patch is divided into a grid of
+ * 8 x 16 blocks, and each bit tells whether a block is darker than the patch as a whole.
+ * A patch is a duplicate if a previous patch of the same shape has a hash within the maximum
+ * Hamming distance.
+ * <p>
+ * To avoid comparing a hash with all previous ones, hashes of each shape are indexed by
+ * segments: with a maximum distance d, hash bits are dealt into d + 1 segments, and two hashes
+ * within distance d are sure to share at least one identical segment. Only the hashes found in
+ * the buckets of the new hash segments are thus checked.
+ * Segments are interleaved rather than contiguous, so that each segment samples the whole patch
+ * and the large blank areas of contexts do not pile up all hashes into the same bucket.
+ * <p>
+ * None patches are never dropped, nor reported: their locations are generated, and their
+ * mostly blank contexts would collapse into a few hashes.
+ * <p>
+ * State is kept in memory, for the current process only. With a partition of input sheets, each
+ * partition is thus deduplicated on its own, and duplicates across partitions are kept.
+ *
+ * @author Hervé Bitteur
+ */
+public class Deduplicator
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Deduplicator.class);
+
+    /** Number of block columns in hash grid. */
+    private static final int HASH_COLUMNS = 8;
+
+    /** Number of block rows in hash grid. */
+    private static final int HASH_ROWS = 16;
+
+    /** Number of bits in a hash. */
+    private static final int HASH_BITS = HASH_COLUMNS * HASH_ROWS;
+
+    /** Maximum Hamming distance, so that segments keep at least 4 bits: {@value}. */
+    public static final int MAX_DISTANCE = (HASH_BITS / 4) - 1;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Maximum Hamming distance between duplicates. */
+    private final int maxDistance;
+
+    /** Bit masks of hash segments, 2 longs per segment. */
+    private final long[][] masks;
+
+    /** Index of hashes, per shape. */
+    private final Map<OmrShape, ShapeIndex> indexes = new EnumMap<OmrShape, ShapeIndex>(
+            OmrShape.class);
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code Deduplicator} object.
+     *
+     * @param maxDistance maximum Hamming distance between duplicate hashes, 0 for identical
+     *                    hashes only
+     * @throws IllegalArgumentException if maxDistance is not within 0..MAX_DISTANCE
+     */
+    public Deduplicator (int maxDistance)
+    {
+        if ((maxDistance < 0) || (maxDistance > MAX_DISTANCE)) {
+            throw new IllegalArgumentException(
+                    "Hamming distance " + maxDistance + " not within 0.." + MAX_DISTANCE);
+        }
+
+        this.maxDistance = maxDistance;
+
+        final int segments = maxDistance + 1;
+        masks = new long[segments][2];
+
+        for (int bit = 0; bit < HASH_BITS; bit++) {
+            masks[bit % segments][bit / 64] |= (1L << (bit % 64));
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    //------//
+    // hash //
+    //------//
+    /**
+     * Compute the perceptual hash of a context patch.
+     *
+     * @param pixels patch pixels, row by row
+     * @param width  patch width
+     * @param height patch height
+     * @return the 128-bit hash, as 2 longs
+     */
+    public static long[] hash (byte[] pixels,
+                               int width,
+                               int height)
+    {
+        final long[] sums = new long[HASH_BITS];
+        final int[] counts = new int[HASH_BITS];
+        long total = 0;
+
+        for (int y = 0; y < height; y++) {
+            final int rowBlock = ((y * HASH_ROWS) / height) * HASH_COLUMNS;
+            final int offset = y * width;
+
+            for (int x = 0; x < width; x++) {
+                final int block = rowBlock + ((x * HASH_COLUMNS) / width);
+                final int val = pixels[offset + x] & 0xff;
+                sums[block] += val;
+                counts[block]++;
+                total += val;
+            }
+        }
+
+        // Bit set for block mean above patch mean (sums of unequal blocks compared exactly)
+        final long size = (long) width * height;
+        final long[] hash = new long[2];
+
+        for (int b = 0; b < HASH_BITS; b++) {
+            if ((sums[b] * size) > (total * counts[b])) {
+                hash[b / 64] |= (1L << (b % 64));
+            }
+        }
+
+        return hash;
+    }
+
+    //-------------//
+    // isDuplicate //
+    //-------------//
+    /**
+     * Report whether the provided patch is a near-duplicate of a previous patch of the same
+     * shape. If not, the patch is indexed for the following checks.
+     * A None patch is never a duplicate.
+     *
+     * @param patch the extracted patch
+     * @return true if patch is a duplicate
+     */
+    public boolean isDuplicate (Patch patch)
+    {
+        final OmrShape shape = patch.symbol.getOmrShape();
+
+        if (shape == OmrShape.none) {
+            return false;
+        }
+        ShapeIndex index = indexes.get(shape);
+
+        if (index == null) {
+            indexes.put(shape, index = new ShapeIndex());
+        }
+
+        final long[] hash = hash(patch.pixels, patch.profile.width, patch.profile.height);
+
+        if (index.contains(hash)) {
+            index.dropped++;
+            Metrics.add(Counter.DUPLICATES, 1);
+
+            return true;
+        }
+
+        index.add(hash);
+
+        return false;
+    }
+
+    //-------//
+    // store //
+    //-------//
+    /**
+     * Report kept and dropped patches per shape, in log and in provided CSV file.
+     *
+     * @param path target file
+     * @throws IOException in case of IO problem
+     */
+    public void store (Path path)
+            throws IOException
+    {
+        long kept = 0;
+        long dropped = 0;
+        logger.info("Duplicates within Hamming distance {}, per shape:", maxDistance);
+
+        try (PrintWriter pw = new PrintWriter(
+                Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            pw.println("# shape, kept, dropped, dropRatio");
+
+            for (Entry<OmrShape, ShapeIndex> entry : indexes.entrySet()) {
+                final ShapeIndex index = entry.getValue();
+                final int shapeKept = index.hashes.size();
+                final double ratio = (double) index.dropped / (shapeKept + index.dropped);
+                kept += shapeKept;
+                dropped += index.dropped;
+                pw.println(
+                        entry.getKey() + "," + shapeKept + "," + index.dropped + ","
+                        + String.format("%.4f", ratio));
+                logger.info(
+                        String.format(
+                                "%27s kept:%d dropped:%d (%.1f%%)",
+                                entry.getKey(),
+                                shapeKept,
+                                index.dropped,
+                                100 * ratio));
+            }
+        }
+
+        logger.info(
+                String.format(
+                        "Duplicates kept:%d dropped:%d (%.1f%%)",
+                        kept,
+                        dropped,
+                        (100.0 * dropped) / Math.max(1, kept + dropped)));
+    }
+
+    //----------//
+    // distance //
+    //----------//
+    private static int distance (long[] h1,
+                                 long[] h2)
+    {
+        return Long.bitCount(h1[0] ^ h2[0]) + Long.bitCount(h1[1] ^ h2[1]);
+    }
+
+    //-----//
+    // key //
+    //-----//
+    /**
+     * Report the bucket key of a hash segment.
+     * Distinct segments may share a key, since candidates are checked anyway.
+     */
+    private long key (long[] hash,
+                      int segment)
+    {
+        final long[] mask = masks[segment];
+
+        return ((hash[0] & mask[0]) * 0x9E3779B97F4A7C15L) ^ (hash[1] & mask[1]);
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //------------//
+    // ShapeIndex //
+    //------------//
+    /**
+     * Hashes of the kept patches of a shape, indexed by segment.
+     */
+    private class ShapeIndex
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Hashes of kept patches. */
+        final List<long[]> hashes = new ArrayList<long[]>();
+
+        /** Per segment, hashes by segment key. */
+        final List<Map<Long, List<long[]>>> buckets = new ArrayList<Map<Long, List<long[]>>>();
+
+        /** Number of dropped patches. */
+        int dropped;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public ShapeIndex ()
+        {
+            for (int s = 0; s < masks.length; s++) {
+                buckets.add(new HashMap<Long, List<long[]>>());
+            }
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        public void add (long[] hash)
+        {
+            hashes.add(hash);
+
+            for (int s = 0; s < masks.length; s++) {
+                final Long key = key(hash, s);
+                List<long[]> bucket = buckets.get(s).get(key);
+
+                if (bucket == null) {
+                    buckets.get(s).put(key, bucket = new ArrayList<long[]>());
+                }
+
+                bucket.add(hash);
+            }
+        }
+
+        public boolean contains (long[] hash)
+        {
+            for (int s = 0; s < masks.length; s++) {
+                final List<long[]> bucket = buckets.get(s).get(key(hash, s));
+
+                if (bucket != null) {
+                    for (long[] other : bucket) {
+                        if (distance(hash, other) <= maxDistance) {
+                            return true;
+                        }
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+}
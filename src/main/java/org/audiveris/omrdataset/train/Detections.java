@@ -0,0 +1,216 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       D e t e c t i o n s                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.Main;
+import org.audiveris.omrdataset.api.SheetAnnotations;
+import org.audiveris.omrdataset.api.SheetAnnotations.SheetInfo;
+import org.audiveris.omrdataset.api.SymbolInfo;
+import org.audiveris.omrdataset.classifier.PageClassifier;
+import org.audiveris.omrdataset.classifier.PageClassifier.Detection;
+import static org.audiveris.omrdataset.classifier.Context.INTERLINE;
+import static org.audiveris.omrdataset.train.App.*;
+import static org.audiveris.omrdataset.train.AppPaths.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.DecimalFormat;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Class {@code Detections} runs the trained model over whole pages to detect symbols, using
+ * a {@link PageClassifier}.
+ * <p>
+ * Input pages are designated by their annotations files, which provide image location and
+ * interline value. Annotated symbols themselves are not used.
+ * <p>
+ * Detections are written to a single CSV file, one record per detected symbol.
+ *
+ * @author Hervé Bitteur
+ */
+public class Detections
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Detections.class);
+
+    private static final DecimalFormat decimal = new DecimalFormat();
+
+    static {
+        decimal.setGroupingUsed(false);
+        decimal.setMaximumFractionDigits(3); // For a maximum of 3 decimals
+    }
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    private PageClassifier classifier;
+
+    private PrintWriter detections; // For detections.csv
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Detect symbols in all input pages.
+     *
+     * @throws IOException in case of IO problem
+     */
+    public void process ()
+            throws IOException
+    {
+        if (Main.cli.arguments.isEmpty()) {
+            logger.warn("No input specified for detections. Exiting.");
+
+            return;
+        }
+
+        classifier = new PageClassifier(MODEL_PATH);
+        Files.createDirectories(DETECTIONS_PATH.getParent());
+
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(DETECTIONS_PATH, StandardCharsets.UTF_8))) {
+            detections = out;
+            detections.println("# sheetPath, x, y, shapeId, probability");
+
+            for (Path path : Main.cli.arguments) {
+                if (!Files.exists(path)) {
+                    logger.warn("Could not find {}", path);
+                } else if (Files.isDirectory(path)) {
+                    processFolder(path);
+                } else if (path.getFileName().toString().endsWith(INFO_EXT)) {
+                    processFile(path);
+                }
+            }
+        }
+
+        logger.info("Detections written to {}", DETECTIONS_PATH.toAbsolutePath());
+    }
+
+    /**
+     * Report the page interline, as given by its annotated symbols.
+     *
+     * @param annotations page annotations
+     * @return the rounded interline, or standard INTERLINE if no symbol is found
+     */
+    private static int getInterline (SheetAnnotations annotations)
+    {
+        for (SymbolInfo symbol : annotations.getSymbols()) {
+            return (int) Math.rint(symbol.getInterline());
+        }
+
+        return INTERLINE;
+    }
+
+    /**
+     * Process one annotations file (and its related image file).
+     *
+     * @param path path to Annotations file
+     */
+    private void processFile (Path path)
+    {
+        try {
+            logger.info("Detecting in {}", path);
+
+            final SheetAnnotations annotations = SheetAnnotations.unmarshal(path);
+            final SheetInfo sheetInfo = (annotations != null) ? annotations.getSheetInfo() : null;
+
+            if ((sheetInfo == null) || (sheetInfo.imageFileName == null)) {
+                logger.warn("No image information found in {}", path);
+
+                return;
+            }
+
+            final URI uri = new URI(sheetInfo.imageFileName).normalize();
+            final Path imgPath = uri.isAbsolute() ? Paths.get(uri)
+                    : path.resolveSibling(Paths.get(uri.toString()));
+            final BufferedImage img = ImageIO.read(imgPath.toFile());
+
+            if ((img == null) || (img.getType() != BufferedImage.TYPE_BYTE_GRAY)) {
+                logger.warn("Missing or non-gray image {}", imgPath);
+
+                return;
+            }
+
+            final int interline = getInterline(annotations);
+            final List<Detection> list = classifier.detect(
+                    img,
+                    interline,
+                    DETECTION_MIN_PROBABILITY);
+            logger.info("{} detections in {}", list.size(), imgPath);
+
+            for (Detection detection : list) {
+                detections.print(imgPath);
+                detections.print(",");
+                detections.print(decimal.format(detection.center.getX()));
+                detections.print(",");
+                detections.print(decimal.format(detection.center.getY()));
+                detections.print(",");
+                detections.print(detection.shape.ordinal());
+                detections.print(",");
+                detections.print(decimal.format(detection.probability));
+                detections.println();
+            }
+        } catch (Throwable ex) {
+            logger.warn("Error processing file {}", path, ex);
+        }
+    }
+
+    /**
+     * Process all annotations files found in the provided folder tree.
+     *
+     * @param folder root folder
+     */
+    private void processFolder (Path folder)
+    {
+        try {
+            Files.walkFileTree(
+                    folder,
+                    new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile (Path path,
+                                                  BasicFileAttributes attrs)
+                        throws IOException
+                {
+                    if (path.getFileName().toString().endsWith(INFO_EXT)) {
+                        processFile(path);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (Throwable ex) {
+            logger.warn("Error processing folder {}", folder, ex);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                           E v e n t s                                          //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+
+/**
+ * Class {@code Events} is a facade on Java Flight Recorder custom events, so that callers
+ * never refer to {@code jdk.jfr} API directly.
+ * <p>
+ * A typical use is:
+ * <pre>
+ * final Events.Span span = Events.begin(Events.Kind.SHEET);
+ * ... work on sheet ...
+ * span.sheet(path).symbols(count).end();
+ * </pre>
+ * If {@code jdk.jfr} API is not available on the running JDK, or if no recording is enabled for
+ * the event kind at hand, {@link #begin(Kind)} returns a shared no-op span.
+ * <p>
+ * The actual JFR events live in the separate {@code src/jfr} source set, compiled only by a JDK
+ * that provides {@code jdk.jfr} API, so that main sources build on any JDK 8.
+ *
+ * @author Hervé Bitteur
+ */
+public abstract class Events
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Events.class);
+
+    /** The no-op span. */
+    private static final Span NO_SPAN = new Span();
+
+    /** Actual JFR events factory, or null if jdk.jfr API is not available. */
+    private static final Factory factory = createFactory();
+
+    //~ Enumerations -------------------------------------------------------------------------------
+    /** Kinds of events. */
+    public enum Kind
+    {
+        //~ Enumeration constant initializers ------------------------------------------------------
+
+        /** Features extraction of a whole sheet. */
+        SHEET,
+        /** Features extraction of sheet symbols. */
+        SYMBOLS,
+        /** Insertion of None symbols. */
+        NONES,
+        /** Unmarshalling of sheet annotations. */
+        UNMARSHAL,
+        /** Decoding of sheet image. */
+        IMAGE_DECODE,
+        /** Training epoch. */
+        EPOCH,
+        /** Training batch. */
+        BATCH;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Begin an event of the provided kind.
+     *
+     * @param kind event kind
+     * @return the started span, perhaps a no-op one
+     */
+    public static Span begin (Kind kind)
+    {
+        if (factory == null) {
+            return NO_SPAN;
+        }
+
+        final Span span = factory.begin(kind);
+
+        return (span != null) ? span : NO_SPAN;
+    }
+
+    /**
+     * Tell whether jdk.jfr API is available.
+     *
+     * @return true if so
+     */
+    public static boolean isAvailable ()
+    {
+        return factory != null;
+    }
+
+    //---------------//
+    // createFactory //
+    //---------------//
+    private static Factory createFactory ()
+    {
+        try {
+            Class.forName("jdk.jfr.Event");
+
+            // Loaded by name, to never link JFR classes when the API is missing
+            final String name = Events.class.getPackage().getName() + ".JfrEvents";
+            final Class<?> classe = Class.forName(name);
+
+            return (Factory) classe.newInstance();
+        } catch (ClassNotFoundException ex) {
+            logger.debug("No jdk.jfr API or no JFR events available");
+        } catch (Throwable ex) {
+            logger.warn("Could not set up JFR events {}", ex.toString());
+        }
+
+        return null;
+    }
+
+    //~ Inner Interfaces ---------------------------------------------------------------------------
+    //---------//
+    // Factory //
+    //---------//
+    /**
+     * Creation of actual spans.
+     */
+    interface Factory
+    {
+        //~ Methods --------------------------------------------------------------------------------
+
+        /**
+         * Begin an event of the provided kind.
+         *
+         * @param kind event kind
+         * @return the started span, or null if this event kind is not being recorded
+         */
+        Span begin (Kind kind);
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //------//
+    // Span //
+    //------//
+    /**
+     * An event being timed.
+     * <p>
+     * This base implementation does nothing, actual spans override the setters they support.
+     */
+    public static class Span
+    {
+        //~ Methods --------------------------------------------------------------------------------
+
+        /**
+         * Set amount of bytes read or written.
+         *
+         * @param bytes bytes count
+         * @return this span
+         */
+        public Span bytes (long bytes)
+        {
+            return this;
+        }
+
+        /**
+         * Commit the event.
+         */
+        public void end ()
+        {
+        }
+
+        /**
+         * Set the training epoch number.
+         *
+         * @param epoch epoch number (counted from 1)
+         * @return this span
+         */
+        public Span epoch (int epoch)
+        {
+            return this;
+        }
+
+        /**
+         * Set the sheet interline.
+         *
+         * @param interline interline value
+         * @return this span
+         */
+        public Span interline (double interline)
+        {
+            return this;
+        }
+
+        /**
+         * Tell whether this span is being recorded.
+         * Useful to skip the computation of costly values.
+         *
+         * @return true if so
+         */
+        public boolean isRecorded ()
+        {
+            return false;
+        }
+
+        /**
+         * Set the training iteration number.
+         *
+         * @param iteration iteration number
+         * @return this span
+         */
+        public Span iteration (int iteration)
+        {
+            return this;
+        }
+
+        /**
+         * Set the number of samples processed.
+         *
+         * @param samples samples count
+         * @return this span
+         */
+        public Span samples (int samples)
+        {
+            return this;
+        }
+
+        /**
+         * Set the sheet at hand.
+         *
+         * @param sheet sheet path
+         * @return this span
+         */
+        public Span sheet (Path sheet)
+        {
+            return (sheet != null) ? sheet(sheet.toString()) : this;
+        }
+
+        /**
+         * Set the sheet at hand.
+         *
+         * @param sheet sheet name
+         * @return this span
+         */
+        public Span sheet (String sheet)
+        {
+            return this;
+        }
+
+        /**
+         * Set the number of symbols processed.
+         *
+         * @param symbols symbols count
+         * @return this span
+         */
+        public Span symbols (int symbols)
+        {
+            return this;
+        }
+    }
+}
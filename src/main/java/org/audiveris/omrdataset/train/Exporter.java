@@ -0,0 +1,198 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                         E x p o r t e r                                        //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.classifier.FloatClassifier;
+import org.audiveris.omrdataset.classifier.FloatClassifier.Layer;
+import org.audiveris.omrdataset.train.FeaturesSample.Row;
+import static org.audiveris.omrdataset.train.App.*;
+import static org.audiveris.omrdataset.train.AppPaths.*;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class {@code Exporter} exports the trained model weights to a flat binary file, to be run
+ * by a {@link FloatClassifier} without any DL4J / ND4J dependency.
+ * <p>
+ * The exported file is then reloaded and checked against the DL4J model on a random sample of
+ * features rows.
+ *
+ * @author Hervé Bitteur
+ */
+public class Exporter
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Exporter.class);
+
+    /** Number of rows run at once through the DL4J model. */
+    private static final int CHUNK = 100;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Export the model, and check the exported model.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void process ()
+            throws Exception
+    {
+        final ReferenceModel ref = new ReferenceModel(MODEL_PATH);
+        flatten(ref).write(FLAT_MODEL_PATH);
+        logger.info(
+                "Flat model saved to {} ({} bytes)",
+                FLAT_MODEL_PATH.toAbsolutePath(),
+                Files.size(FLAT_MODEL_PATH));
+
+        // Check the file as it will be used
+        final FloatClassifier classifier = FloatClassifier.load(FLAT_MODEL_PATH);
+        final List<Row> rows = FeaturesSample.pick(FEATURES_PATH, EXPORT_SAMPLES, 123);
+
+        if (!rows.isEmpty()) {
+            try {
+                check(classifier, ref, rows);
+            } catch (IllegalStateException ex) {
+                // Don't leave a wrong model for other tools to pick up
+                Files.delete(FLAT_MODEL_PATH);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Compare the exported classifier with the DL4J model.
+     *
+     * @param classifier the exported classifier
+     * @param ref        the DL4J model
+     * @param rows       the sample rows
+     * @throws IllegalStateException if probabilities differ beyond EXPORT_TOLERANCE
+     */
+    private void check (FloatClassifier classifier,
+                        ReferenceModel ref,
+                        List<Row> rows)
+    {
+        final float[] probs = new float[classifier.getClassCount()];
+        double maxDelta = 0;
+
+        for (int start = 0; start < rows.size(); start += CHUNK) {
+            final List<Row> chunk = rows.subList(start, Math.min(rows.size(), start + CHUNK));
+            final List<INDArray> acts = ref.activations(chunk);
+            final INDArray output = acts.get(acts.size() - 1);
+
+            for (int r = 0; r < chunk.size(); r++) {
+                classifier.classify(chunk.get(r).pixels, probs);
+
+                for (int c = 0; c < probs.length; c++) {
+                    maxDelta = Math.max(maxDelta, Math.abs(output.getDouble(r, c) - probs[c]));
+                }
+            }
+        }
+
+        final double refMicros = ref.latency(rows);
+        final double flatMicros = latency(classifier, rows);
+        logger.info(
+                String.format(
+                        Locale.US,
+                        "Checked %d rows, max |delta probability|: %.2e,"
+                        + " single-patch latency DL4J: %.1f us, flat: %.1f us",
+                        rows.size(),
+                        maxDelta,
+                        refMicros,
+                        flatMicros));
+
+        if (maxDelta > EXPORT_TOLERANCE) {
+            throw new IllegalStateException(
+                    "Flat model differs from DL4J model by " + maxDelta + ", beyond "
+                    + EXPORT_TOLERANCE);
+        }
+    }
+
+    /**
+     * Build the pure Java float classifier equivalent to a DL4J model.
+     *
+     * @param ref the DL4J model
+     * @return the float classifier
+     */
+    static FloatClassifier flatten (ReferenceModel ref)
+    {
+        return new FloatClassifier(
+                ref.mean,
+                ref.std,
+                layer(ref, 0, 5),
+                layer(ref, 2, 5),
+                layer(ref, 4, 0),
+                layer(ref, 5, 0));
+    }
+
+    /**
+     * Measure mean latency of a float classifier, one patch at a time.
+     *
+     * @param classifier the float classifier
+     * @param rows       the rows to classify
+     * @return mean latency in microseconds
+     */
+    static double latency (FloatClassifier classifier,
+                           List<Row> rows)
+    {
+        final float[] probs = new float[classifier.getClassCount()];
+        long total = 0;
+
+        for (int pass = 0; pass < 2; pass++) { // First pass is a warm-up
+            final long start = System.nanoTime();
+
+            for (Row row : rows) {
+                classifier.classify(row.pixels, probs);
+            }
+
+            total = System.nanoTime() - start;
+        }
+
+        return total / (1000.0 * rows.size());
+    }
+
+    /**
+     * Build a layer out of a DL4J weighted layer.
+     *
+     * @param ref    the DL4J model
+     * @param index  index of layer in model
+     * @param kernel kernel size for a convolution, 0 for a dense layer
+     * @return the layer
+     */
+    private static Layer layer (ReferenceModel ref,
+                                int index,
+                                int kernel)
+    {
+        final float[] weights = ref.getParam(index, "W");
+        final float[] bias = ref.getParam(index, "b");
+        final int outputs = bias.length;
+        final int inputs = weights.length / outputs / Math.max(1, kernel * kernel);
+
+        return new Layer(inputs, outputs, kernel, weights, bias);
+    }
+}
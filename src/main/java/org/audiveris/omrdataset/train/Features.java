@@ -22,20 +22,15 @@
 package org.audiveris.omrdataset.train;
 
 import org.audiveris.omrdataset.Main;
-import org.audiveris.omrdataset.api.OmrShape;
 import org.audiveris.omrdataset.api.SheetAnnotations;
 import org.audiveris.omrdataset.api.SheetAnnotations.SheetInfo;
 import org.audiveris.omrdataset.api.SymbolInfo;
+import org.audiveris.omrdataset.train.Metrics.Counter;
+import org.audiveris.omrdataset.train.Metrics.Stage;
 import static org.audiveris.omrdataset.classifier.Context.*;
 import static org.audiveris.omrdataset.train.App.*;
 import static org.audiveris.omrdataset.train.AppPaths.*;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
-import org.nd4j.linalg.dataset.api.preprocessor.serializer.NormalizerSerializer;
-import org.nd4j.linalg.dataset.api.preprocessor.stats.DistributionStats;
-import org.nd4j.linalg.factory.Nd4j;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,20 +48,28 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.EnumMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
 
 /**
  * Class {@code Features} reads input images data (collection of pairs: sheet image and
  * symbol descriptors) and produces the features CSV file meant for NN training.
  * <p>
  * Each page annotations are augmented with artificial None symbols.
+ * With MINING sampling, None locations are chosen where the current model is most wrong.
  * For visual checking, a page image can be produced with initial image, true symbols boxes and
- * None symbols locations.
+ * None symbols locations. Such control images are rendered by a low-priority pool of threads.
+ * A much lighter SVG overlay, referring to the initial image, can also be produced.
  * <p>
  * In the CSV file, there must be one record per symbol, containing the pixels of the sub-image
  * centered on the symbol center, followed by the (index of) symbol name.
@@ -76,6 +79,16 @@ import javax.imageio.ImageIO;
  * <li>symbol width per valid shape
  * <li>symbol height per valid shape
  * </ul>
+ * <p>
+ * One such dataset is produced per {@link ContextProfile}, all in the same pass over the sheets.
+ * The default profile is written in output folder, any other profile in an output sub-folder
+ * named after the profile. Journal and sheets files are common to all profiles.
+ * <p>
+ * With a {@link Partition}, only the sheets of this partition are processed, so that the work
+ * can be shared by several processes, each writing to its own output folder.
+ * <p>
+ * With a {@link Deduplicator}, symbols whose context is a near-duplicate of a previous context
+ * of the same shape are not written at all.
  *
  * @author Hervé Bitteur
  */
@@ -86,17 +99,9 @@ public class Features
     private static final Logger logger = LoggerFactory.getLogger(
             Features.class);
 
-    private static final int SHAPE_COUNT = OmrShape.values().length;
-
     //~ Instance fields ----------------------------------------------------------------------------
-    /** Cumulate values for mean/std of pixels. */
-    private final DistributionStats.Builder pixels = new DistributionStats.Builder();
-
-    /** Cumulate values for mean/std of width and height per shape. */
-    private final Map<OmrShape, DistributionStats.Builder> dimMap = new EnumMap<OmrShape, DistributionStats.Builder>(
-            OmrShape.class);
-
-    private PrintWriter features; // For features.csv
+    /** Target datasets, one per context profile. */
+    private final List<ContextDataset> datasets = new ArrayList<ContextDataset>();
 
     private PrintWriter journal; // For metadata
 
@@ -104,8 +109,28 @@ public class Features
 
     private int sheetId; // Sheet id (counted from 1)
 
+    private int skippedSheets; // Sheets left to other partitions
+
     private final int[] rowBuffer = new int[]{0}; // For row index in features.csv file
 
+    /**
+     * Policy for None locations.
+     * MINING needs whole sheet images, and FREE whole sheet occupancy tables, so streaming mode
+     * uses RANDOM which needs no per-pixel data.
+     */
+    private final NonesBuilder.Sampling noneSampling = Main.cli.streaming
+            ? NonesBuilder.Sampling.RANDOM : Main.cli.noneSampling;
+
+    /** Detector of near-duplicate patches, if any. */
+    private final Deduplicator deduplicator = (Main.cli.dedup != null)
+            ? new Deduplicator(Main.cli.dedup) : null;
+
+    /** Scorer of None candidates, when hard negatives are mined. */
+    private NonesMiner miner;
+
+    /** Low-priority pool for control images, so that they don't delay features. */
+    private final ExecutorService controlsPool = createControlsPool();
+
     //~ Methods ------------------------------------------------------------------------------------
     /**
      * Direct entry point.
@@ -134,17 +159,47 @@ public class Features
             return;
         }
 
+        final long startNanos = System.nanoTime();
+
         try {
-            features = getPrintWriter(FEATURES_PATH); // Output features file
+            for (ContextProfile profile : getProfiles()) {
+                // Output features file, with header comment line
+                final PrintWriter features = getPrintWriter(
+                        getFolder(profile).resolve(FEATURES_NAME));
+                features.println("# " + profile.getSize() + " pixels, shapeId");
+                datasets.add(new ContextDataset(profile, features));
+                logger.info("Context profile {}", profile);
+            }
+
             journal = getPrintWriter(JOURNAL_PATH); // Output journal file
             sheets = getPrintWriter(SHEETS_PATH); // Output sheets file
 
             // Header comment line for each CSV file
-            final int numPixels = CONTEXT_WIDTH * CONTEXT_HEIGHT;
-            features.println("# " + numPixels + " pixels, shapeId");
             journal.println("# row, sheetId, symbolId, interline, x, y, w, h, shapeId");
             sheets.println("# sheetId, sheetPath");
 
+            if (Main.cli.streaming) {
+                if (Main.cli.controls) {
+                    logger.warn("No control images in streaming mode");
+                }
+
+                if (Main.cli.nones && (noneSampling != Main.cli.noneSampling)) {
+                    logger.warn(
+                            "{} sampling needs whole sheet data, using {} in streaming mode",
+                            Main.cli.noneSampling,
+                            noneSampling);
+                }
+            }
+
+            if (Main.cli.partition != null) {
+                logger.info("Partition {}", Main.cli.partition);
+            }
+
+            if (Main.cli.nones && (noneSampling == NonesBuilder.Sampling.MINING)) {
+                // Model is loaded once for all sheets
+                miner = NonesMiner.load(MODEL_PATH);
+            }
+
             // Scan the provided inputs (which can be simple files or folders)
             for (Path path : Main.cli.arguments) {
                 if (!Files.exists(path)) {
@@ -160,32 +215,47 @@ public class Features
                     // We look for "foo.xml" Annotations files
                     final String fileName = path.getFileName().toString();
 
-                    if (fileName.endsWith(INFO_EXT)) {
+                    if (fileName.endsWith(INFO_EXT) && isInPartition(fileName)) {
                         processFile(path);
                     }
                 }
             }
 
-            features.flush();
-            features.close();
+            if (Main.cli.partition != null) {
+                logger.info(
+                        "Partition {} processed {} sheets, left {} sheets to other partitions",
+                        Main.cli.partition,
+                        sheetId,
+                        skippedSheets);
+            }
+
+            // Wait for pending control images
+            controlsPool.shutdown();
+            controlsPool.awaitTermination(1, TimeUnit.DAYS);
+
             journal.flush();
             journal.close();
             sheets.flush();
             sheets.close();
 
-            // Store dim stats per shape
-            storeDims();
-
-            // Store pixel stats
-            DistributionStats stats = pixels.build();
-            logger.info("pixels mean:{} std:{}", stats.getMean(), stats.getStd());
+            // Store pixel stats and dim stats per shape, for each profile
+            for (ContextDataset dataset : datasets) {
+                dataset.store(getFolder(dataset.profile));
+            }
 
-            NormalizerStandardize normalizer = new NormalizerStandardize(
-                    stats.getMean(),
-                    stats.getStd());
-            NormalizerSerializer.getDefault().write(normalizer, PIXELS_PATH.toFile());
+            if (deduplicator != null) {
+                deduplicator.store(DEDUP_PATH);
+            }
         } catch (Throwable ex) {
             logger.warn("Error loading data", ex);
+        } finally {
+            controlsPool.shutdownNow();
+
+            if (miner != null) {
+                miner.close();
+            }
+
+            Metrics.addPhase("features", startNanos);
         }
     }
 
@@ -221,6 +291,54 @@ public class Features
         }
     }
 
+    /**
+     * Create the pool dedicated to control images rendering.
+     * <p>
+     * Its threads run at minimum priority. The queue of pending images is bounded, to cap the
+     * memory held by pending sheet images: if the queue is full, the submitting thread renders the
+     * control image by itself.
+     *
+     * @return the pool
+     */
+    private static ExecutorService createControlsPool ()
+    {
+        final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        final ThreadFactory factory = new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread (Runnable r)
+            {
+                Thread thread = new Thread(r, "controls-" + count.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+
+                return thread;
+            }
+        };
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(CONTROLS_QUEUE_SIZE),
+                factory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Report the output folder of a profile.
+     *
+     * @param profile the context profile
+     * @return output folder for the default profile, otherwise a sub-folder named after profile
+     */
+    private static Path getFolder (ContextProfile profile)
+    {
+        return (profile == ContextProfile.DEFAULT) ? OUTPUT_PATH
+                : OUTPUT_PATH.resolve(profile.name);
+    }
+
     private PrintWriter getPrintWriter (Path path)
             throws IOException
     {
@@ -232,6 +350,48 @@ public class Features
         return new PrintWriter(bw);
     }
 
+    /**
+     * Report the context profiles to extract.
+     *
+     * @return the profiles defined on command line, or just the default profile
+     */
+    private static List<ContextProfile> getProfiles ()
+    {
+        return Main.cli.profiles.isEmpty() ? Collections.singletonList(ContextProfile.DEFAULT)
+                : Main.cli.profiles;
+    }
+
+    /**
+     * Report whether the sheet with provided key belongs to the partition to process.
+     *
+     * @param key annotations path, relative to input folder
+     * @return true if there is no partition, or if sheet belongs to the partition
+     */
+    private boolean isInPartition (String key)
+    {
+        if ((Main.cli.partition == null) || Main.cli.partition.contains(key)) {
+            return true;
+        }
+
+        logger.debug("{} left to other partitions", key);
+        skippedSheets++;
+
+        return false;
+    }
+
+    /**
+     * Report whether the provided sheet image type can be processed: 8-bit gray or bilevel.
+     *
+     * @param type the image type, perhaps null
+     * @return true if supported
+     */
+    private static boolean isSupported (ImageTypeSpecifier type)
+    {
+        return (type != null)
+               && ((type.getBufferedImageType() == BufferedImage.TYPE_BYTE_GRAY)
+                   || Bilevel.isBilevel(type));
+    }
+
     /**
      * Process one annotations file (and its related image file).
      *
@@ -242,7 +402,16 @@ public class Features
         try {
             logger.info("Processing file {}", path);
 
+            final long startNanos = System.nanoTime();
+            final Events.Span sheetSpan = Events.begin(Events.Kind.SHEET);
+            final Events.Span xmlSpan = Events.begin(Events.Kind.UNMARSHAL);
             SheetAnnotations annotations = SheetAnnotations.unmarshal(path);
+            long nanos = Metrics.record(Stage.XML_PARSE, startNanos);
+
+            if (xmlSpan.isRecorded() && (annotations != null)) {
+                xmlSpan.sheet(path).symbols(annotations.getSymbols().size()).bytes(
+                        Files.size(path)).end();
+            }
             logger.info("{}", annotations);
 
             if (annotations == null) {
@@ -297,12 +466,38 @@ public class Features
                 return;
             }
 
-            BufferedImage img = isAbsolute ? ImageIO.read(uri.toURL())
-                    : ImageIO.read(imgPath.toFile());
+            final long imgBytes = Files.size(imgPath);
+            final long bytes = Files.size(path) + imgBytes;
+            Metrics.add(Counter.INPUT_BYTES, bytes);
+
+            BufferedImage img = null;
+            BandSource bandSource = null;
+            final ImageTypeSpecifier imgType;
+
+            if (Main.cli.streaming) {
+                // Just image header for now, image bands will be decoded on demand
+                bandSource = new BandSource(imgPath);
+                imgType = bandSource.getImageType();
+            } else {
+                nanos = System.nanoTime();
+
+                final Events.Span imageSpan = Events.begin(Events.Kind.IMAGE_DECODE);
+                img = isAbsolute ? ImageIO.read(uri.toURL()) : ImageIO.read(imgPath.toFile());
+                Metrics.record(Stage.IMAGE_DECODE, nanos);
+                imageSpan.sheet(imgPath).bytes(imgBytes).end();
+                imgType = ImageTypeSpecifier.createFromRenderedImage(img);
+            }
+
             logger.info("Image {}", imgPath.toAbsolutePath());
 
-            if (img.getType() != BufferedImage.TYPE_BYTE_GRAY) {
-                logger.warn("Wrong image type={}", img.getType());
+            if (!isSupported(imgType)) {
+                logger.warn(
+                        "Wrong image type={}",
+                        (imgType != null) ? imgType.getBufferedImageType() : null);
+
+                if (bandSource != null) {
+                    bandSource.close();
+                }
 
                 return;
             }
@@ -311,12 +506,22 @@ public class Features
                 // Augment annotations with none symbols
                 int nb = (int) Math.rint(NONE_RATIO * annotations.getSymbols().size());
                 logger.info("Creating {} none symbols", nb);
-                annotations.getSymbols().addAll(new NonesBuilder(annotations).insertNones(nb));
+                nanos = System.nanoTime();
+
+                if (miner != null) {
+                    miner.setImage(img);
+                }
+
+                annotations.getSymbols().addAll(
+                        new NonesBuilder(annotations, noneSampling, miner).insertNones(nb));
+                annotations.invalidateSymbolIndex();
+                Metrics.record(Stage.NONE_GENERATION, nanos);
             }
 
             // It's important for training to shuffle examples
             // Here we can shuffle symbols within the same sheet only...
             Collections.shuffle(annotations.getSymbols());
+            annotations.invalidateSymbolIndex();
 
             // Append to sheets table
             sheets.print(++sheetId);
@@ -325,21 +530,51 @@ public class Features
             sheets.println();
 
             // Extract features for all symbols (valid or not)
-            SheetProcessor processor = new SheetProcessor(
-                    sheetId,
-                    img,
-                    annotations,
-                    true, // leaves
-                    pixels,
-                    dimMap);
-            processor.extractFeatures(features, journal, rowBuffer);
-
-            if (Main.cli.controls) {
-                // Generate page image with valid symbol boxes and None locations
-                String radix = sansExtension(imgPath.getFileName().toString());
-                Path controlPath = CONTROL_IMAGES_PATH.resolve(radix + OUTPUT_IMAGES_EXT);
-                logger.info("Generating control image {}", controlPath);
-                processor.drawBoxes(controlPath);
+            final SheetProcessor processor = (bandSource != null)
+                    ? new SheetProcessor(sheetId, bandSource, annotations, true, datasets)
+                    : new SheetProcessor(sheetId, img, annotations, true, datasets);
+            final int firstRow = rowBuffer[0];
+
+            try {
+                processor.extractFeatures(journal, rowBuffer, deduplicator);
+            } finally {
+                if (bandSource != null) {
+                    bandSource.close();
+                }
+            }
+
+            final String radix = sansExtension(imgPath.getFileName().toString());
+
+            if (Main.cli.overlays) {
+                // Generate SVG overlay with valid symbol boxes and None locations
+                Path overlayPath = CONTROL_IMAGES_PATH.resolve(radix + OVERLAY_EXT);
+                logger.info("Generating control overlay {}", overlayPath);
+                processor.drawOverlay(overlayPath, imgPath);
+            }
+
+            Metrics.addSheet(path, startNanos, rowBuffer[0] - firstRow);
+            sheetSpan.sheet(path).symbols(rowBuffer[0] - firstRow).bytes(bytes).end();
+
+            if (Main.cli.controls && (img != null)) {
+                // Generate page image with valid symbol boxes and None locations, asynchronously
+                final Path controlPath = CONTROL_IMAGES_PATH.resolve(radix + OUTPUT_IMAGES_EXT);
+                controlsPool.execute(
+                        new Runnable()
+                {
+                    @Override
+                    public void run ()
+                    {
+                        try {
+                            logger.info("Generating control image {}", controlPath);
+
+                            final long nanos = System.nanoTime();
+                            processor.drawBoxes(controlPath);
+                            Metrics.record(Stage.CONTROL_RENDERING, nanos);
+                        } catch (Throwable ex) {
+                            logger.warn("Error generating control image {}", controlPath, ex);
+                        }
+                    }
+                });
             }
         } catch (Throwable ex) {
             logger.warn("Error processing file {}", path, ex);
@@ -367,7 +602,8 @@ public class Features
                     final String fileName = path.getFileName().toString();
 
                     // We look for "foo.xml" Annotations files
-                    if (fileName.endsWith(INFO_EXT)) {
+                    if (fileName.endsWith(INFO_EXT)
+                        && isInPartition(folder.relativize(path).toString().replace('\\', '/'))) {
                         try {
                             logger.info("XML file {}", path);
                             processFile(path);
@@ -383,43 +619,4 @@ public class Features
             logger.warn("Error processing folder {}", folder, ex);
         }
     }
-
-    /**
-     * Store the mean/std values for width/height of each (populated) omr shape.
-     *
-     * @throws IOException on IO error
-     */
-    private void storeDims ()
-            throws IOException
-    {
-        INDArray dimStats = Nd4j.zeros(4, SHAPE_COUNT);
-        logger.info("Symbol dimensions for populated shapes:");
-
-        for (Entry<OmrShape, DistributionStats.Builder> entry : dimMap.entrySet()) {
-            OmrShape shape = entry.getKey();
-            DistributionStats.Builder builder = entry.getValue();
-            DistributionStats stats = builder.build();
-            INDArray means = stats.getMean();
-            INDArray stds = stats.getStd();
-            int index = shape.ordinal();
-            double meanWidth = means.getDouble(0);
-            double stdWidth = stds.getDouble(0);
-            double meanHeight = means.getDouble(1);
-            double stdHeight = stds.getDouble(1);
-            dimStats.putScalar(new int[]{0, index}, meanWidth);
-            dimStats.putScalar(new int[]{1, index}, stdWidth);
-            dimStats.putScalar(new int[]{2, index}, meanHeight);
-            dimStats.putScalar(new int[]{3, index}, stdHeight);
-            logger.info(
-                    String.format(
-                            "%27s width{mean:%.2f std:%.2f} height{mean:%.2f std:%.2f}",
-                            shape,
-                            meanWidth,
-                            stdWidth,
-                            meanHeight,
-                            stdHeight));
-        }
-
-        Nd4j.saveBinary(dimStats, DIMS_PATH.toFile());
-    }
 }
@@ -0,0 +1,131 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                   F e a t u r e s S a m p l e                                  //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class {@code FeaturesSample} picks a uniform random sample of rows out of a features file,
+ * using reservoir sampling so that the file is read only once, whatever its size.
+ *
+ * @author Hervé Bitteur
+ */
+public abstract class FeaturesSample
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(FeaturesSample.class);
+
+    /** Number of pixels in a row. */
+    public static final int PATCH_LENGTH = CONTEXT_HEIGHT * CONTEXT_WIDTH;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Pick a uniform random sample of features rows.
+     *
+     * @param path  path to features file
+     * @param count desired number of rows
+     * @param seed  seed for random generator
+     * @return the sampled rows, in random order
+     * @throws IOException in case of IO problem
+     */
+    public static List<Row> pick (Path path,
+                                  int count,
+                                  long seed)
+            throws IOException
+    {
+        final Random random = new Random(seed);
+        final List<Row> rows = new ArrayList<Row>(count);
+        int seen = 0;
+
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            for (String line; (line = br.readLine()) != null;) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue; // Header comment line
+                }
+
+                seen++;
+
+                if (rows.size() < count) {
+                    rows.add(Row.parse(line));
+                } else {
+                    final int j = random.nextInt(seen);
+
+                    if (j < count) {
+                        rows.set(j, Row.parse(line));
+                    }
+                }
+            }
+        }
+
+        Collections.shuffle(rows, random);
+        logger.info("Sampled {} rows out of {}", rows.size(), seen);
+
+        return rows;
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----//
+    // Row //
+    //-----//
+    /**
+     * One features row: patch pixels and shape label.
+     */
+    public static class Row
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Patch pixels, foreground high. */
+        public final int[] pixels = new int[PATCH_LENGTH];
+
+        /** Shape ordinal. */
+        public int label;
+
+        //~ Methods --------------------------------------------------------------------------------
+        static Row parse (String line)
+        {
+            final Row row = new Row();
+            final String[] tokens = line.split(",");
+
+            for (int i = 0; i < PATCH_LENGTH; i++) {
+                row.pixels[i] = Integer.parseInt(tokens[i].trim());
+            }
+
+            row.label = Integer.parseInt(tokens[PATCH_LENGTH].trim());
+
+            return row;
+        }
+    }
+}
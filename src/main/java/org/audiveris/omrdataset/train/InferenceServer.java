@@ -0,0 +1,623 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                  I n f e r e n c e S e r v e r                                 //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.Main;
+import org.audiveris.omrdataset.classifier.PageClassifier;
+import org.audiveris.omrdataset.classifier.PageClassifier.Detection;
+import org.audiveris.omrdataset.classifier.PatchClassifier;
+import org.audiveris.omrdataset.classifier.Prediction;
+import static org.audiveris.omrdataset.classifier.Context.*;
+import static org.audiveris.omrdataset.train.App.*;
+import static org.audiveris.omrdataset.train.AppPaths.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Class {@code InferenceServer} is a long-running HTTP server that keeps the classifier model
+ * loaded, to serve classification requests from other local tools.
+ * <p>
+ * The server listens on the loopback interface only, and needs no network access. Endpoints:
+ * <ul>
+ * <li>{@code POST /classify?k=3}: the body is one patch, either as CONTEXT_HEIGHT * CONTEXT_WIDTH
+ * raw bytes (application/octet-stream) or as comma-separated values, in features format (no
+ * shapeId). The answer lists the top-k shapes with their probability.
+ * Patches from concurrent requests are coalesced into micro-batches by a {@link PatchClassifier},
+ * whose maximum wait time is the latency budget.
+ * <li>{@code POST /detect?interline=10&min=0.5}: the body is a page (or page region) image.
+ * The answer lists the detected symbols, using a {@link PageClassifier}.
+ * Interline must be within {@link App#SERVER_MIN_INTERLINE}..{@link App#SERVER_MAX_INTERLINE},
+ * and min within 0..1.
+ * <li>{@code GET /stats}: p50/p99 latency and throughput for each endpoint, plus micro-batch
+ * statistics.
+ * </ul>
+ * All answers are JSON documents. A request body larger than a patch (for classify) or than
+ * {@link App#SERVER_MAX_IMAGE_BYTES} (for detect) is rejected with status 413.
+ *
+ * @author Hervé Bitteur
+ */
+public class InferenceServer
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(InferenceServer.class);
+
+    /** Default number of predictions per patch. */
+    private static final int DEFAULT_TOP_K = 3;
+
+    /** Maximum size of a patch body, as comma-separated values with optional blanks. */
+    private static final int MAX_PATCH_BYTES = CONTEXT_HEIGHT * CONTEXT_WIDTH * 5;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Listening port, 0 for an ephemeral port. */
+    private final int port;
+
+    /** HTTP server, once started. */
+    private HttpServer server;
+
+    /** Executor of HTTP requests, once started. */
+    private ExecutorService executor;
+
+    /** Patch classifier, for micro-batched requests. */
+    private PatchClassifier patchClassifier;
+
+    /** Page classifier, loaded on first detection request. */
+    private PageClassifier pageClassifier;
+
+    /** Statistics for classify endpoint. */
+    private final Latencies classifyStats = new Latencies();
+
+    /** Statistics for detect endpoint. */
+    private final Latencies detectStats = new Latencies();
+
+    /** Server start time. */
+    private long startNanos;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code InferenceServer} object.
+     *
+     * @param port the local port to listen to, 0 for an ephemeral port
+     */
+    public InferenceServer (int port)
+    {
+        this.port = port;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Load the model and serve requests, until the JVM is stopped.
+     *
+     * @throws IOException          in case of IO problem
+     * @throws InterruptedException if interrupted
+     */
+    public void process ()
+            throws IOException, InterruptedException
+    {
+        start(new PatchClassifier(MODEL_PATH, Main.cli.replicas));
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(
+                new Thread("server-shutdown")
+        {
+            @Override
+            public void run ()
+            {
+                logger.info("Stopping inference server");
+                InferenceServer.this.stop();
+                stopped.countDown();
+            }
+        });
+
+        stopped.await();
+    }
+
+    /**
+     * Start serving requests with the provided patch classifier.
+     *
+     * @param patchClassifier the patch classifier, closed when server is stopped
+     * @return the actual server address
+     * @throws IOException in case of IO problem
+     */
+    public InetSocketAddress start (PatchClassifier patchClassifier)
+            throws IOException
+    {
+        this.patchClassifier = patchClassifier;
+
+        server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                0);
+        executor = Executors.newFixedThreadPool(SERVER_THREADS);
+        server.setExecutor(executor);
+        server.createContext("/classify", new ClassifyHandler());
+        server.createContext("/detect", new DetectHandler());
+        server.createContext("/stats", new StatsHandler());
+
+        startNanos = System.nanoTime();
+        server.start();
+        logger.info("Inference server listening on {}", server.getAddress());
+
+        return server.getAddress();
+    }
+
+    /**
+     * Stop serving requests, and close the patch classifier.
+     */
+    public void stop ()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+        patchClassifier.close();
+    }
+
+    /**
+     * Report the page classifier, loaded on first use.
+     *
+     * @return the page classifier
+     * @throws IOException in case of IO problem
+     */
+    private synchronized PageClassifier getPageClassifier ()
+            throws IOException
+    {
+        if (pageClassifier == null) {
+            pageClassifier = new PageClassifier(MODEL_PATH);
+        }
+
+        return pageClassifier;
+    }
+
+    /**
+     * Parse the query parameters of a request.
+     *
+     * @param exchange the HTTP exchange
+     * @return map of parameters, perhaps empty
+     */
+    private static Map<String, String> getParameters (HttpExchange exchange)
+    {
+        final Map<String, String> map = new HashMap<String, String>();
+        final String query = exchange.getRequestURI().getQuery();
+
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                final int eq = pair.indexOf('=');
+
+                if (eq > 0) {
+                    map.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Read the whole request body, unless it is larger than allowed.
+     *
+     * @param exchange the HTTP exchange
+     * @param maxBytes maximum body size
+     * @return body bytes, or null if body is too large
+     * @throws IOException in case of IO problem
+     */
+    private static byte[] readBody (HttpExchange exchange,
+                                    int maxBytes)
+            throws IOException
+    {
+        final String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+
+        if ((declared != null) && (Long.parseLong(declared.trim()) > maxBytes)) {
+            return null;
+        }
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+
+        try (InputStream is = exchange.getRequestBody()) {
+            for (int n; (n = is.read(buffer)) > 0;) {
+                if ((bos.size() + n) > maxBytes) {
+                    return null;
+                }
+
+                bos.write(buffer, 0, n);
+            }
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Convert the request body to patch pixels.
+     *
+     * @param exchange the HTTP exchange
+     * @param body     the request body
+     * @return the patch pixels
+     */
+    private static int[] toPatch (HttpExchange exchange,
+                                  byte[] body)
+    {
+        final int length = CONTEXT_HEIGHT * CONTEXT_WIDTH;
+        final String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        final int[] patch = new int[length];
+
+        if ((type != null) && type.startsWith("application/octet-stream")) {
+            if (body.length != length) {
+                throw new IllegalArgumentException(
+                        "Expected " + length + " bytes, got " + body.length);
+            }
+
+            for (int i = 0; i < length; i++) {
+                patch[i] = body[i] & 0xff;
+            }
+        } else {
+            final String[] tokens = new String(body, StandardCharsets.US_ASCII).trim().split(",");
+
+            if (tokens.length < length) {
+                throw new IllegalArgumentException(
+                        "Expected " + length + " values, got " + tokens.length);
+            }
+
+            for (int i = 0; i < length; i++) {
+                patch[i] = Integer.parseInt(tokens[i].trim());
+            }
+        }
+
+        return patch;
+    }
+
+    /**
+     * Send a JSON answer.
+     *
+     * @param exchange the HTTP exchange
+     * @param status   HTTP status code
+     * @param json     JSON content
+     * @throws IOException in case of IO problem
+     */
+    private static void send (HttpExchange exchange,
+                              int status,
+                              String json)
+            throws IOException
+    {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----------------//
+    // ClassifyHandler //
+    //-----------------//
+    private class ClassifyHandler
+            extends Handler
+    {
+        //~ Constructors ---------------------------------------------------------------------------
+
+        public ClassifyHandler ()
+        {
+            super("POST", MAX_PATCH_BYTES, classifyStats);
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        protected String answer (HttpExchange exchange,
+                                 byte[] body)
+                throws Exception
+        {
+            final Map<String, String> params = getParameters(exchange);
+            final int k = params.containsKey("k") ? Integer.parseInt(params.get("k"))
+                    : DEFAULT_TOP_K;
+            final List<Prediction> predictions = patchClassifier.classify(
+                    toPatch(exchange, body),
+                    k);
+            final StringBuilder sb = new StringBuilder("{\"predictions\":[");
+
+            for (int i = 0; i < predictions.size(); i++) {
+                final Prediction prediction = predictions.get(i);
+                sb.append((i > 0) ? "," : "");
+                sb.append(
+                        String.format(
+                                Locale.US,
+                                "{\"shape\":\"%s\",\"probability\":%.5f}",
+                                prediction.shape,
+                                prediction.probability));
+            }
+
+            return sb.append("]}").toString();
+        }
+    }
+
+    //---------------//
+    // DetectHandler //
+    //---------------//
+    private class DetectHandler
+            extends Handler
+    {
+        //~ Constructors ---------------------------------------------------------------------------
+
+        public DetectHandler ()
+        {
+            super("POST", SERVER_MAX_IMAGE_BYTES, detectStats);
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        protected String answer (HttpExchange exchange,
+                                 byte[] body)
+                throws Exception
+        {
+            final Map<String, String> params = getParameters(exchange);
+            final int interline = params.containsKey("interline")
+                    ? Integer.parseInt(params.get("interline")) : INTERLINE;
+            final double min = params.containsKey("min") ? Double.parseDouble(params.get("min"))
+                    : DETECTION_MIN_PROBABILITY;
+
+            if ((interline < SERVER_MIN_INTERLINE) || (interline > SERVER_MAX_INTERLINE)) {
+                throw new IllegalArgumentException(
+                        "Interline " + interline + " not within " + SERVER_MIN_INTERLINE + ".."
+                        + SERVER_MAX_INTERLINE);
+            }
+
+            if (!((min >= 0) && (min <= 1))) {
+                throw new IllegalArgumentException(
+                        "Minimum probability " + min + " not within 0..1");
+            }
+
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(body));
+
+            if (img == null) {
+                throw new IllegalArgumentException("Unreadable image");
+            }
+
+            final double ratio = (double) INTERLINE / interline;
+            final double pixels = img.getWidth() * ratio * img.getHeight() * ratio;
+
+            if (pixels > SERVER_MAX_PIXELS) {
+                throw new IllegalArgumentException(
+                        "Image too large once scaled to interline " + INTERLINE);
+            }
+
+            if (img.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+                final BufferedImage gray = new BufferedImage(
+                        img.getWidth(),
+                        img.getHeight(),
+                        BufferedImage.TYPE_BYTE_GRAY);
+                gray.getGraphics().drawImage(img, 0, 0, null);
+                img = gray;
+            }
+
+            final List<Detection> detections = getPageClassifier().detect(img, interline, min);
+            final StringBuilder sb = new StringBuilder("{\"detections\":[");
+
+            for (int i = 0; i < detections.size(); i++) {
+                final Detection detection = detections.get(i);
+                sb.append((i > 0) ? "," : "");
+                sb.append(
+                        String.format(
+                                Locale.US,
+                                "{\"shape\":\"%s\",\"probability\":%.5f,\"x\":%.1f,\"y\":%.1f}",
+                                detection.shape,
+                                detection.probability,
+                                detection.center.getX(),
+                                detection.center.getY()));
+            }
+
+            return sb.append("]}").toString();
+        }
+    }
+
+    //---------//
+    // Handler //
+    //---------//
+    /**
+     * Common handling of a request: method check, latency measurement and error reporting.
+     */
+    private abstract static class Handler
+            implements HttpHandler
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        private final String method;
+
+        private final int maxBytes;
+
+        private final Latencies stats;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Handler (String method,
+                        int maxBytes,
+                        Latencies stats)
+        {
+            this.method = method;
+            this.maxBytes = maxBytes;
+            this.stats = stats;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public void handle (HttpExchange exchange)
+                throws IOException
+        {
+            final long start = System.nanoTime();
+
+            try {
+                if (!method.equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, "{\"error\":\"Expected " + method + "\"}");
+
+                    return;
+                }
+
+                final byte[] body = readBody(exchange, maxBytes);
+
+                if (body == null) {
+                    send(exchange, 413, "{\"error\":\"Body larger than " + maxBytes + " bytes\"}");
+
+                    return;
+                }
+
+                send(exchange, 200, answer(exchange, body));
+
+                if (stats != null) {
+                    stats.add(System.nanoTime() - start);
+                }
+            } catch (Exception ex) {
+                logger.warn("Error on {}", exchange.getRequestURI(), ex);
+
+                final String msg = Json.escape(String.valueOf(ex.getMessage()));
+                send(exchange, (ex instanceof IllegalArgumentException) ? 400 : 500,
+                     "{\"error\":\"" + msg + "\"}");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Build the JSON answer to a request.
+         *
+         * @param exchange the HTTP exchange
+         * @param body     the request body
+         * @return the JSON answer
+         * @throws Exception in case of problem
+         */
+        protected abstract String answer (HttpExchange exchange,
+                                          byte[] body)
+                throws Exception;
+    }
+
+    //-----------//
+    // Latencies //
+    //-----------//
+    /**
+     * Latencies of the most recent requests on an endpoint, kept in a ring buffer.
+     */
+    private static class Latencies
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        private final long[] ring = new long[SERVER_LATENCY_WINDOW];
+
+        private long count;
+
+        //~ Methods --------------------------------------------------------------------------------
+        public synchronized void add (long nanos)
+        {
+            ring[(int) (count++ % ring.length)] = nanos;
+        }
+
+        /**
+         * Report statistics as a JSON object.
+         *
+         * @param seconds elapsed seconds since server start
+         * @return JSON object
+         */
+        public String toJson (double seconds)
+        {
+            final long total;
+            final long[] sorted;
+
+            synchronized (this) {
+                total = count;
+                sorted = Arrays.copyOf(ring, (int) Math.min(count, ring.length));
+            }
+
+            Arrays.sort(sorted);
+
+            return String.format(
+                    Locale.US,
+                    "{\"requests\":%d,\"p50Ms\":%.3f,\"p99Ms\":%.3f,\"perSecond\":%.2f}",
+                    total,
+                    percentile(sorted, 0.50) / 1e6,
+                    percentile(sorted, 0.99) / 1e6,
+                    total / seconds);
+        }
+
+        private static double percentile (long[] sorted,
+                                          double p)
+        {
+            if (sorted.length == 0) {
+                return 0;
+            }
+
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+        }
+    }
+
+    //--------------//
+    // StatsHandler //
+    //--------------//
+    private class StatsHandler
+            extends Handler
+    {
+        //~ Constructors ---------------------------------------------------------------------------
+
+        public StatsHandler ()
+        {
+            super("GET", 0, null);
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        protected String answer (HttpExchange exchange,
+                                 byte[] body)
+        {
+            final double seconds = (System.nanoTime() - startNanos) / 1e9;
+            final long batches = patchClassifier.getBatchCount();
+            final long patches = patchClassifier.getPatchCount();
+
+            return String.format(
+                    Locale.US,
+                    "{\"uptimeSeconds\":%.1f,\"classify\":%s,\"detect\":%s,"
+                    + "\"batches\":%d,\"meanBatchSize\":%.2f}",
+                    seconds,
+                    classifyStats.toJson(seconds),
+                    detectStats.toJson(seconds),
+                    batches,
+                    (batches > 0) ? ((double) patches / batches) : 0.0);
+        }
+    }
+}
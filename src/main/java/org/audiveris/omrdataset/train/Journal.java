@@ -50,15 +50,28 @@ public class Journal
     //~ Instance fields ----------------------------------------------------------------------------
     private final List<Record> records = new ArrayList<Record>();
 
-    private final SheetIndex sheetIndex = new SheetIndex();
+    private final SheetIndex sheetIndex;
 
     //~ Constructors -------------------------------------------------------------------------------
     /**
-     * Creates a new {@code Journal} object.
+     * Creates a new {@code Journal} object, from the application output files.
      */
     public Journal ()
     {
-        load(AppPaths.JOURNAL_PATH);
+        this(AppPaths.JOURNAL_PATH, AppPaths.SHEETS_PATH);
+    }
+
+    /**
+     * Creates a new {@code Journal} object, from the provided files.
+     *
+     * @param journalPath path to journal file
+     * @param sheetsPath  path to sheets file
+     */
+    public Journal (Path journalPath,
+                    Path sheetsPath)
+    {
+        sheetIndex = new SheetIndex(sheetsPath);
+        load(journalPath);
     }
 
     //~ Methods ------------------------------------------------------------------------------------
@@ -192,9 +205,9 @@ public class Journal
         private final Map<Integer, String> map = new TreeMap<Integer, String>();
 
         //~ Constructors ---------------------------------------------------------------------------
-        public SheetIndex ()
+        public SheetIndex (Path path)
         {
-            load(AppPaths.SHEETS_PATH);
+            load(path);
         }
 
         //~ Methods --------------------------------------------------------------------------------
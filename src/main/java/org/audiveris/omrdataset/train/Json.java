@@ -0,0 +1,84 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                             J s o n                                            //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+/**
+ * Class {@code Json} provides the string escaping shared by the JSON texts written by hand,
+ * such as the metrics report and the inference server responses.
+ *
+ * @author Hervé Bitteur
+ */
+public abstract class Json
+{
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Escape a string, to be used as a JSON string value.
+     *
+     * @param str the raw string
+     * @return the escaped string, without enclosing quotes
+     */
+    public static String escape (String str)
+    {
+        final StringBuilder sb = new StringBuilder(str.length());
+
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+
+                break;
+
+            case '\\':
+                sb.append("\\\\");
+
+                break;
+
+            case '\n':
+                sb.append("\\n");
+
+                break;
+
+            case '\r':
+                sb.append("\\r");
+
+                break;
+
+            case '\t':
+                sb.append("\\t");
+
+                break;
+
+            default:
+
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,346 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                           M e r g e r                                          //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.Main;
+import static org.audiveris.omrdataset.classifier.Context.DIMS_NAME;
+import static org.audiveris.omrdataset.train.App.*;
+import static org.audiveris.omrdataset.train.AppPaths.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class {@code Merger} merges the outputs of separate features runs (such as the partitions
+ * of a corpus) into the output folder, as if all their sheets had been processed in a single run.
+ * <p>
+ * Inputs are merged in the order they are provided:
+ * <ul>
+ * <li>Sheet ids of sheets and journal files, and row numbers of journal file, are shifted to
+ * follow those of previous inputs.
+ * <li>Features files are concatenated by stream copy, features records being neither parsed nor
+ * modified. Features rows thus keep matching journal rows.
+ * <li>Pixel and dimension statistics are computed exactly, by merging the raw accumulators
+ * of stats files (see {@link DatasetStats}).
+ * </ul>
+ * Every dataset (the default one in input folder, and one per context profile in a sub-folder)
+ * is merged, so all inputs must have been extracted with the same context profiles.
+ *
+ * @author Hervé Bitteur
+ */
+public class Merger
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Merger.class);
+
+    /** Size of stream copy buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Merge the input folders into output folder.
+     *
+     * @throws IOException in case of IO problem or inconsistent inputs
+     */
+    public void process ()
+            throws IOException
+    {
+        final List<Path> inputs = Main.cli.arguments;
+
+        if (inputs.isEmpty()) {
+            logger.warn("No input specified for merge. Exiting.");
+
+            return;
+        }
+
+        final long startNanos = System.nanoTime();
+
+        try {
+            for (Path input : inputs) {
+                if (!Files.isDirectory(input)) {
+                    throw new IOException("Merge input " + input + " is not a folder");
+                }
+
+                if (Files.exists(OUTPUT_PATH) && Files.isSameFile(input, OUTPUT_PATH)) {
+                    throw new IOException("Merge input " + input + " is the output folder");
+                }
+            }
+
+            // Check that all inputs contain the same datasets
+            final List<Path> datasets = getDatasets(inputs.get(0));
+
+            if (datasets.isEmpty()) {
+                throw new IOException("No features found in " + inputs.get(0));
+            }
+
+            for (Path input : inputs) {
+                if (!getDatasets(input).equals(datasets)) {
+                    throw new IOException("Datasets in " + input + " differ from " + datasets);
+                }
+            }
+
+            Files.createDirectories(OUTPUT_PATH);
+            mergeTables(inputs);
+
+            for (Path dataset : datasets) {
+                mergeDataset(inputs, dataset);
+            }
+        } finally {
+            Metrics.addPhase("merge", startNanos);
+        }
+    }
+
+    //-------------//
+    // getDatasets //
+    //-------------//
+    /**
+     * Report the datasets found in a features output folder.
+     *
+     * @param folder features output folder
+     * @return the relative folders of datasets, empty path for the default one
+     * @throws IOException in case of IO problem
+     */
+    private List<Path> getDatasets (Path folder)
+            throws IOException
+    {
+        final List<Path> datasets = new ArrayList<Path>();
+
+        if (Files.exists(folder.resolve(FEATURES_NAME))) {
+            datasets.add(Paths.get(""));
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path sub : stream) {
+                if (Files.exists(sub.resolve(FEATURES_NAME))) {
+                    datasets.add(sub.getFileName());
+                }
+            }
+        }
+
+        Collections.sort(datasets);
+
+        return datasets;
+    }
+
+    //--------------//
+    // mergeDataset //
+    //--------------//
+    /**
+     * Merge features and statistics of one dataset.
+     *
+     * @param inputs  input folders
+     * @param dataset relative folder of dataset
+     * @throws IOException in case of IO problem or inconsistent inputs
+     */
+    private void mergeDataset (List<Path> inputs,
+                               Path dataset)
+            throws IOException
+    {
+        final Path folder = OUTPUT_PATH.resolve(dataset);
+        final DatasetStats stats = new DatasetStats();
+        final String title = dataset.toString().isEmpty() ? "merged" : ("merged " + dataset);
+        String header = null;
+        Files.createDirectories(folder);
+
+        try (OutputStream os = Files.newOutputStream(folder.resolve(FEATURES_NAME))) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+
+            for (Path input : inputs) {
+                final Path inFolder = input.resolve(dataset);
+                final Path statsPath = inFolder.resolve(STATS_NAME);
+
+                if (!Files.exists(statsPath)) {
+                    throw new IOException("No " + STATS_NAME + " in " + inFolder);
+                }
+
+                stats.include(DatasetStats.read(statsPath));
+
+                try (InputStream is = Files.newInputStream(inFolder.resolve(FEATURES_NAME))) {
+                    // Header line, which gives the context size, must be the same for all inputs
+                    final byte[] line = readLine(is);
+                    final String str = new String(line, UTF_8);
+
+                    if (header == null) {
+                        header = str;
+                        os.write(line);
+                    } else if (!header.equals(str)) {
+                        throw new IOException("Features header differs in " + inFolder);
+                    }
+
+                    // Records are copied as they are
+                    int n;
+
+                    while ((n = is.read(buffer)) > 0) {
+                        os.write(buffer, 0, n);
+                    }
+                }
+            }
+        }
+
+        stats.storeDims(folder.resolve(DIMS_NAME), title);
+        stats.storePixels(folder.resolve(PIXELS_NAME), title);
+        stats.write(folder.resolve(STATS_NAME));
+        logger.info("Merged features {}", folder.resolve(FEATURES_NAME));
+    }
+
+    //-------------//
+    // mergeTables //
+    //-------------//
+    /**
+     * Merge journal and sheets files, renumbering sheet ids and rows.
+     *
+     * @param inputs input folders
+     * @throws IOException in case of IO problem
+     */
+    private void mergeTables (List<Path> inputs)
+            throws IOException
+    {
+        int sheetOffset = 0;
+        int rowOffset = 0;
+
+        try (BufferedWriter journal = Files.newBufferedWriter(JOURNAL_PATH, UTF_8);
+                BufferedWriter sheets = Files.newBufferedWriter(SHEETS_PATH, UTF_8)) {
+            journal.write("# row, sheetId, symbolId, interline, x, y, w, h, shapeId");
+            journal.newLine();
+            sheets.write("# sheetId, sheetPath");
+            sheets.newLine();
+
+            for (Path input : inputs) {
+                final int lastSheet = renumber(input.resolve(SHEETS_NAME), sheets, sheetOffset, -1);
+                final int lastRow = renumber(
+                        input.resolve(JOURNAL_NAME),
+                        journal,
+                        rowOffset,
+                        sheetOffset);
+                logger.info(
+                        "Merged {} sheets and {} rows from {}",
+                        lastSheet - sheetOffset,
+                        lastRow - rowOffset,
+                        input);
+                sheetOffset = lastSheet;
+                rowOffset = lastRow;
+            }
+        }
+
+        logger.info("Merged {} sheets and {} rows in total", sheetOffset, rowOffset);
+    }
+
+    //----------//
+    // readLine //
+    //----------//
+    /**
+     * Read one line of bytes, end of line included.
+     *
+     * @param is input stream
+     * @return the line bytes
+     * @throws IOException in case of IO problem
+     */
+    private static byte[] readLine (InputStream is)
+            throws IOException
+    {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+
+        while ((b = is.read()) != -1) {
+            line.write(b);
+
+            if (b == '\n') {
+                break;
+            }
+        }
+
+        return line.toByteArray();
+    }
+
+    //----------//
+    // renumber //
+    //----------//
+    /**
+     * Copy a CSV table, shifting the ids of its first column and, if any, of its second column.
+     * Remaining columns are copied as they are.
+     *
+     * @param path         input table
+     * @param out          output table
+     * @param firstOffset  offset for first column
+     * @param secondOffset offset for second column, or -1 for none
+     * @return the maximum shifted value of first column, firstOffset if table is empty
+     * @throws IOException in case of IO problem or malformed line
+     */
+    private static int renumber (Path path,
+                                 BufferedWriter out,
+                                 int firstOffset,
+                                 int secondOffset)
+            throws IOException
+    {
+        int firstMax = firstOffset;
+
+        try (BufferedReader br = Files.newBufferedReader(path, UTF_8)) {
+            String line;
+
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue; // Header comment line
+                }
+
+                try {
+                    final int comma = line.indexOf(',');
+                    final int first = firstOffset + Integer.parseInt(line.substring(0, comma));
+                    firstMax = Math.max(firstMax, first);
+                    out.write(Integer.toString(first));
+
+                    if (secondOffset >= 0) {
+                        final int comma2 = line.indexOf(',', comma + 1);
+                        final int second = secondOffset
+                                           + Integer.parseInt(line.substring(comma + 1, comma2));
+                        out.write("," + second);
+                        out.write(line, comma2, line.length() - comma2);
+                    } else {
+                        out.write(line, comma, line.length() - comma);
+                    }
+
+                    out.newLine();
+                } catch (RuntimeException ex) {
+                    throw new IOException("Malformed line in " + path + ": " + line, ex);
+                }
+            }
+        }
+
+        return firstMax;
+    }
+}
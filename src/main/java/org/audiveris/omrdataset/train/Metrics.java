@@ -0,0 +1,503 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                          M e t r i c s                                         //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.train.App.METRICS_SLOWEST_SHEETS;
+import static org.audiveris.omrdataset.train.AppPaths.METRICS_PATH;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.RuntimeMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class {@code Metrics} gathers performance figures of the current run, and stores them
+ * as a JSON report in output folder.
+ * <p>
+ * For each processing {@link Stage}, we keep a count of calls and a histogram of latencies.
+ * Beside stages, we keep a few {@link Counter}s, the wall time of each processing phase
+ * (such as "features" or "training"), the peak heap usage and the list of the slowest sheets.
+ * <p>
+ * All methods are static and thread-safe, since stages are run from several threads (control
+ * images for example are rendered in a separate pool).
+ *
+ * @author Hervé Bitteur
+ */
+public abstract class Metrics
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    /** Counters values, indexed by counter ordinal. */
+    private static final AtomicLongArray counters = new AtomicLongArray(
+            Counter.values().length);
+
+    /** Wall time in nanoseconds, per phase name. */
+    private static final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    /** The slowest sheets so far, the fastest one at head. */
+    private static final PriorityQueue<SheetTime> slowestSheets = new PriorityQueue<SheetTime>(
+            METRICS_SLOWEST_SHEETS + 1,
+            SheetTime.byNanos);
+
+    //~ Enumerations -------------------------------------------------------------------------------
+    /** Processing stages timed individually. */
+    public enum Stage
+    {
+        //~ Enumeration constant initializers ------------------------------------------------------
+
+        XML_PARSE("xmlParse"),
+        IMAGE_DECODE("imageDecode"),
+        RESCALE("rescale"),
+        NONE_GENERATION("noneGeneration"),
+        PATCH_EXTRACTION("patchExtraction"),
+        CSV_WRITE("csvWrite"),
+        CONTROL_RENDERING("controlRendering"),
+        TRAINING_BATCH("trainingBatch");
+
+        //~ Instance fields ------------------------------------------------------------------------
+        /** Name in JSON report. */
+        private final String key;
+
+        private final Histogram histogram = new Histogram();
+
+        //~ Constructors ---------------------------------------------------------------------------
+        Stage (String key)
+        {
+            this.key = key;
+        }
+    }
+
+    /** Counted quantities. */
+    public enum Counter
+    {
+        //~ Enumeration constant initializers ------------------------------------------------------
+
+        /** Sheets processed for features. */
+        SHEETS("sheets"),
+        /** Samples written to features file. */
+        SAMPLES("samples"),
+        /** Near-duplicate samples dropped from features file. */
+        DUPLICATES("duplicates"),
+        /** Bytes read from annotations and image files. */
+        INPUT_BYTES("inputBytes"),
+        /** Samples fed to training. */
+        TRAINING_SAMPLES("trainingSamples");
+
+        //~ Instance fields ------------------------------------------------------------------------
+        /** Name in JSON report. */
+        private final String key;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        Counter (String key)
+        {
+            this.key = key;
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Increment a counter.
+     *
+     * @param counter the counter to increment
+     * @param delta   value to add
+     */
+    public static void add (Counter counter,
+                            long delta)
+    {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * Record the wall time of a processing phase.
+     *
+     * @param phase      phase name, such as "features"
+     * @param startNanos phase start, as given by {@link System#nanoTime()}
+     */
+    public static void addPhase (String phase,
+                                 long startNanos)
+    {
+        final long nanos = System.nanoTime() - startNanos;
+
+        synchronized (phases) {
+            final Long previous = phases.get(phase);
+            phases.put(phase, (previous != null) ? (previous + nanos) : nanos);
+        }
+    }
+
+    /**
+     * Record a processed sheet.
+     *
+     * @param path       path to sheet annotations
+     * @param startNanos start of sheet processing, as given by {@link System#nanoTime()}
+     * @param samples    number of samples extracted from sheet
+     */
+    public static void addSheet (Path path,
+                                 long startNanos,
+                                 int samples)
+    {
+        final long nanos = System.nanoTime() - startNanos;
+        add(Counter.SHEETS, 1);
+        add(Counter.SAMPLES, samples);
+
+        synchronized (slowestSheets) {
+            slowestSheets.add(new SheetTime(path, nanos, samples));
+
+            if (slowestSheets.size() > METRICS_SLOWEST_SHEETS) {
+                slowestSheets.poll();
+            }
+        }
+    }
+
+    /**
+     * Record the latency of a stage.
+     *
+     * @param stage      the stage at hand
+     * @param startNanos stage start, as given by {@link System#nanoTime()}
+     * @return current time in nanoseconds, to be used as the start of a following stage
+     */
+    public static long record (Stage stage,
+                               long startNanos)
+    {
+        final long now = System.nanoTime();
+        stage.histogram.add(now - startNanos);
+
+        return now;
+    }
+
+    /**
+     * Write the metrics report to {@link AppPaths#METRICS_PATH}.
+     */
+    public static void store ()
+    {
+        try {
+            Files.createDirectories(METRICS_PATH.getParent());
+
+            try (PrintWriter out = new PrintWriter(
+                    Files.newBufferedWriter(METRICS_PATH, StandardCharsets.UTF_8))) {
+                out.println(toJson());
+            }
+
+            logger.info("Metrics stored as {}", METRICS_PATH.toAbsolutePath());
+        } catch (IOException ex) {
+            logger.warn("Error storing metrics {}", METRICS_PATH, ex);
+        }
+    }
+
+    /**
+     * Report the whole metrics as a JSON object.
+     *
+     * @return JSON object
+     */
+    public static String toJson ()
+    {
+        final StringBuilder sb = new StringBuilder("{\n");
+        final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        final SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US);
+        sb.append("  \"start\": \"").append(iso.format(new Date(runtime.getStartTime())));
+        sb.append("\",\n");
+        sb.append(format("  \"elapsedSeconds\": %.3f,\n", runtime.getUptime() / 1e3));
+        sb.append(format("  \"peakHeapMB\": %.1f,\n", peakHeap() / 1e6));
+
+        // Phases
+        final Map<String, Long> phasesCopy;
+
+        synchronized (phases) {
+            phasesCopy = new LinkedHashMap<String, Long>(phases);
+        }
+
+        sb.append("  \"phasesSeconds\": {");
+
+        String sep = "";
+
+        for (Map.Entry<String, Long> entry : phasesCopy.entrySet()) {
+            sb.append(sep);
+            sb.append(format("\"%s\": %.3f", entry.getKey(), seconds(entry.getValue())));
+            sep = ", ";
+        }
+
+        sb.append("},\n");
+
+        // Counters
+        sb.append("  \"counters\": {");
+        sep = "";
+
+        for (Counter counter : Counter.values()) {
+            sb.append(sep).append("\"").append(counter.key).append("\": ").append(get(counter));
+            sep = ", ";
+        }
+
+        sb.append("},\n");
+
+        // Throughput, against the wall time of the related phase
+        final Long features = phasesCopy.get("features");
+        final Long training = phasesCopy.get("training");
+        sb.append("  \"throughput\": {");
+        sep = "";
+
+        if ((features != null) && (features > 0)) {
+            final double s = seconds(features);
+            sb.append(
+                    format(
+                            "\"sheetsPerSecond\": %.3f, \"samplesPerSecond\": %.1f,"
+                            + " \"megabytesPerSecond\": %.3f",
+                            get(Counter.SHEETS) / s,
+                            get(Counter.SAMPLES) / s,
+                            get(Counter.INPUT_BYTES) / 1e6 / s));
+            sep = ", ";
+        }
+
+        if ((training != null) && (training > 0)) {
+            sb.append(sep).append(
+                    format(
+                            "\"trainingSamplesPerSecond\": %.1f",
+                            get(Counter.TRAINING_SAMPLES) / seconds(training)));
+        }
+
+        sb.append("},\n");
+
+        // Stages
+        sb.append("  \"stages\": {");
+        sep = "\n";
+
+        for (Stage stage : Stage.values()) {
+            if (stage.histogram.getCount() > 0) {
+                sb.append(sep).append("    \"").append(stage.key).append("\": ");
+                sb.append(stage.histogram.toJson());
+                sep = ",\n";
+            }
+        }
+
+        sb.append("\n  },\n");
+
+        // Slowest sheets, slowest first
+        final List<SheetTime> sheets;
+
+        synchronized (slowestSheets) {
+            sheets = new ArrayList<SheetTime>(slowestSheets);
+        }
+
+        Collections.sort(sheets, Collections.reverseOrder(SheetTime.byNanos));
+        sb.append("  \"slowestSheets\": [");
+        sep = "\n";
+
+        for (SheetTime sheet : sheets) {
+            sb.append(sep).append(
+                    format(
+                            "    {\"path\": \"%s\", \"ms\": %.3f, \"samples\": %d}",
+                            Json.escape(sheet.path.toString()),
+                            sheet.nanos / 1e6,
+                            sheet.samples));
+            sep = ",\n";
+        }
+
+        sb.append("\n  ]\n}");
+
+        return sb.toString();
+    }
+
+    private static String format (String format,
+                                  Object... args)
+    {
+        return String.format(Locale.US, format, args);
+    }
+
+    private static long get (Counter counter)
+    {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * Report the peak usage of the heap, summed over all heap memory pools.
+     *
+     * @return peak heap, in bytes
+     */
+    private static long peakHeap ()
+    {
+        long peak = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+    private static double seconds (long nanos)
+    {
+        return nanos / 1e9;
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-----------//
+    // Histogram //
+    //-----------//
+    /**
+     * Latency histogram, with one bucket per power of 2 microseconds.
+     * <p>
+     * Bucket 0 counts latencies below 1 us, bucket b counts latencies in [2**(b-1) .. 2**b) us.
+     */
+    private static class Histogram
+    {
+        //~ Static fields/initializers -------------------------------------------------------------
+
+        /** Enough for latencies up to 2**39 us, that is about 6 days. */
+        private static final int BUCKETS = 40;
+
+        //~ Instance fields ------------------------------------------------------------------------
+        private final long[] buckets = new long[BUCKETS];
+
+        private long count;
+
+        private long total;
+
+        private long min = Long.MAX_VALUE;
+
+        private long max;
+
+        //~ Methods --------------------------------------------------------------------------------
+        public synchronized void add (long nanos)
+        {
+            final long micros = nanos / 1000;
+            final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets[bucket]++;
+            count++;
+            total += nanos;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+        }
+
+        public synchronized long getCount ()
+        {
+            return count;
+        }
+
+        /**
+         * Report statistics as a JSON object.
+         * Percentiles are given as the upper bound of their bucket, capped by maximum value.
+         *
+         * @return JSON object
+         */
+        public synchronized String toJson ()
+        {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(
+                    format(
+                            "{\"count\": %d, \"totalMs\": %.3f, \"meanMs\": %.4f,"
+                            + " \"minMs\": %.4f, \"maxMs\": %.4f,"
+                            + " \"p50Ms\": %.4f, \"p90Ms\": %.4f, \"p99Ms\": %.4f, \"buckets\": [",
+                            count,
+                            total / 1e6,
+                            total / 1e6 / count,
+                            min / 1e6,
+                            max / 1e6,
+                            percentile(0.50) / 1e6,
+                            percentile(0.90) / 1e6,
+                            percentile(0.99) / 1e6));
+
+            String sep = "";
+
+            for (int b = 0; b < BUCKETS; b++) {
+                if (buckets[b] > 0) {
+                    sb.append(sep).append(
+                            format("{\"upToMs\": %s, \"count\": %d}", (1L << b) / 1e3, buckets[b]));
+                    sep = ", ";
+                }
+            }
+
+            return sb.append("]}").toString();
+        }
+
+        private long percentile (double p)
+        {
+            final long rank = (long) Math.ceil(p * count);
+            long cumul = 0;
+
+            for (int b = 0; b < BUCKETS; b++) {
+                cumul += buckets[b];
+
+                if (cumul >= rank) {
+                    return Math.min(max, (1L << b) * 1000);
+                }
+            }
+
+            return max;
+        }
+    }
+
+    //-----------//
+    // SheetTime //
+    //-----------//
+    private static class SheetTime
+    {
+        //~ Static fields/initializers -------------------------------------------------------------
+
+        public static final Comparator<SheetTime> byNanos = new Comparator<SheetTime>()
+        {
+            @Override
+            public int compare (SheetTime s1,
+                                SheetTime s2)
+            {
+                return Long.compare(s1.nanos, s2.nanos);
+            }
+        };
+
+        //~ Instance fields ------------------------------------------------------------------------
+        public final Path path;
+
+        public final long nanos;
+
+        public final int samples;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public SheetTime (Path path,
+                          long nanos,
+                          int samples)
+        {
+            this.path = path;
+            this.nanos = nanos;
+            this.samples = samples;
+        }
+    }
+}
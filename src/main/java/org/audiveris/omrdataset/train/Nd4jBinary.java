@@ -0,0 +1,146 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       N d 4 j B i n a r y                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Class {@code Nd4jBinary} writes float arrays and standardize normalizers in the binary
+ * formats of ND4J, without loading ND4J itself.
+ * <p>
+ * Features extraction thus avoids the initialization of ND4J native backend, while the
+ * produced files remain readable by {@code Nd4j.readBinary()} and
+ * {@code NormalizerSerializer.restore()}.
+ * <p>
+ * An array is written as its shape information buffer followed by its data buffer, each buffer
+ * being: allocation mode, length, data type, then the elements.
+ * Only C-ordered 2D float arrays are supported.
+ *
+ * @author Hervé Bitteur
+ */
+public abstract class Nd4jBinary
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** Buffer allocation mode. */
+    private static final String ALLOCATION_MODE = "JAVACPP";
+
+    /** Header of a serialized normalizer. */
+    private static final String NORMALIZER_HEADER = "NORMALIZER";
+
+    /** Version of serialized normalizer. */
+    private static final int NORMALIZER_VERSION = 1;
+
+    /** Type of standardize normalizer. */
+    private static final String STANDARDIZE_TYPE = "STANDARDIZE";
+
+    /** Order marker for C ordering. */
+    private static final char C_ORDER = 'c';
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Write a 2D float matrix, as Nd4j.saveBinary() would do.
+     *
+     * @param path target file
+     * @param data matrix elements, row by row
+     * @param rows number of rows
+     * @param cols number of columns
+     * @throws IOException in case of IO problem
+     */
+    public static void writeMatrix (Path path,
+                                    float[] data,
+                                    int rows,
+                                    int cols)
+            throws IOException
+    {
+        try (DataOutputStream dos = open(path)) {
+            writeArray(dos, data, rows, cols);
+        }
+    }
+
+    /**
+     * Write a standardize normalizer with scalar mean and std, as
+     * NormalizerSerializer.getDefault().write() would do.
+     *
+     * @param path target file
+     * @param mean mean value
+     * @param std  standard deviation
+     * @throws IOException in case of IO problem
+     */
+    public static void writeStandardize (Path path,
+                                         float mean,
+                                         float std)
+            throws IOException
+    {
+        try (DataOutputStream dos = open(path)) {
+            dos.writeUTF(NORMALIZER_HEADER);
+            dos.writeInt(NORMALIZER_VERSION);
+            dos.writeUTF(STANDARDIZE_TYPE);
+            dos.writeBoolean(false); // No label normalization
+            writeArray(dos, new float[]{mean}, 1, 1);
+            writeArray(dos, new float[]{std}, 1, 1);
+        }
+    }
+
+    private static DataOutputStream open (Path path)
+            throws IOException
+    {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    }
+
+    private static void writeArray (DataOutputStream dos,
+                                    float[] data,
+                                    int rows,
+                                    int cols)
+            throws IOException
+    {
+        if (data.length != (rows * cols)) {
+            throw new IllegalArgumentException(
+                    "Length " + data.length + " != " + rows + "x" + cols);
+        }
+
+        // Shape information: rank, shape, stride, offset, element-wise stride, order
+        final int[] shapeInfo = new int[]{2, rows, cols, cols, 1, 0, 1, C_ORDER};
+        dos.writeUTF(ALLOCATION_MODE);
+        dos.writeInt(shapeInfo.length);
+        dos.writeUTF("INT");
+
+        for (int val : shapeInfo) {
+            dos.writeInt(val);
+        }
+
+        // Data
+        dos.writeUTF(ALLOCATION_MODE);
+        dos.writeInt(data.length);
+        dos.writeUTF("FLOAT");
+
+        for (float val : data) {
+            dos.writeFloat(val);
+        }
+    }
+}
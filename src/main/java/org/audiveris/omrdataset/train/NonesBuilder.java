@@ -30,12 +30,15 @@ import static org.audiveris.omrdataset.train.App.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Class {@code NonesBuilder} generates None-shape symbols within a sheet.
@@ -43,6 +46,18 @@ import java.util.List;
  * We try to insert None-shape symbols at random locations in the sheet, provided that ordinate of
  * location center is within a valid symbol vertical range and the none-shape symbol does not
  * intersect another symbol rectangle.
+ * <p>
+ * Two sampling policies are available: <ul>
+ * <li>{@link Sampling#RANDOM}: random locations are tried, and rejected if colliding.
+ * The number of attempts is limited, hence on dense pages fewer None symbols than desired may be
+ * created.
+ * <li>{@link Sampling#FREE}: an integral image (summed-area table) of occupied pixels tells which
+ * locations are free, and None symbols are picked only among them.
+ * This is guaranteed to terminate in bounded time, with as many None symbols as free room allows.
+ * <li>{@link Sampling#MINING}: free locations are scored by the current classifier model, and
+ * those where the model most confidently predicts a valid shape are kept.
+ * These hard negatives are more informative than the mostly blank FREE or RANDOM ones.
+ * </ul>
  *
  * @author Hervé Bitteur
  */
@@ -63,6 +78,20 @@ public class NonesBuilder
         }
     };
 
+    //~ Enumerations -------------------------------------------------------------------------------
+    /** Policy for picking None locations. */
+    public enum Sampling
+    {
+        //~ Enumeration constant initializers ------------------------------------------------------
+
+        /** Random locations, rejected when colliding. */
+        RANDOM,
+        /** Random locations among the provably free ones. */
+        FREE,
+        /** Free locations where the current model is most wrong (hard negatives). */
+        MINING;
+    }
+
     //~ Instance fields ----------------------------------------------------------------------------
     /** Annotations for this page. */
     private final SheetAnnotations annotations;
@@ -70,18 +99,50 @@ public class NonesBuilder
     /** We need the same interline value for the whole page. */
     private Integer roundedInterline;
 
-    /** List of filled boxes, kept sorted on x. */
+    /** List of filled boxes, for occupancy table. */
     private final List<Rectangle> filledBoxes = new ArrayList<Rectangle>();
 
+    /** List of None boxes inserted so far, kept sorted on x. */
+    private final List<Rectangle> noneBoxes = new ArrayList<Rectangle>();
+
+    /** Policy for None locations. */
+    private final Sampling sampling;
+
+    /** Scorer of candidates, needed for MINING sampling only. */
+    private final NonesMiner miner;
+
+    /** Random generator. */
+    private final Random random = new Random();
+
     //~ Constructors -------------------------------------------------------------------------------
     /**
-     * Creates a new {@code NoneSymbols} object.
+     * Creates a new {@code NoneSymbols} object, using RANDOM sampling.
      *
      * @param annotations Annotations for the page
      */
     public NonesBuilder (SheetAnnotations annotations)
     {
+        this(annotations, Sampling.RANDOM, null);
+    }
+
+    /**
+     * Creates a new {@code NoneSymbols} object.
+     *
+     * @param annotations Annotations for the page
+     * @param sampling    policy for None locations
+     * @param miner       scorer of None candidates, needed for MINING sampling
+     */
+    public NonesBuilder (SheetAnnotations annotations,
+                         Sampling sampling,
+                         NonesMiner miner)
+    {
+        if ((sampling == Sampling.MINING) && (miner == null)) {
+            throw new IllegalArgumentException("MINING sampling needs a NonesMiner");
+        }
+
         this.annotations = annotations;
+        this.sampling = sampling;
+        this.miner = miner;
     }
 
     //~ Methods ------------------------------------------------------------------------------------
@@ -92,6 +153,48 @@ public class NonesBuilder
      * @return the list of inserted (None) symbols
      */
     public List<SymbolInfo> insertNones (int toAdd)
+    {
+        final Events.Span span = Events.begin(Events.Kind.NONES);
+        final List<SymbolInfo> nones = createNones(toAdd);
+
+        if (span.isRecorded()) {
+            if (roundedInterline != null) {
+                span.interline(roundedInterline);
+            }
+
+            span.sheet(annotations.getSheetInfo().imageFileName).symbols(nones.size()).end();
+        }
+
+        return nones;
+    }
+
+    /**
+     * Check this page contains a single interline value.
+     *
+     * @return true if OK
+     */
+    private boolean checkInterlineValue ()
+    {
+        for (SymbolInfo symbol : annotations.getSymbols()) {
+            if (roundedInterline == null) {
+                if (symbol.getInterline() > 0) {
+                    roundedInterline = (int) Math.rint(symbol.getInterline());
+                }
+            } else if (!roundedInterline.equals((int) Math.rint(symbol.getInterline()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Create the None symbols, according to sampling policy.
+     *
+     * @param toAdd the number of None symbols to create
+     * @return the list of created None symbols
+     */
+    private List<SymbolInfo> createNones (int toAdd)
     {
         if (!checkInterlineValue()) {
             logger.info("Page has several interline values, no None symbol can be inserted.");
@@ -115,6 +218,29 @@ public class NonesBuilder
         // Ordinates occupied by standard symbols
         final boolean[] occupiedYs = getOccupiedYs(sheetHeight);
 
+        if (sampling != Sampling.RANDOM) {
+            final List<Point> centers = (sampling == Sampling.FREE)
+                    ? pickCenters(
+                            getFreeCenters(xMargin, yMargin, occupiedYs, 1),
+                            true,
+                            toAdd,
+                            xMargin,
+                            yMargin)
+                    : pickMinedCenters(toAdd, xMargin, yMargin, occupiedYs);
+
+            for (Point center : centers) {
+                createdSymbols.add(
+                        new SymbolInfo(
+                                OmrShape.none,
+                                roundedInterline,
+                                null,
+                                null,
+                                new Rectangle(center.x, center.y, 0, 0)));
+            }
+
+            return createdSymbols;
+        }
+
         // Put a reasonable limit on creation attempts
         for (int i = 10 * toAdd; i >= 0; i--) {
             if (createdSymbols.size() >= toAdd) {
@@ -122,10 +248,10 @@ public class NonesBuilder
             }
 
             // Make sure we pick a y within some valid symbol vertical range
-            final int y = (int) Math.rint(Math.random() * sheetHeight);
+            final int y = (int) Math.rint(random.nextDouble() * sheetHeight);
 
             if ((y >= 0) && (y < sheetHeight) && occupiedYs[y]) {
-                final int x = (int) Math.rint(Math.random() * sheetWidth);
+                final int x = (int) Math.rint(random.nextDouble() * sheetWidth);
                 final Rectangle rect = new Rectangle(x, y, 0, 0);
                 rect.grow(xMargin, yMargin);
 
@@ -144,26 +270,6 @@ public class NonesBuilder
         return createdSymbols;
     }
 
-    /**
-     * Check this page contains a single interline value.
-     *
-     * @return true if OK
-     */
-    private boolean checkInterlineValue ()
-    {
-        for (SymbolInfo symbol : annotations.getSymbols()) {
-            if (roundedInterline == null) {
-                if (symbol.getInterline() > 0) {
-                    roundedInterline = (int) Math.rint(symbol.getInterline());
-                }
-            } else if (!roundedInterline.equals((int) Math.rint(symbol.getInterline()))) {
-                return false;
-            }
-        }
-
-        return true;
-    }
-
     /**
      * Populate the "filledBoxes" collection with the boxes of all valid symbols.
      *
@@ -181,8 +287,6 @@ public class NonesBuilder
             }
         }
 
-        Collections.sort(filledBoxes, byAbscissa);
-
         return maxWidth;
     }
 
@@ -212,28 +316,306 @@ public class NonesBuilder
         return occupied;
     }
 
+    /**
+     * Build the integral image (summed-area table) of pixels occupied by filled boxes.
+     * <p>
+     * Table has (width + 1) * (height + 1) cells. Cell (x, y) contains the number of occupied
+     * pixels in [0, x[ * [0, y[, so that the count of occupied pixels in any rectangle can be
+     * computed in constant time.
+     *
+     * @param width  sheet width
+     * @param height sheet height
+     * @return the summed-area table
+     */
+    private int[] getOccupancyTable (int width,
+                                     int height)
+    {
+        final int stride = width + 1;
+        final int[] table = new int[stride * (height + 1)];
+
+        // Coverage by boxes, using corner increments then 2D prefix sums
+        for (Rectangle r : filledBoxes) {
+            final int x0 = Math.max(0, r.x);
+            final int y0 = Math.max(0, r.y);
+            final int x1 = Math.min(width, r.x + r.width);
+            final int y1 = Math.min(height, r.y + r.height);
+
+            if ((x0 < x1) && (y0 < y1)) {
+                table[(y0 * stride) + x0]++;
+                table[(y0 * stride) + x1]--;
+                table[(y1 * stride) + x0]--;
+                table[(y1 * stride) + x1]++;
+            }
+        }
+
+        prefixSums(table, stride, height + 1);
+
+        // Binarize coverage, shifted by one cell to make room for the zero first row & column
+        for (int y = height - 1; y >= 0; y--) {
+            for (int x = width - 1; x >= 0; x--) {
+                table[((y + 1) * stride) + x + 1] = (table[(y * stride) + x] > 0) ? 1 : 0;
+            }
+        }
+
+        for (int x = 0; x < stride; x++) {
+            table[x] = 0;
+        }
+
+        for (int y = 1; y <= height; y++) {
+            table[y * stride] = 0;
+        }
+
+        prefixSums(table, stride, height + 1);
+
+        return table;
+    }
+
+    /**
+     * Report all free None centers.
+     * <p>
+     * A location is free if its ordinate is occupied by some valid symbol and its margin rectangle
+     * contains no occupied pixel (as told by the summed-area table).
+     *
+     * @param xMargin    abscissa margin around center
+     * @param yMargin    ordinate margin around center
+     * @param occupiedYs table of ordinates occupied by valid symbols
+     * @param step       grid step, in pixels, between candidate centers
+     * @return the free centers, each encoded as y * sheetWidth + x
+     */
+    private int[] getFreeCenters (int xMargin,
+                                  int yMargin,
+                                  boolean[] occupiedYs,
+                                  int step)
+    {
+        final int width = annotations.getSheetInfo().dim.width;
+        final int height = annotations.getSheetInfo().dim.height;
+        final int stride = width + 1;
+        final int[] table = getOccupancyTable(width, height);
+
+        int[] candidates = new int[1024];
+        int count = 0;
+
+        for (int y = yMargin; y <= (height - yMargin); y += step) {
+            if (!occupiedYs[Math.min(y, height - 1)]) {
+                continue;
+            }
+
+            final int top = (y - yMargin) * stride;
+            final int bottom = (y + yMargin) * stride;
+
+            for (int x = xMargin; x <= (width - xMargin); x += step) {
+                final int left = x - xMargin;
+                final int right = x + xMargin;
+                final int occupied = (table[bottom + right] - table[bottom + left])
+                                     - (table[top + right] - table[top + left]);
+
+                if (occupied == 0) {
+                    if (count == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, 2 * count);
+                    }
+
+                    candidates[count++] = (y * width) + x;
+                }
+            }
+        }
+
+        logger.debug("Free None centers: {}", count);
+
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Pick None centers among the provided free candidates.
+     * <p>
+     * Candidates are visited in order (or in random order if so desired), each accepted center
+     * blocks the nearby centers whose margin rectangle would intersect its own.
+     *
+     * @param candidates free centers, encoded as y * sheetWidth + x
+     * @param shuffle    true to visit candidates in random order
+     * @param toAdd      desired number of None centers
+     * @param xMargin    abscissa margin around center
+     * @param yMargin    ordinate margin around center
+     * @return the picked centers, perhaps fewer than toAdd if room is lacking
+     */
+    private List<Point> pickCenters (int[] candidates,
+                                     boolean shuffle,
+                                     int toAdd,
+                                     int xMargin,
+                                     int yMargin)
+    {
+        final int width = annotations.getSheetInfo().dim.width;
+        final int height = annotations.getSheetInfo().dim.height;
+        final int count = candidates.length;
+        final List<Point> centers = new ArrayList<Point>();
+        final BitSet blocked = new BitSet(width * height);
+
+        for (int i = 0; (i < count) && (centers.size() < toAdd); i++) {
+            if (shuffle) {
+                final int j = i + random.nextInt(count - i);
+                final int candidate = candidates[j];
+                candidates[j] = candidates[i];
+                candidates[i] = candidate;
+            }
+
+            final int candidate = candidates[i];
+
+            if (blocked.get(candidate)) {
+                continue;
+            }
+
+            final int x = candidate % width;
+            final int y = candidate / width;
+            centers.add(new Point(x, y));
+
+            final int xMin = Math.max(0, (x - (2 * xMargin)) + 1);
+            final int xMax = Math.min(width - 1, (x + (2 * xMargin)) - 1);
+            final int yMin = Math.max(0, (y - (2 * yMargin)) + 1);
+            final int yMax = Math.min(height - 1, (y + (2 * yMargin)) - 1);
+
+            for (int by = yMin; by <= yMax; by++) {
+                blocked.set((by * width) + xMin, (by * width) + xMax + 1);
+            }
+        }
+
+        return centers;
+    }
+
+    /**
+     * Pick None centers where the current model most confidently sees a valid shape.
+     * <p>
+     * Free centers are taken on a grid, a random subset is kept if they are too numerous, and
+     * they are scored by the miner. Centers are then picked by decreasing score.
+     *
+     * @param toAdd      desired number of None centers
+     * @param xMargin    abscissa margin around center
+     * @param yMargin    ordinate margin around center
+     * @param occupiedYs table of ordinates occupied by valid symbols
+     * @return the picked centers
+     */
+    private List<Point> pickMinedCenters (int toAdd,
+                                          int xMargin,
+                                          int yMargin,
+                                          boolean[] occupiedYs)
+    {
+        final double ratio = (double) INTERLINE / roundedInterline;
+        final int step = Math.max(1, (int) Math.rint(MINING_STEP / ratio));
+        int[] candidates = getFreeCenters(xMargin, yMargin, occupiedYs, step);
+
+        if (candidates.length > MINING_MAX_CANDIDATES) {
+            // Keep a random subset
+            for (int i = 0; i < MINING_MAX_CANDIDATES; i++) {
+                final int j = i + random.nextInt(candidates.length - i);
+                final int candidate = candidates[j];
+                candidates[j] = candidates[i];
+                candidates[i] = candidate;
+            }
+
+            candidates = Arrays.copyOf(candidates, MINING_MAX_CANDIDATES);
+        }
+
+        final int width = annotations.getSheetInfo().dim.width;
+        final List<Point> points = new ArrayList<Point>(candidates.length);
+
+        for (int candidate : candidates) {
+            points.add(new Point(candidate % width, candidate / width));
+        }
+
+        final double[] scores = miner.score(points, roundedInterline);
+
+        // Sort candidates by decreasing score
+        final Integer[] order = new Integer[candidates.length];
+
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(
+                order,
+                new Comparator<Integer>()
+        {
+            @Override
+            public int compare (Integer i1,
+                                Integer i2)
+            {
+                return Double.compare(scores[i2], scores[i1]);
+            }
+        });
+
+        final int[] sorted = new int[candidates.length];
+
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = candidates[order[i]];
+        }
+
+        final List<Point> centers = pickCenters(sorted, false, toAdd, xMargin, yMargin);
+
+        if (!centers.isEmpty()) {
+            logger.info(
+                    "Mined {} Nones among {} candidates, scores from {} down to {}",
+                    centers.size(),
+                    candidates.length,
+                    String.format("%.3f", scores[order[0]]),
+                    String.format("%.3f", scores[order[centers.size() - 1]]));
+        }
+
+        return centers;
+    }
+
+    /**
+     * Compute in place the 2D prefix sums of the provided table.
+     *
+     * @param table  the table to process
+     * @param stride table width
+     * @param height table height
+     */
+    private static void prefixSums (int[] table,
+                                    int stride,
+                                    int height)
+    {
+        for (int y = 0; y < height; y++) {
+            final int row = y * stride;
+            int rowSum = 0;
+
+            for (int x = 0; x < stride; x++) {
+                rowSum += table[row + x];
+                table[row + x] = rowSum + ((y > 0) ? table[(row - stride) + x] : 0);
+            }
+        }
+    }
+
     /**
      * Insert the provided rectangle if this does not result in a collision with any
      * existing rectangle (valid symbols plus already inserted artificial rectangles).
+     * <p>
+     * Valid symbols are looked up in the sheet symbol index, None rectangles in the list of
+     * those already inserted.
      *
      * @param rect     (input) the rectangle to insert
      * @param maxWidth (input) maximum symbol width
-     * @return
+     * @return true if inserted
      */
     private boolean tryInsertion (Rectangle rect,
                                   int maxWidth)
     {
-        final int size = filledBoxes.size();
+        // Check for collisions with valid symbols
+        for (SymbolInfo symbol : annotations.getSymbolIndex().getIntersected(rect)) {
+            if (!IgnoredShapes.isIgnored(symbol.getOmrShape())
+                && symbol.getBounds().getBounds().intersects(rect)) {
+                return false;
+            }
+        }
+
+        final int size = noneBoxes.size();
         final int xMax = (rect.x + rect.width) - 1;
         final int xMin = (rect.x - maxWidth) + 1;
 
         // Theoretical insertion index in the sorted list
-        final int result = Collections.binarySearch(filledBoxes, rect, byAbscissa);
+        final int result = Collections.binarySearch(noneBoxes, rect, byAbscissa);
         final int index = (result >= 0) ? result : (-(result + 1));
 
         // Check for collisions on right
         for (int i = index; i < size; i++) {
-            Rectangle r = filledBoxes.get(i);
+            Rectangle r = noneBoxes.get(i);
 
             if (r.x > xMax) {
                 break;
@@ -244,7 +626,7 @@ public class NonesBuilder
 
         // Check for collisions on left
         for (int i = index - 1; i >= 0; i--) {
-            Rectangle r = filledBoxes.get(i);
+            Rectangle r = noneBoxes.get(i);
 
             if (r.x < xMin) {
                 break;
@@ -254,7 +636,7 @@ public class NonesBuilder
         }
 
         // No collision found, insert rectangle at proper index
-        filledBoxes.add(index, rect);
+        noneBoxes.add(index, rect);
         logger.debug("Added None at {}", rect);
 
         return true;
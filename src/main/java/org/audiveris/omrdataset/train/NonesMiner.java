@@ -0,0 +1,185 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       N o n e s M i n e r                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.Main;
+import org.audiveris.omrdataset.api.OmrShape;
+import org.audiveris.omrdataset.classifier.PatchClassifier;
+import org.audiveris.omrdataset.classifier.Prediction;
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Class {@code NonesMiner} scores None candidate locations with the current classifier model,
+ * to support the mining of hard negative examples.
+ * <p>
+ * The score of a location is the highest probability the model assigns to any valid shape for
+ * the context centered on this location. Since candidate locations are known to be free of any
+ * valid symbol, a high score reveals a model mistake worth training on.
+ * <p>
+ * Scoring is delegated to a {@link PatchClassifier}, loaded only once and reused for all sheets.
+ * The sheet image must be set via {@link #setImage(BufferedImage)} before scoring the sheet
+ * candidates. An instance is not meant to be shared by several threads.
+ *
+ * @author Hervé Bitteur
+ */
+public class NonesMiner
+        implements AutoCloseable
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(NonesMiner.class);
+
+    /** Number of predictions needed to skip the none shape. */
+    private static final int TOP_K = 2;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Classifier on context patches. */
+    private final PatchClassifier classifier;
+
+    /** Initial sheet image. */
+    private BufferedImage image;
+
+    /** Interline of scaledImage, if any. */
+    private int scaledInterline;
+
+    /** Sheet image scaled to standard interline. */
+    private BufferedImage scaledImage;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code NonesMiner} object.
+     *
+     * @param classifier the patch classifier
+     */
+    public NonesMiner (PatchClassifier classifier)
+    {
+        this.classifier = classifier;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Load the miner from the provided model file, which also contains the pixels normalizer.
+     *
+     * @param modelPath path to model file
+     * @return the loaded miner
+     * @throws IOException in case of IO problem
+     */
+    public static NonesMiner load (Path modelPath)
+            throws IOException
+    {
+        return new NonesMiner(new PatchClassifier(modelPath, Main.cli.replicas));
+    }
+
+    @Override
+    public void close ()
+    {
+        classifier.close();
+    }
+
+    /**
+     * Score the provided candidate locations.
+     *
+     * @param centers   candidate None centers, in sheet image coordinates
+     * @param interline sheet interline
+     * @return for each center, the highest probability of a valid shape
+     */
+    public double[] score (List<Point> centers,
+                           int interline)
+    {
+        final BufferedImage img = getScaledImage(interline);
+        final double ratio = (double) INTERLINE / interline;
+        final int length = CONTEXT_HEIGHT * CONTEXT_WIDTH;
+        final List<Future<List<Prediction>>> futures = new ArrayList<Future<List<Prediction>>>(
+                centers.size());
+
+        // Submit all contexts at once, the classifier will batch them
+        for (Point center : centers) {
+            final int axMin = (int) Math.rint((ratio * center.x) - (CONTEXT_WIDTH / 2));
+            final int ayMin = (int) Math.rint((ratio * center.y) - (CONTEXT_HEIGHT / 2));
+            final int[] context = new int[length];
+            SheetProcessor.extractContext(img, axMin, ayMin, context);
+            futures.add(classifier.submit(context, TOP_K));
+        }
+
+        final double[] scores = new double[centers.size()];
+
+        try {
+            for (int i = 0; i < scores.length; i++) {
+                for (Prediction prediction : futures.get(i).get()) {
+                    if (prediction.shape != OmrShape.none) {
+                        scores[i] = prediction.probability;
+
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IllegalStateException("Error scoring None candidates", ex);
+        }
+
+        return scores;
+    }
+
+    /**
+     * Set the image of the sheet to be processed.
+     *
+     * @param image the (gray) sheet image
+     */
+    public void setImage (BufferedImage image)
+    {
+        this.image = image;
+        scaledImage = null;
+    }
+
+    /**
+     * Report the sheet image, scaled to the standard interline.
+     *
+     * @param interline sheet interline
+     * @return the properly scaled image
+     */
+    private BufferedImage getScaledImage (int interline)
+    {
+        if (image == null) {
+            throw new IllegalStateException("No sheet image set for NonesMiner");
+        }
+
+        if ((scaledImage == null) || (scaledInterline != interline)) {
+            scaledInterline = interline;
+            scaledImage = (interline == INTERLINE) ? image
+                    : SheetProcessor.scale(image, (double) INTERLINE / interline);
+        }
+
+        return scaledImage;
+    }
+}
@@ -0,0 +1,163 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       P a d d e d P a g e                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * Class {@code PaddedPage} is a copy of a gray sheet image, with pixel values already inverted
+ * (foreground is high), surrounded by background on every side by half a context.
+ * <p>
+ * Since a symbol context is centered on a symbol within the sheet, it generally fits in the
+ * padded page, and is thus extracted by one bulk copy per context row, with no per-pixel test
+ * or conversion. Any context beyond padding is still handled, row by row.
+ *
+ * @author Hervé Bitteur
+ */
+public class PaddedPage
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** Padding on left and right sides. */
+    private final int padX;
+
+    /** Padding on top and bottom sides. */
+    private final int padY;
+
+    /** Padded width. */
+    private final int stride;
+
+    /** Padded height. */
+    private final int paddedHeight;
+
+    /** Feature values, row by row. */
+    private final byte[] bytes;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code PaddedPage} object.
+     *
+     * @param img  the gray sheet image
+     * @param padX padding on left and right sides, typically half context width
+     * @param padY padding on top and bottom sides, typically half context height
+     */
+    public PaddedPage (BufferedImage img,
+                       int padX,
+                       int padY)
+    {
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final Raster raster = img.getRaster();
+        final byte[] source = ((DataBufferByte) raster.getDataBuffer()).getData();
+
+        this.padX = padX;
+        this.padY = padY;
+        stride = width + (2 * padX);
+        paddedHeight = height + (2 * padY);
+        bytes = new byte[stride * paddedHeight];
+
+        if (BACKGROUND != 0) {
+            Arrays.fill(bytes, (byte) BACKGROUND);
+        }
+
+        for (int y = 0; y < height; y++) {
+            final int src = y * width;
+            final int dst = ((y + padY) * stride) + padX;
+
+            for (int x = 0; x < width; x++) {
+                bytes[dst + x] = (byte) ~source[src + x]; // That is 255 - value
+            }
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Extract the context sub-image whose top-left corner is provided.
+     *
+     * @param axMin  abscissa of context left side, in sheet image
+     * @param ayMin  ordinate of context top side, in sheet image
+     * @param width  context width
+     * @param height context height
+     * @param pixels (output) the height * width values, row by row
+     */
+    public void extract (int axMin,
+                         int ayMin,
+                         int width,
+                         int height,
+                         byte[] pixels)
+    {
+        final int px = axMin + padX;
+        final int py = ayMin + padY;
+
+        if ((px >= 0) && (py >= 0) && ((px + width) <= stride) && ((py + height) <= paddedHeight)) {
+            // Context within padded page
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(bytes, ((py + y) * stride) + px, pixels, y * width, width);
+            }
+        } else {
+            extractClipped(px, py, width, height, pixels);
+        }
+    }
+
+    //----------------//
+    // extractClipped //
+    //----------------//
+    /**
+     * Extract a context that goes beyond padding.
+     *
+     * @param px     abscissa of context left side, in padded page
+     * @param py     ordinate of context top side, in padded page
+     * @param width  context width
+     * @param height context height
+     * @param pixels (output) the height * width values, row by row
+     */
+    private void extractClipped (int px,
+                                 int py,
+                                 int width,
+                                 int height,
+                                 byte[] pixels)
+    {
+        // Context abscissae [xStart..xStop[ lie within padded page
+        final int xStart = Math.max(0, Math.min(width, -px));
+        final int xStop = Math.max(xStart, Math.min(width, stride - px));
+
+        Arrays.fill(pixels, 0, width * height, (byte) BACKGROUND);
+
+        for (int y = 0; y < height; y++) {
+            final int ay = py + y;
+
+            if ((ay >= 0) && (ay < paddedHeight) && (xStart < xStop)) {
+                System.arraycopy(
+                        bytes,
+                        (ay * stride) + px + xStart,
+                        pixels,
+                        (y * width) + xStart,
+                        xStop - xStart);
+            }
+        }
+    }
+}
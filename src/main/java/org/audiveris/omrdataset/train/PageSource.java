@@ -0,0 +1,131 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       P a g e S o u r c e                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.train.Metrics.Stage;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Class {@code PageSource} is a context source on a whole sheet image, held in memory.
+ * <p>
+ * For each pair of profile interline and symbol interline, the (perhaps scaled) gray image is
+ * copied once into a {@link PaddedPage}, released once its patches are extracted.
+ * A bilevel image at standard interline is rather read directly from its packed bits.
+ *
+ * @author Hervé Bitteur
+ */
+public class PageSource
+        extends ContextSource
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** The whole sheet image. */
+    private final BufferedImage initialImg;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code PageSource} object.
+     *
+     * @param initialImg the (gray) sheet image
+     */
+    public PageSource (BufferedImage initialImg)
+    {
+        this.initialImg = initialImg;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    @Override
+    public void extract (List<Patch> patches)
+    {
+        final boolean bilevel = initialImg.getType() == BufferedImage.TYPE_BYTE_BINARY;
+
+        for (List<Patch> group : groupByScale(patches)) {
+            final Patch first = group.get(0);
+
+            if (bilevel && !first.isScaled()) {
+                final int[] context = new int[maxSize(group)];
+
+                for (Patch patch : group) {
+                    final long nanos = System.nanoTime();
+                    Bilevel.extractContext(
+                            initialImg,
+                            patch.axMin,
+                            patch.ayMin,
+                            patch.profile.width,
+                            patch.profile.height,
+                            context);
+                    patch.setPixels(context);
+                    Metrics.record(Stage.PATCH_EXTRACTION, nanos);
+                }
+
+                continue;
+            }
+
+            // Pick up image properly scaled
+            final BufferedImage img;
+
+            if (first.isScaled()) {
+                final long nanos = System.nanoTime();
+                img = SheetProcessor.scale(initialImg, first.ratio);
+                Metrics.record(Stage.RESCALE, nanos);
+            } else {
+                img = initialImg;
+            }
+
+            // Padding for the largest contexts
+            int padX = 0;
+            int padY = 0;
+
+            for (Patch patch : group) {
+                padX = Math.max(padX, patch.profile.width / 2);
+                padY = Math.max(padY, patch.profile.height / 2);
+            }
+
+            final PaddedPage page = new PaddedPage(img, padX, padY);
+
+            for (Patch patch : group) {
+                final long nanos = System.nanoTime();
+                page.extract(
+                        patch.axMin,
+                        patch.ayMin,
+                        patch.profile.width,
+                        patch.profile.height,
+                        patch.pixels);
+                Metrics.record(Stage.PATCH_EXTRACTION, nanos);
+            }
+        }
+    }
+
+    @Override
+    public int getHeight ()
+    {
+        return initialImg.getHeight();
+    }
+
+    @Override
+    public int getWidth ()
+    {
+        return initialImg.getWidth();
+    }
+}
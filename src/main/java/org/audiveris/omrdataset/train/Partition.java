@@ -0,0 +1,127 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                        P a r t i t i o n                                       //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Class {@code Partition} defines which share of the input sheets a process is in charge of,
+ * so that several processes (on one or several machines) can extract features concurrently.
+ * <p>
+ * Partition "i/N" keeps only the sheets whose key hashes to i, among N partitions numbered from
+ * 1 to N. The key of a sheet is the path of its annotations file relative to the input folder it
+ * was found in, with '/' as separator, so that assignment does not depend on where the corpus is
+ * mounted nor on the order sheets are listed in.
+ * Provided they are given the same inputs, the N processes thus handle every sheet exactly once.
+ *
+ * @author Hervé Bitteur
+ */
+public class Partition
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** Partition specification: index/count. */
+    private static final Pattern SPEC = Pattern.compile("([0-9]+)/([0-9]+)");
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Partition index, counted from 1. */
+    public final int index;
+
+    /** Total number of partitions. */
+    public final int count;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code Partition} object.
+     *
+     * @param index partition index, counted from 1
+     * @param count total number of partitions
+     */
+    public Partition (int index,
+                      int count)
+    {
+        this.index = index;
+        this.count = count;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Report whether the sheet with provided key belongs to this partition.
+     *
+     * @param key sheet key
+     * @return true if so
+     */
+    public boolean contains (String key)
+    {
+        return (hash(key) % count) == (index - 1);
+    }
+
+    /**
+     * Decode a partition specification.
+     *
+     * @param spec specification such as "2/8"
+     * @return the partition
+     * @throws IllegalArgumentException if specification is not valid
+     */
+    public static Partition decode (String spec)
+    {
+        final Matcher matcher = SPEC.matcher(spec);
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Illegal partition " + spec + ", expected i/N");
+        }
+
+        final int index = Integer.parseInt(matcher.group(1));
+        final int count = Integer.parseInt(matcher.group(2));
+
+        if ((index < 1) || (index > count)) {
+            throw new IllegalArgumentException(
+                    "Partition index must be within 1.." + count + " in " + spec);
+        }
+
+        return new Partition(index, count);
+    }
+
+    /**
+     * Report the stable hash of a sheet key: the CRC32 of its UTF-8 bytes, which depends
+     * neither on JVM nor on platform.
+     *
+     * @param key sheet key
+     * @return hash value, non negative
+     */
+    public static long hash (String key)
+    {
+        final CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+
+        return crc.getValue();
+    }
+
+    @Override
+    public String toString ()
+    {
+        return index + "/" + count;
+    }
+}
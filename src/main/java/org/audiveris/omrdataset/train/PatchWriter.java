@@ -0,0 +1,409 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                      P a t c h W r i t e r                                     //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Class {@code PatchWriter} renders context patches (sub-images) and writes them to disk,
+ * using per-thread reusable buffers.
+ * <p>
+ * A patch is the flat array of CONTEXT_WIDTH * CONTEXT_HEIGHT feature values, row by row, as
+ * found in features file (foreground pixels have high values).
+ * It is rendered with pixel inversion and a reference cross on patch center, directly into a
+ * target pixel buffer, with no intermediate image.
+ * <p>
+ * Supported output formats are PNG (RGB, with configurable compression level) and PGM (raw
+ * gray, no compression at all, cross drawn in gray).
+ *
+ * @author Hervé Bitteur
+ */
+public class PatchWriter
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    /** PNG file signature. */
+    private static final byte[] PNG_SIGNATURE = new byte[]{
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    /** Opacity of reference cross: {@value}. */
+    private static final int CROSS_ALPHA = 150;
+
+    /** Gray level of the red cross color, used for gray output: {@value}. */
+    private static final int CROSS_GRAY = 76;
+
+    //~ Enumerations -------------------------------------------------------------------------------
+    /** Supported output formats. */
+    public enum Format
+    {
+        //~ Enumeration constant initializers ------------------------------------------------------
+
+        /** Compressed RGB PNG. */
+        png,
+        /** Raw gray PGM. */
+        pgm;
+    }
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Output format. */
+    private final Format format;
+
+    /** Deflater compression level for PNG. */
+    private final int compression;
+
+    /** Number of bytes per pixel. */
+    private final int channels;
+
+    /** Buffers reused by each thread. */
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>()
+    {
+        @Override
+        protected Buffers initialValue ()
+        {
+            return new Buffers();
+        }
+    };
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code PatchWriter} object.
+     *
+     * @param format      output format
+     * @param compression PNG compression level (0-9), or -1 for default
+     */
+    public PatchWriter (Format format,
+                        int compression)
+    {
+        this.format = format;
+        this.compression = compression;
+        channels = (format == Format.png) ? 3 : 1;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Report the number of bytes per output pixel.
+     *
+     * @return 3 for RGB, 1 for gray
+     */
+    public int getChannels ()
+    {
+        return channels;
+    }
+
+    /**
+     * Report the file extension for output images.
+     *
+     * @return extension, such as ".png"
+     */
+    public String getExtension ()
+    {
+        return "." + format;
+    }
+
+    /**
+     * Render the provided patch into a target pixel buffer.
+     *
+     * @param patch  the patch feature values
+     * @param target the target pixel buffer, with {@link #getChannels()} bytes per pixel
+     * @param width  width of target buffer, in pixels
+     * @param x      abscissa of patch in target
+     * @param y      ordinate of patch in target
+     */
+    public void render (byte[] patch,
+                        byte[] target,
+                        int width,
+                        int x,
+                        int y)
+    {
+        final int stride = width * channels;
+        final int rowLength = CONTEXT_WIDTH * channels;
+
+        for (int r = 0; r < CONTEXT_HEIGHT; r++) {
+            final int src = r * CONTEXT_WIDTH;
+            final int dst = ((y + r) * stride) + (x * channels);
+
+            if (channels == 1) {
+                for (int c = 0; c < CONTEXT_WIDTH; c++) {
+                    target[dst + c] = (byte) ~patch[src + c]; // Inversion: 255 - val
+                }
+            } else {
+                for (int c = 0, i = dst; c < CONTEXT_WIDTH; c++) {
+                    final byte val = (byte) ~patch[src + c];
+                    target[i++] = val;
+                    target[i++] = val;
+                    target[i++] = val;
+                }
+            }
+
+            // Horizontal line of reference cross
+            if (r == (CONTEXT_HEIGHT / 2)) {
+                for (int i = dst; i < (dst + rowLength); i += channels) {
+                    blendCross(target, i);
+                }
+            }
+
+            // Vertical line of reference cross
+            blendCross(target, dst + ((CONTEXT_WIDTH / 2) * channels));
+        }
+    }
+
+    /**
+     * Render the provided patch and write it to disk.
+     *
+     * @param patch the patch feature values
+     * @param path  target path, assumed to end with proper extension
+     * @throws IOException in case of IO problem
+     */
+    public void write (byte[] patch,
+                       Path path)
+            throws IOException
+    {
+        final byte[] pixels = buffers.get().pixels;
+        render(patch, pixels, CONTEXT_WIDTH, 0, 0);
+        write(pixels, CONTEXT_WIDTH, CONTEXT_HEIGHT, path);
+    }
+
+    /**
+     * Write the provided pixel buffer to disk.
+     *
+     * @param pixels pixel buffer, with {@link #getChannels()} bytes per pixel
+     * @param width  image width
+     * @param height image height
+     * @param path   target path, assumed to end with proper extension
+     * @throws IOException in case of IO problem
+     */
+    public void write (byte[] pixels,
+                       int width,
+                       int height,
+                       Path path)
+            throws IOException
+    {
+        try (OutputStream os = new FileOutputStream(path.toFile())) {
+            if (format == Format.png) {
+                writePng(pixels, width, height, os);
+            } else {
+                writePgm(pixels, width, height, os);
+            }
+        }
+    }
+
+    /**
+     * Blend the cross color on top of pixel at provided index.
+     */
+    private void blendCross (byte[] target,
+                             int i)
+    {
+        if (channels == 1) {
+            target[i] = blend(CROSS_GRAY, target[i]);
+        } else {
+            target[i] = blend(255, target[i]);
+            target[i + 1] = blend(0, target[i + 1]);
+            target[i + 2] = blend(0, target[i + 2]);
+        }
+    }
+
+    private static byte blend (int src,
+                               byte dst)
+    {
+        return (byte) (((src * CROSS_ALPHA) + ((dst & 0xff) * (255 - CROSS_ALPHA)) + 127) / 255);
+    }
+
+    private static void putInt (byte[] bytes,
+                                int offset,
+                                int v)
+    {
+        bytes[offset] = (byte) (v >>> 24);
+        bytes[offset + 1] = (byte) (v >>> 16);
+        bytes[offset + 2] = (byte) (v >>> 8);
+        bytes[offset + 3] = (byte) v;
+    }
+
+    private void writePgm (byte[] pixels,
+                           int width,
+                           int height,
+                           OutputStream os)
+            throws IOException
+    {
+        os.write(("P5\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+        os.write(pixels, 0, width * height);
+    }
+
+    private void writePng (byte[] pixels,
+                           int width,
+                           int height,
+                           OutputStream os)
+            throws IOException
+    {
+        final Buffers b = buffers.get();
+        final int rowLength = width * channels;
+        final byte[] raw = b.raw(height * (1 + rowLength));
+
+        // Scan lines, each preceded by filter type 0 (none)
+        for (int r = 0, i = 0; r < height; r++) {
+            raw[i++] = 0;
+            System.arraycopy(pixels, r * rowLength, raw, i, rowLength);
+            i += rowLength;
+        }
+
+        // Header
+        b.chunk.clear();
+        b.chunk.writeInt(width);
+        b.chunk.writeInt(height);
+        b.chunk.write(8); // Bit depth
+        b.chunk.write((channels == 1) ? 0 : 2); // Color type: gray or RGB
+        b.chunk.write(0); // Compression method
+        b.chunk.write(0); // Filter method
+        b.chunk.write(0); // Interlace method
+        os.write(PNG_SIGNATURE);
+        b.writeChunk("IHDR", os);
+
+        // Data
+        b.chunk.clear();
+        b.deflater.reset();
+        b.deflater.setLevel(compression);
+        b.deflater.setInput(raw, 0, height * (1 + rowLength));
+        b.deflater.finish();
+
+        while (!b.deflater.finished()) {
+            b.chunk.ensure(b.chunk.length + 8192);
+            b.chunk.length += b.deflater.deflate(
+                    b.chunk.data,
+                    b.chunk.length,
+                    b.chunk.data.length - b.chunk.length);
+        }
+
+        b.writeChunk("IDAT", os);
+
+        // End
+        b.chunk.clear();
+        b.writeChunk("IEND", os);
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //---------//
+    // Buffers //
+    //---------//
+    /**
+     * Working buffers for one thread.
+     */
+    private class Buffers
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Pixels of one patch. */
+        final byte[] pixels = new byte[CONTEXT_WIDTH * CONTEXT_HEIGHT * channels];
+
+        /** Raw (filtered) PNG data. */
+        byte[] raw = new byte[0];
+
+        /** Current chunk data. */
+        final ByteSink chunk = new ByteSink();
+
+        final Deflater deflater = new Deflater();
+
+        final CRC32 crc = new CRC32();
+
+        final byte[] header = new byte[8];
+
+        //~ Methods --------------------------------------------------------------------------------
+        byte[] raw (int length)
+        {
+            if (raw.length < length) {
+                raw = new byte[length];
+            }
+
+            return raw;
+        }
+
+        /**
+         * Write the chunk: length, type, data and CRC.
+         */
+        void writeChunk (String type,
+                         OutputStream os)
+                throws IOException
+        {
+            putInt(header, 0, chunk.length);
+
+            for (int i = 0; i < 4; i++) {
+                header[4 + i] = (byte) type.charAt(i);
+            }
+
+            crc.reset();
+            crc.update(header, 4, 4);
+            crc.update(chunk.data, 0, chunk.length);
+            os.write(header, 0, 8);
+            os.write(chunk.data, 0, chunk.length);
+            putInt(header, 0, (int) crc.getValue());
+            os.write(header, 0, 4);
+        }
+    }
+
+    //----------//
+    // ByteSink //
+    //----------//
+    /**
+     * Growable byte array, meant to be reused.
+     */
+    private static class ByteSink
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        byte[] data = new byte[8192];
+
+        int length;
+
+        //~ Methods --------------------------------------------------------------------------------
+        void clear ()
+        {
+            length = 0;
+        }
+
+        void ensure (int capacity)
+        {
+            if (data.length < capacity) {
+                data = Arrays.copyOf(data, Math.max(capacity, 2 * data.length));
+            }
+        }
+
+        void write (int b)
+        {
+            ensure(length + 1);
+            data[length++] = (byte) b;
+        }
+
+        void writeInt (int v)
+        {
+            ensure(length + 4);
+            putInt(data, length, v);
+            length += 4;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                       P o p u l a t i o n                                      //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+/**
+ * Class {@code Population} is used to cumulate measurements, and compute mean value and
+ * (population) standard deviation.
+ * <p>
+ * Only count, sum and sum of squares are kept, so that populations can be merged exactly.
+ *
+ * @author Hervé Bitteur
+ */
+public class Population
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** Number of measurements. */
+    private long count;
+
+    /** Sum of measured values. */
+    private double sum;
+
+    /** Sum of squared measured values. */
+    private double squares;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new empty {@code Population} object.
+     */
+    public Population ()
+    {
+    }
+
+    /**
+     * Creates a new {@code Population} object, from its cumulated values.
+     *
+     * @param count   number of measurements
+     * @param sum     sum of values
+     * @param squares sum of squared values
+     */
+    public Population (long count,
+                       double sum,
+                       double squares)
+    {
+        this.count = count;
+        this.sum = sum;
+        this.squares = squares;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Report the number of measurements.
+     *
+     * @return the cardinality
+     */
+    public long getCardinality ()
+    {
+        return count;
+    }
+
+    /**
+     * Report the mean value.
+     *
+     * @return the mean value
+     */
+    public double getMeanValue ()
+    {
+        if (count == 0) {
+            throw new IllegalStateException("Empty population");
+        }
+
+        return sum / count;
+    }
+
+    /**
+     * Report the (population) standard deviation.
+     *
+     * @return the standard deviation
+     */
+    public double getStandardDeviation ()
+    {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Report the sum of squared values.
+     *
+     * @return sum of squares
+     */
+    public double getSquares ()
+    {
+        return squares;
+    }
+
+    /**
+     * Report the sum of values.
+     *
+     * @return sum
+     */
+    public double getSum ()
+    {
+        return sum;
+    }
+
+    /**
+     * Report the (population) variance.
+     *
+     * @return the variance, never negative
+     */
+    public double getVariance ()
+    {
+        final double mean = getMeanValue();
+
+        return Math.max(0, (squares / count) - (mean * mean));
+    }
+
+    /**
+     * Include another population.
+     *
+     * @param other the population to merge into this one
+     */
+    public void includePopulation (Population other)
+    {
+        count += other.count;
+        sum += other.sum;
+        squares += other.squares;
+    }
+
+    /**
+     * Include one measurement.
+     *
+     * @param val the measured value
+     */
+    public void includeValue (double val)
+    {
+        count++;
+        sum += val;
+        squares += (val * val);
+    }
+
+    /**
+     * Include the same measurement several times.
+     *
+     * @param val   the measured value
+     * @param times number of occurrences
+     */
+    public void includeValue (double val,
+                              long times)
+    {
+        count += times;
+        sum += (val * times);
+        squares += (val * val * times);
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format(
+                "Population{count:%d mean:%.3f std:%.3f}",
+                count,
+                (count > 0) ? getMeanValue() : Double.NaN,
+                (count > 0) ? getStandardDeviation() : Double.NaN);
+    }
+}
@@ -0,0 +1,324 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                        Q u a n t i z e r                                       //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.classifier.QuantizedClassifier;
+import org.audiveris.omrdataset.classifier.QuantizedClassifier.Layer;
+import org.audiveris.omrdataset.train.FeaturesSample.Row;
+import static org.audiveris.omrdataset.classifier.Context.*;
+import static org.audiveris.omrdataset.classifier.QuantizedClassifier.QMAX;
+import static org.audiveris.omrdataset.train.App.*;
+import static org.audiveris.omrdataset.train.AppPaths.*;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class {@code Quantizer} performs the post-training quantization of the classifier model,
+ * to be used by a {@link QuantizedClassifier}.
+ * <p>
+ * Weights are quantized to int8 with one scale per output channel (symmetric, max magnitude).
+ * Layer inputs are quantized to int8 with one scale per layer, calibrated on a random sample
+ * of features rows run through the float model.
+ * <p>
+ * The quantized model is then compared with the float model on another sample of features
+ * rows, and the comparison is written to a report file.
+ * Latency is reported for the DL4J model, for the pure Java float model ({@code FloatClassifier})
+ * and for the quantized model. The speed-up target is checked against the pure Java float model,
+ * since comparing with DL4J would mostly measure the DL4J overhead.
+ *
+ * @author Hervé Bitteur
+ */
+public class Quantizer
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Quantizer.class);
+
+    /** Number of rows run at once through the float model. */
+    private static final int CHUNK = 100;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Float model. */
+    private ReferenceModel ref;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Quantize the model, save it and report its comparison with the float model.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void process ()
+            throws Exception
+    {
+        ref = new ReferenceModel(MODEL_PATH);
+
+        // Sample rows, first half for calibration, second half for evaluation
+        final List<Row> rows = FeaturesSample.pick(FEATURES_PATH, 2 * QUANTIZATION_SAMPLES, 123);
+
+        if (rows.size() < 2) {
+            throw new IllegalStateException("Not enough features rows in " + FEATURES_PATH);
+        }
+
+        final int half = rows.size() / 2;
+        final QuantizedClassifier quantized = quantize(rows.subList(0, half));
+        quantized.write(QUANTIZED_PATH);
+        logger.info("Quantized model saved to {}", QUANTIZED_PATH.toAbsolutePath());
+
+        final List<String> report = evaluate(quantized, rows.subList(half, rows.size()));
+
+        try (PrintWriter pw = new PrintWriter(
+                Files.newBufferedWriter(QUANTIZATION_PATH, StandardCharsets.UTF_8))) {
+            for (String line : report) {
+                logger.info(line);
+                pw.println(line);
+            }
+        }
+
+        logger.info("Quantization report written to {}", QUANTIZATION_PATH.toAbsolutePath());
+    }
+
+    /**
+     * Compare float and quantized models.
+     *
+     * @param quantized the quantized classifier
+     * @param rows      evaluation rows
+     * @return lines of report
+     */
+    private List<String> evaluate (QuantizedClassifier quantized,
+                                   List<Row> rows)
+    {
+        final int classes = quantized.getClassCount();
+        final float[] probs = new float[classes];
+        int floatHits = 0;
+        int quantizedHits = 0;
+        int agreements = 0;
+        double sumDelta = 0;
+        double maxDelta = 0;
+
+        for (int start = 0; start < rows.size(); start += CHUNK) {
+            final List<Row> chunk = rows.subList(start, Math.min(rows.size(), start + CHUNK));
+            final List<INDArray> acts = ref.activations(chunk);
+            final INDArray output = acts.get(acts.size() - 1);
+
+            for (int r = 0; r < chunk.size(); r++) {
+                final Row row = chunk.get(r);
+                quantized.classify(row.pixels, probs);
+
+                int floatBest = 0;
+                int quantizedBest = 0;
+
+                for (int c = 0; c < classes; c++) {
+                    final double p = output.getDouble(r, c);
+
+                    if (p > output.getDouble(r, floatBest)) {
+                        floatBest = c;
+                    }
+
+                    if (probs[c] > probs[quantizedBest]) {
+                        quantizedBest = c;
+                    }
+
+                    final double delta = Math.abs(p - probs[c]);
+                    sumDelta += delta;
+                    maxDelta = Math.max(maxDelta, delta);
+                }
+
+                floatHits += (floatBest == row.label) ? 1 : 0;
+                quantizedHits += (quantizedBest == row.label) ? 1 : 0;
+                agreements += (floatBest == quantizedBest) ? 1 : 0;
+            }
+        }
+
+        final int n = rows.size();
+        final List<String> lines = new ArrayList<String>();
+        lines.add(format("Evaluation rows:            %d", n));
+        lines.add(format("Float top-1 accuracy:       %.4f", floatHits / (double) n));
+        lines.add(format("Int8 top-1 accuracy:        %.4f", quantizedHits / (double) n));
+        lines.add(format("Top-1 agreement:            %.4f", agreements / (double) n));
+        lines.add(format("Mean |delta probability|:   %.6f", sumDelta / ((double) n * classes)));
+        lines.add(format("Max |delta probability|:    %.6f", maxDelta));
+
+        // Speed-up is judged against the pure Java float path, not against DL4J
+        final double refMicros = ref.latency(rows);
+        final double flatMicros = Exporter.latency(Exporter.flatten(ref), rows);
+        final double quantizedMicros = quantizedLatency(quantized, rows);
+        final double speedUp = flatMicros / quantizedMicros;
+        lines.add(format("DL4J single-patch latency:  %.1f us", refMicros));
+        lines.add(format("Flat single-patch latency:  %.1f us", flatMicros));
+        lines.add(format("Int8 single-patch latency:  %.1f us", quantizedMicros));
+        lines.add(format("Latency ratio vs DL4J:      %.2f", refMicros / quantizedMicros));
+        lines.add(format("Latency ratio vs flat:      %.2f", speedUp));
+        lines.add(
+                format(
+                        "Speed-up vs flat >= %.1f:    %s",
+                        QUANTIZATION_MIN_SPEEDUP,
+                        (speedUp >= QUANTIZATION_MIN_SPEEDUP) ? "met" : "NOT met"));
+
+        try {
+            lines.add(format("Float model file size:      %d bytes", Files.size(MODEL_PATH)));
+            lines.add(format("Int8 model file size:       %d bytes", Files.size(QUANTIZED_PATH)));
+        } catch (IOException ex) {
+            logger.warn("Could not read model file sizes {}", ex.toString());
+        }
+
+        return lines;
+    }
+
+    private static String format (String format,
+                                  Object... args)
+    {
+        return String.format(Locale.US, format, args);
+    }
+
+    /**
+     * Report the max magnitude in an activations array.
+     *
+     * @param array the activations
+     * @return the max absolute value
+     */
+    private static float maxAbs (INDArray array)
+    {
+        return Transforms.abs(array, true).maxNumber().floatValue();
+    }
+
+    /**
+     * Build a quantized layer out of a float weighted layer.
+     *
+     * @param index      index of layer in model
+     * @param kernel     kernel size for a convolution, 0 for a dense layer
+     * @param inputScale quantization scale of layer input
+     * @return the quantized layer
+     */
+    private Layer quantizeLayer (int index,
+                                 int kernel,
+                                 float inputScale)
+    {
+        final float[] bias = ref.getParam(index, "b");
+        final float[] data = ref.getParam(index, "W");
+        final int outputs = bias.length;
+        final int inputs = data.length / outputs / Math.max(1, kernel * kernel);
+        final int span = data.length / outputs; // Number of weights per output
+
+        // Position of weight #j of output o
+        // Convolution: [output][input][ky][kx], dense: [input][output]
+        final int[] pos = new int[data.length];
+
+        for (int o = 0; o < outputs; o++) {
+            for (int j = 0; j < span; j++) {
+                pos[(o * span) + j] = (kernel > 0) ? ((o * span) + j) : ((j * outputs) + o);
+            }
+        }
+
+        final float[] scales = new float[outputs];
+        final byte[] weights = new byte[data.length];
+
+        for (int o = 0; o < outputs; o++) {
+            float max = 0;
+
+            for (int j = 0; j < span; j++) {
+                max = Math.max(max, Math.abs(data[pos[(o * span) + j]]));
+            }
+
+            scales[o] = (max > 0) ? (max / QMAX) : 1;
+
+            for (int j = 0; j < span; j++) {
+                final int p = pos[(o * span) + j];
+                weights[p] = QuantizedClassifier.quantize(data[p], scales[o]);
+            }
+        }
+
+        return new Layer(inputs, outputs, kernel, inputScale, scales, weights, bias);
+    }
+
+    /**
+     * Quantize the float model, calibrating activation scales on the provided rows.
+     *
+     * @param rows calibration rows
+     * @return the quantized classifier
+     */
+    private QuantizedClassifier quantize (List<Row> rows)
+    {
+        // Max magnitude of inputs to C2, D4 and O5, i.e. outputs of S1, S3 and D4
+        final float[] maxima = new float[3];
+
+        for (int start = 0; start < rows.size(); start += CHUNK) {
+            final List<INDArray> acts = ref.activations(
+                    rows.subList(start, Math.min(rows.size(), start + CHUNK)));
+            maxima[0] = Math.max(maxima[0], maxAbs(acts.get(2)));
+            maxima[1] = Math.max(maxima[1], maxAbs(acts.get(4)));
+            maxima[2] = Math.max(maxima[2], maxAbs(acts.get(5)));
+        }
+
+        logger.info("Calibrated on {} rows", rows.size());
+
+        // Model input range is known from pixels range
+        final float inputMax = Math.max(
+                Math.abs(BACKGROUND - ref.mean),
+                Math.abs(FOREGROUND - ref.mean));
+
+        return new QuantizedClassifier(
+                ref.mean,
+                ref.std,
+                quantizeLayer(0, 5, (inputMax / ref.std) / QMAX),
+                quantizeLayer(2, 5, maxima[0] / QMAX),
+                quantizeLayer(4, 0, maxima[1] / QMAX),
+                quantizeLayer(5, 0, maxima[2] / QMAX));
+    }
+
+    /**
+     * Measure mean latency of quantized model, one patch at a time.
+     *
+     * @param quantized the quantized classifier
+     * @param rows      the rows to classify
+     * @return mean latency in microseconds
+     */
+    private double quantizedLatency (QuantizedClassifier quantized,
+                                     List<Row> rows)
+    {
+        final float[] probs = new float[quantized.getClassCount()];
+        long total = 0;
+
+        for (int pass = 0; pass < 2; pass++) { // First pass is a warm-up
+            final long start = System.nanoTime();
+
+            for (Row row : rows) {
+                quantized.classify(row.pixels, probs);
+            }
+
+            total = System.nanoTime() - start;
+        }
+
+        return total / (1000.0 * rows.size());
+    }
+}
@@ -0,0 +1,144 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                   R e f e r e n c e M o d e l                                  //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.train.FeaturesSample.Row;
+import static org.audiveris.omrdataset.train.FeaturesSample.PATCH_LENGTH;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Class {@code ReferenceModel} gives access to the trained DL4J model and its pixels
+ * normalizer, as the reference for the exported classifiers.
+ *
+ * @author Hervé Bitteur
+ */
+public class ReferenceModel
+{
+    //~ Instance fields ----------------------------------------------------------------------------
+
+    /** The DL4J model. */
+    public final MultiLayerNetwork model;
+
+    /** Pixels mean value. */
+    public final float mean;
+
+    /** Pixels standard deviation. */
+    public final float std;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Load the reference model (and its bundled pixels normalizer).
+     *
+     * @param modelPath path to model file
+     * @throws IOException in case of IO problem or if no normalizer is found
+     */
+    public ReferenceModel (Path modelPath)
+            throws IOException
+    {
+        model = ModelSerializer.restoreMultiLayerNetwork(modelPath.toFile(), false);
+
+        final NormalizerStandardize normalizer = ModelSerializer.restoreNormalizerFromFile(
+                modelPath.toFile());
+
+        if (normalizer == null) {
+            throw new IOException("No pixels normalizer found in " + modelPath);
+        }
+
+        mean = normalizer.getMean().getFloat(0);
+        std = normalizer.getStd().getFloat(0);
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Compute layer activations for a chunk of rows.
+     *
+     * @param rows the chunk of rows
+     * @return activations, index 0 for model input, index i+1 for output of layer i
+     */
+    public List<INDArray> activations (List<Row> rows)
+    {
+        final float[] data = new float[rows.size() * PATCH_LENGTH];
+
+        for (int r = 0; r < rows.size(); r++) {
+            final int[] pixels = rows.get(r).pixels;
+            final int base = r * PATCH_LENGTH;
+
+            for (int i = 0; i < PATCH_LENGTH; i++) {
+                data[base + i] = (pixels[i] - mean) / std;
+            }
+        }
+
+        return model.feedForward(Nd4j.create(data, new int[]{rows.size(), PATCH_LENGTH}), false);
+    }
+
+    /**
+     * Report the values of a layer parameter, in 'c' order.
+     *
+     * @param index index of layer in model
+     * @param name  parameter name ("W" or "b")
+     * @return the parameter values
+     */
+    public float[] getParam (int index,
+                             String name)
+    {
+        return model.getLayer(index).getParam(name).dup('c').data().asFloat();
+    }
+
+    /**
+     * Measure mean latency of the model, one patch at a time.
+     *
+     * @param rows the rows to classify
+     * @return mean latency in microseconds
+     */
+    public double latency (List<Row> rows)
+    {
+        final float[] data = new float[PATCH_LENGTH];
+        long total = 0;
+
+        for (int pass = 0; pass < 2; pass++) { // First pass is a warm-up
+            total = 0;
+
+            for (Row row : rows) {
+                final long start = System.nanoTime();
+
+                for (int i = 0; i < PATCH_LENGTH; i++) {
+                    data[i] = (row.pixels[i] - mean) / std;
+                }
+
+                model.output(Nd4j.create(data, new int[]{1, PATCH_LENGTH}), false);
+                total += (System.nanoTime() - start);
+            }
+        }
+
+        return total / (1000.0 * rows.size());
+    }
+}
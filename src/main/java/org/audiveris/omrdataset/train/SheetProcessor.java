@@ -25,13 +25,11 @@ import org.audiveris.omrdataset.api.OmrShape;
 import org.audiveris.omrdataset.api.OmrShapes;
 import org.audiveris.omrdataset.api.SheetAnnotations;
 import org.audiveris.omrdataset.api.SymbolInfo;
+import org.audiveris.omrdataset.train.ContextSource.Patch;
+import org.audiveris.omrdataset.train.Metrics.Stage;
 import static org.audiveris.omrdataset.classifier.Context.*;
 import static org.audiveris.omrdataset.train.App.*;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.api.preprocessor.stats.DistributionStats;
-import org.nd4j.linalg.factory.Nd4j;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,17 +40,17 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import javax.imageio.ImageIO;
 
@@ -61,7 +59,8 @@ import javax.imageio.ImageIO;
  * its features.
  * <p>
  * It can also draw the symbols boxes and the None symbols locations on top of sheet image for
- * visual check.
+ * visual check, either as a raster control image or as a vector (SVG) overlay that simply refers
+ * to the sheet image.
  *
  * @author Hervé Bitteur
  */
@@ -81,76 +80,238 @@ public class SheetProcessor
     //~ Instance fields ----------------------------------------------------------------------------
     private final int sheetId;
 
+    /** The whole sheet image, if available. */
     private final BufferedImage initialImg;
 
+    /** Source of symbols contexts. */
+    private final ContextSource source;
+
     private final SheetAnnotations annotations;
 
     private final boolean leaves;
 
-    private final DistributionStats.Builder pixels;
-
-    /** width/height gathered per shape. */
-    private final Map<OmrShape, DistributionStats.Builder> dimMap;
-
-    /** Image(s) gathered by interline value. */
-    private final Map<Integer, BufferedImage> imgMap = new TreeMap<Integer, BufferedImage>();
+    /** Target datasets, one per context profile. */
+    private final List<ContextDataset> datasets;
 
     //~ Constructors -------------------------------------------------------------------------------
     /**
-     * Creates a new {@code SheetProcessor} object.
+     * Creates a new {@code SheetProcessor} object, on a whole sheet image.
      *
      * @param sheetId     sheet id (strictly positive)
      * @param initialImg  the initial image
      * @param annotations sheet annotations
      * @param leaves      true for using leaf symbols
-     * @param pixels      pixels population
-     * @param dimMap      population of symbol dims per shape
+     * @param datasets    target datasets, one per context profile
      */
     public SheetProcessor (int sheetId,
                            BufferedImage initialImg,
                            SheetAnnotations annotations,
                            boolean leaves,
-                           DistributionStats.Builder pixels,
-                           Map<OmrShape, DistributionStats.Builder> dimMap)
+                           List<ContextDataset> datasets)
+    {
+        this(sheetId, initialImg, new PageSource(initialImg), annotations, leaves, datasets);
+    }
+
+    /**
+     * Creates a new {@code SheetProcessor} object, on a context source.
+     * Control images cannot be drawn, since there is no whole sheet image.
+     *
+     * @param sheetId     sheet id (strictly positive)
+     * @param source      the source of contexts
+     * @param annotations sheet annotations
+     * @param leaves      true for using leaf symbols
+     * @param datasets    target datasets, one per context profile
+     */
+    public SheetProcessor (int sheetId,
+                           ContextSource source,
+                           SheetAnnotations annotations,
+                           boolean leaves,
+                           List<ContextDataset> datasets)
+    {
+        this(sheetId, null, source, annotations, leaves, datasets);
+    }
+
+    private SheetProcessor (int sheetId,
+                            BufferedImage initialImg,
+                            ContextSource source,
+                            SheetAnnotations annotations,
+                            boolean leaves,
+                            List<ContextDataset> datasets)
     {
         this.sheetId = sheetId;
         this.initialImg = initialImg;
+        this.source = source;
         this.annotations = annotations;
         this.leaves = leaves;
-        this.pixels = pixels;
-        this.dimMap = dimMap;
+        this.datasets = datasets;
     }
 
     //~ Methods ------------------------------------------------------------------------------------
     /**
      * Process the sheet (image / annotations) to append the extracted features
-     * (the context sub-image for each symbol) to the out stream.
+     * (the context sub-image for each symbol) to each dataset.
+     * <p>
+     * Symbols are visited in the same order for all datasets, so that a given journal row
+     * describes the same symbol in every dataset.
      * <p>
      * Nota: if a sub-image goes beyond image borders, we fill the related external pixels with
      * background value.
      *
-     * @param features output to be populated by CSV records
-     * @param journal  output to be populated by metadata
-     * @param row      1-cell array for input/output of current row in features
+     * @param journal output to be populated by metadata
+     * @param row     1-cell array for input/output of current row in features
+     * @throws IOException in case of IO problem
      */
-    public void extractFeatures (PrintWriter features,
-                                 PrintWriter journal,
+    public void extractFeatures (PrintWriter journal,
                                  int[] row)
+            throws IOException
+    {
+        extractFeatures(journal, row, null);
+    }
+
+    /**
+     * Process the sheet (image / annotations) to append the extracted features to each dataset,
+     * except for near-duplicate symbols.
+     * <p>
+     * A symbol is checked for duplicates on its context in the first dataset, and if found
+     * duplicate it is dropped from all datasets and from journal.
+     *
+     * @param journal      output to be populated by metadata
+     * @param row          1-cell array for input/output of current row in features
+     * @param deduplicator detector of duplicates, or null to keep all symbols
+     * @throws IOException in case of IO problem
+     */
+    public void extractFeatures (PrintWriter journal,
+                                 int[] row,
+                                 Deduplicator deduplicator)
+            throws IOException
+    {
+        final Events.Span span = Events.begin(Events.Kind.SYMBOLS);
+        final int firstRow = row[0];
+
+        // Process each symbol definition in the sheet, for each dataset
+        final List<List<Patch>> lists = new ArrayList<List<Patch>>(datasets.size());
+        final List<Patch> patches = new ArrayList<Patch>();
+
+        for (ContextDataset dataset : datasets) {
+            final List<Patch> list = new ArrayList<Patch>();
+            collectPatches(annotations.getSymbols(), dataset, list);
+            lists.add(list);
+            patches.addAll(list);
+        }
+
+        // Contexts of all datasets are extracted at once
+        source.extract(patches);
+
+        final int count = lists.get(0).size();
+
+        for (int i = 0; i < count; i++) {
+            if ((deduplicator != null) && deduplicator.isDuplicate(lists.get(0).get(i))) {
+                continue;
+            }
+
+            final long nanos = System.nanoTime();
+
+            for (int d = 0; d < datasets.size(); d++) {
+                datasets.get(d).write(lists.get(d).get(i));
+            }
+
+            writeJournal(lists.get(0).get(i).symbol, journal, row);
+            Metrics.record(Stage.CSV_WRITE, nanos);
+        }
+
+        if (span.isRecorded()) {
+            if (count > 0) {
+                span.interline(patches.get(0).interline);
+            }
+
+            span.sheet(annotations.getSheetInfo().imageFileName).symbols(row[0] - firstRow).end();
+        }
+    }
+
+    /**
+     * Extract the context sub-image whose top-left corner is provided, with default context
+     * dimensions.
+     *
+     * @param img     the (gray or bilevel, properly scaled) sheet image
+     * @param axMin   abscissa of context left side
+     * @param ayMin   ordinate of context top side
+     * @param context (output) the CONTEXT_HEIGHT * CONTEXT_WIDTH pixel values, row by row
+     */
+    public static void extractContext (BufferedImage img,
+                                       int axMin,
+                                       int ayMin,
+                                       int[] context)
+    {
+        extractContext(img, axMin, ayMin, CONTEXT_WIDTH, CONTEXT_HEIGHT, context);
+    }
+
+    /**
+     * Extract the context sub-image whose top-left corner is provided.
+     * <p>
+     * Pixel values are inverted (foreground is high) and any pixel beyond image borders gets the
+     * background value.
+     *
+     * @param img     the (gray or bilevel, properly scaled) sheet image
+     * @param axMin   abscissa of context left side
+     * @param ayMin   ordinate of context top side
+     * @param width   context width
+     * @param height  context height
+     * @param context (output) the height * width pixel values, row by row
+     */
+    public static void extractContext (BufferedImage img,
+                                       int axMin,
+                                       int ayMin,
+                                       int width,
+                                       int height,
+                                       int[] context)
     {
-        // Process each symbol definition in the sheet
-        processSymbols(annotations.getSymbols(), features, journal, row);
+        if (img.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            Bilevel.extractContext(img, axMin, ayMin, width, height, context);
+
+            return;
+        }
+
+        final int imgWidth = img.getWidth();
+        final int imgHeight = img.getHeight();
+        final WritableRaster raster = img.getRaster();
+        final DataBufferByte byteBuffer = (DataBufferByte) raster.getDataBuffer();
+        final byte[] bytes = byteBuffer.getData();
+        int index = 0;
+
+        for (int y = 0; y < height; y++) {
+            int ay = ayMin + y; // Absolute y
+
+            if ((ay < 0) || (ay >= imgHeight)) {
+                // Fill row with background value
+                for (int x = 0; x < width; x++) {
+                    context[index++] = BACKGROUND;
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    int ax = axMin + x; // Absolute x
+                    context[index++] = ((ax < 0) || (ax >= imgWidth)) ? BACKGROUND
+                            : (255 - (bytes[(ay * imgWidth) + ax] & 0xff));
+                }
+            }
+        }
     }
 
     /**
      * Build a scaled version of an image.
+     * <p>
+     * A bilevel image is first expanded to gray, since scaling creates intermediate values.
      *
      * @param img   image to scale
      * @param ratio scaling ratio
-     * @return the scaled image
+     * @return the scaled (gray) image
      */
     public static BufferedImage scale (BufferedImage img,
                                        double ratio)
     {
+        if (img.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            img = Bilevel.toGray(img);
+        }
+
         AffineTransform at = AffineTransform.getScaleInstance(ratio, ratio);
         AffineTransformOp atop = new AffineTransformOp(at, AffineTransformOp.TYPE_BILINEAR);
         BufferedImage scaledImg = new BufferedImage(
@@ -170,6 +331,10 @@ public class SheetProcessor
     public void drawBoxes (Path controlPath)
             throws IOException
     {
+        if (initialImg == null) {
+            throw new IllegalStateException("No sheet image for control image");
+        }
+
         BufferedImage ctrl = new BufferedImage(
                 initialImg.getWidth(),
                 initialImg.getHeight(),
@@ -184,6 +349,118 @@ public class SheetProcessor
         ImageIO.write(ctrl, OUTPUT_IMAGES_FORMAT, controlPath.toFile());
     }
 
+    /**
+     * Write symbols boxes and None symbols locations as an SVG overlay on top of sheet image.
+     * <p>
+     * The sheet image is not copied, only referred to by its path relative to overlay location.
+     *
+     * @param overlayPath target path for SVG overlay
+     * @param imgPath     path to sheet image
+     * @throws java.io.IOException in case of IO problem
+     */
+    public void drawOverlay (Path overlayPath,
+                             Path imgPath)
+            throws IOException
+    {
+        final Path folder = overlayPath.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final String rel = folder.relativize(imgPath.toAbsolutePath()).toString()
+                .replace('\\', '/');
+        final String href;
+
+        try {
+            href = new URI(null, null, rel, null).toASCIIString();
+        } catch (Exception ex) {
+            throw new IOException("Cannot refer to " + imgPath, ex);
+        }
+
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(overlayPath, StandardCharsets.UTF_8))) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println(
+                    "<svg xmlns=\"http://www.w3.org/2000/svg\""
+                    + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+                    + " width=\"" + width + "\" height=\"" + height + "\""
+                    + " viewBox=\"0 0 " + width + " " + height + "\">");
+            out.println(
+                    "<image xlink:href=\"" + href.replace("&", "&amp;").replace("\"", "&quot;")
+                    + "\" x=\"0\" y=\"0\" width=\"" + width + "\" height=\"" + height + "\"/>");
+            out.println("<g fill=\"none\" stroke-width=\"1\" shape-rendering=\"crispEdges\">");
+            writeSymbols(annotations.getSymbols(), out);
+            out.println("</g>");
+            out.println("</svg>");
+        }
+    }
+
+    /**
+     * Collect the patches related to the collection of provided symbols.
+     * <p>
+     * Symbol dimensions are not cumulated here, but by {@link ContextDataset#write(Patch)} when
+     * each patch record is actually written, so that patches later dropped are not counted.
+     *
+     * @param symbols the symbols to process
+     * @param dataset the target dataset
+     * @param patches (output) the patches to extract
+     */
+    private void collectPatches (List<SymbolInfo> symbols,
+                                 ContextDataset dataset,
+                                 List<Patch> patches)
+    {
+        final ContextProfile profile = dataset.profile;
+
+        for (SymbolInfo symbol : symbols) {
+            final OmrShape symbolShape = symbol.getOmrShape();
+
+            if (IgnoredShapes.isIgnored(symbolShape)) {
+                continue;
+            }
+
+            logger.debug("{}", symbol);
+
+            // Inner symbols?
+            if (leaves) {
+                List<SymbolInfo> innerSymbols = symbol.getInnerSymbols();
+
+                if (!innerSymbols.isEmpty()) {
+                    logger.debug("+++ Processing inner symbols of {}", symbol);
+                    collectPatches(innerSymbols, dataset, patches);
+                    logger.debug("--- End of inner symbols of {}", symbol);
+
+                    if (!OmrShapes.TIME_COMBOS.contains(symbolShape)) {
+                        continue;
+                    }
+                }
+            }
+
+            if (symbolShape == null) {
+                logger.info("Skipping null shape {}", symbol);
+
+                continue;
+            }
+
+            Rectangle2D box = symbol.getBounds();
+
+            // Scaling to profile interline
+            final double interline = symbol.getInterline();
+            final int roundedInterline = (int) Math.rint(interline);
+            final double ratio = profile.interline / interline;
+
+            // Symbol center
+            double sCenterX = ratio * (box.getX() + (box.getWidth() / 2.0));
+            double sCenterY = ratio * (box.getY() + (box.getHeight() / 2.0));
+
+            // Top-left corner of context
+            final int axMin = (int) Math.rint(sCenterX - (profile.width / 2));
+            final int ayMin = (int) Math.rint(sCenterY - (profile.height / 2));
+            logger.trace("left:{} top:{}", axMin, ayMin);
+
+            patches.add(new Patch(symbol, profile, roundedInterline, ratio, axMin, ayMin));
+        }
+    }
+
     /**
      * Draw the boxes for the provided symbols (and recursively their inner symbols)
      *
@@ -235,155 +512,106 @@ public class SheetProcessor
     }
 
     /**
-     * Generate the annotations related to the collection of provided symbols.
+     * Report the SVG notation for the provided color.
      *
-     * @param symbols  the symbols to process
-     * @param features features file
-     * @param journal  journal file
-     * @param row      in/out for current row in features
+     * @param color provided color
+     * @return color notation, such as "#00FF00"
      */
-    private void processSymbols (List<SymbolInfo> symbols,
-                                 PrintWriter features,
-                                 PrintWriter journal,
-                                 int[] row)
+    private static String toSvg (Color color)
     {
-        for (SymbolInfo symbol : symbols) {
-            final OmrShape symbolShape = symbol.getOmrShape();
-
-            if (IgnoredShapes.isIgnored(symbolShape)) {
-                continue;
-            }
+        return String.format("#%06X", color.getRGB() & 0xFFFFFF);
+    }
 
-            logger.debug("{}", symbol);
+    /**
+     * Write the journal line of an extracted symbol.
+     *
+     * @param symbol  the extracted symbol
+     * @param journal journal file
+     * @param row     in/out for current row in features
+     */
+    private void writeJournal (SymbolInfo symbol,
+                               PrintWriter journal,
+                               int[] row)
+    {
+        // Add one line to the journal
+        row[0]++;
+        journal.print(row[0]);
+        journal.print(",");
+        journal.print(sheetId);
+        journal.print(",");
+        journal.print(symbol.getId());
+        journal.print(",");
+        journal.print(decimal.format(symbol.getInterline()));
+        journal.print(",");
+
+        Rectangle2D bounds = symbol.getBounds();
+        journal.print(decimal.format(bounds.getX()));
+        journal.print(",");
+        journal.print(decimal.format(bounds.getY()));
+        journal.print(",");
+        journal.print(decimal.format(bounds.getWidth()));
+        journal.print(",");
+        journal.print(decimal.format(bounds.getHeight()));
+        journal.print(",");
+        journal.print(symbol.getOmrShape().ordinal());
+        journal.println();
+    }
 
+    /**
+     * Write the SVG elements for the provided symbols (and recursively their inner symbols).
+     * Pixel lines are drawn exactly as in {@link #drawSymbols}, hence the 0.5 offsets.
+     *
+     * @param symbols the collection of symbols to process
+     * @param out     the SVG output
+     */
+    private void writeSymbols (List<SymbolInfo> symbols,
+                               PrintWriter out)
+    {
+        for (SymbolInfo symbol : symbols) {
             // Inner symbols?
-            if (leaves) {
-                List<SymbolInfo> innerSymbols = symbol.getInnerSymbols();
-
-                if (!innerSymbols.isEmpty()) {
-                    logger.debug("+++ Processing inner symbols of {}", symbol);
-                    processSymbols(innerSymbols, features, journal, row);
-                    logger.debug("--- End of inner symbols of {}", symbol);
-
-                    if (!OmrShapes.TIME_COMBOS.contains(symbolShape)) {
-                        continue;
-                    }
-                }
-            }
-
-            if (symbolShape == null) {
-                logger.info("Skipping null shape {}", symbol);
+            List<SymbolInfo> innerSymbols = symbol.getInnerSymbols();
 
-                continue;
+            if (!innerSymbols.isEmpty()) {
+                writeSymbols(innerSymbols, out);
             }
 
             Rectangle2D box = symbol.getBounds();
 
-            // Pick up image properly scaled
-            final double interline = symbol.getInterline();
-            final int roundedInterline = (int) Math.rint(interline);
-            final boolean rescale = roundedInterline != INTERLINE;
-            final double ratio = INTERLINE / interline;
-            BufferedImage img = imgMap.get(roundedInterline);
-
-            if (img == null) {
-                imgMap.put(roundedInterline, img = rescale ? scale(initialImg, ratio) : initialImg);
-            }
-
-            final int imgWidth = img.getWidth();
-            final int imgHeight = img.getHeight();
-
-            // Cumulate symbol width/height in mean/std builder for proper shape
-            DistributionStats.Builder whBuilder = dimMap.get(symbolShape);
-
-            if (whBuilder == null) {
-                dimMap.put(symbolShape, whBuilder = new DistributionStats.Builder());
-            }
-
-            INDArray wh = Nd4j.zeros(2);
-            wh.putScalar(0, box.getWidth() * ratio);
-            wh.putScalar(1, box.getHeight() * ratio);
-            whBuilder.add(wh, null);
-
-            // Symbol center
-            double sCenterX = ratio * (box.getX() + (box.getWidth() / 2.0));
-            double sCenterY = ratio * (box.getY() + (box.getHeight() / 2.0));
-
-            // Top-left corner of context
-            final int axMin = (int) Math.rint(sCenterX - (CONTEXT_WIDTH / 2));
-            final int ayMin = (int) Math.rint(sCenterY - (CONTEXT_HEIGHT / 2));
-            logger.trace("left:{} top:{}", axMin, ayMin);
-
-            WritableRaster raster = img.getRaster();
-            DataBuffer buffer = raster.getDataBuffer();
-            DataBufferByte byteBuffer = (DataBufferByte) buffer;
-            byte[] bytes = byteBuffer.getData();
-
-            // Extract bytes from sub-image, paying attention to image limits
-            // Target format is flattened format, row by row.
-            // We also collect pixel values to populate mean/std pixels builder
-            final int length = CONTEXT_HEIGHT * CONTEXT_WIDTH;
-            double[] pixDoubles = new double[length];
-            int index = 0;
-
-            for (int y = 0; y < CONTEXT_HEIGHT; y++) {
-                int ay = ayMin + y; // Absolute y
-
-                if ((ay < 0) || (ay >= imgHeight)) {
-                    // Fill row with background value
-                    for (int x = 0; x < CONTEXT_WIDTH; x++) {
-                        features.print(BACKGROUND);
-                        features.print(",");
-                        pixDoubles[index++] = BACKGROUND;
-                    }
-                } else {
-                    for (int x = 0; x < CONTEXT_WIDTH; x++) {
-                        int ax = axMin + x; // Absolute x
-                        int val = ((ax < 0) || (ax >= imgWidth)) ? BACKGROUND
-                                : (255 - (bytes[(ay * imgWidth) + ax] & 0xff));
-                        features.print(val);
-                        features.print(",");
-                        pixDoubles[index++] = val;
-                    }
-                }
-            }
-
-            // Cumulate pixels for mean/std
-            INDArray pixVector = Nd4j.create(pixDoubles, new int[]{length, 1});
-            pixels.add(pixVector, null);
-
-            // Add (OMR) shape index
-            try {
-                features.print(symbolShape.ordinal());
-            } catch (Exception ex) {
-                logger.error("Missing shape {}", symbol);
-                throw new RuntimeException("Missing shape for " + symbol);
+            if (symbol.getOmrShape() != OmrShape.none) {
+                Color color = IgnoredShapes.isIgnored(symbol.getOmrShape()) ? Color.GRAY
+                        : Color.GREEN;
+                out.print("<rect x=\"");
+                out.print(decimal.format(box.getX() - 0.5));
+                out.print("\" y=\"");
+                out.print(decimal.format(box.getY() - 0.5));
+                out.print("\" width=\"");
+                out.print(decimal.format(box.getWidth() + 1));
+                out.print("\" height=\"");
+                out.print(decimal.format(box.getHeight() + 1));
+                out.print("\" stroke=\"");
+                out.print(toSvg(color));
+                out.println("\"/>");
+            } else {
+                double ratio = (double) INTERLINE / symbol.getInterline();
+                int xMargin = (int) Math.rint(NONE_X_MARGIN / ratio);
+                int yMargin = (int) Math.rint(NONE_Y_MARGIN / ratio);
+                Rectangle b = box.getBounds();
+                out.print("<path d=\"M");
+                out.print(decimal.format(b.x + 0.5));
+                out.print(" ");
+                out.print(b.y - yMargin);
+                out.print("V");
+                out.print(b.y + yMargin + 1);
+                out.print("M");
+                out.print(b.x - xMargin);
+                out.print(" ");
+                out.print(decimal.format(b.y + 0.5));
+                out.print("H");
+                out.print(b.x + xMargin + 1);
+                out.print("\" stroke=\"");
+                out.print(toSvg(Color.RED));
+                out.println("\"/>");
             }
-
-            features.println();
-
-            // Add one line to the journal
-            row[0]++;
-            journal.print(row[0]);
-            journal.print(",");
-            journal.print(sheetId);
-            journal.print(",");
-            journal.print(symbol.getId());
-            journal.print(",");
-            journal.print(decimal.format(symbol.getInterline()));
-            journal.print(",");
-
-            Rectangle2D bounds = symbol.getBounds();
-            journal.print(decimal.format(bounds.getX()));
-            journal.print(",");
-            journal.print(decimal.format(bounds.getY()));
-            journal.print(",");
-            journal.print(decimal.format(bounds.getWidth()));
-            journal.print(",");
-            journal.print(decimal.format(bounds.getHeight()));
-            journal.print(",");
-            journal.print(symbol.getOmrShape().ordinal());
-            journal.println();
         }
     }
 }
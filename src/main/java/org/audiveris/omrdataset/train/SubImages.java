@@ -21,38 +21,43 @@
 // </editor-fold>
 package org.audiveris.omrdataset.train;
 
+import org.audiveris.omrdataset.Main;
 import org.audiveris.omrdataset.api.OmrShape;
 import static org.audiveris.omrdataset.classifier.Context.*;
 import static org.audiveris.omrdataset.train.App.*;
 import static org.audiveris.omrdataset.train.AppPaths.*;
 
-import org.datavec.api.records.reader.RecordReader;
-import org.datavec.api.records.reader.impl.csv.CSVRecordReader;
-import org.datavec.api.split.FileSplit;
-
-import org.deeplearning4j.datasets.datavec.RecordReaderDataSetIterator;
-
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.DataSet;
-import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferByte;
-import java.awt.image.WritableRaster;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class {@code SubImages} takes the .CSV file as input and regenerates sub-images for
  * visual checking.
+ * <p>
+ * Features rows are read sequentially, but rendering and writing of sub-images is performed by a
+ * pool of threads.
+ * <p>
+ * By default, one image file is written per sample.
+ * Image format (PNG or PGM) and PNG compression level are defined by -format and -compression
+ * options.
+ * In mosaic mode (see -mosaic option), samples of the same shape are tiled K at a time into one
+ * larger image, and the {@code mosaics.csv} index maps each tile back to its journal row.
  *
  * @author Hervé Bitteur
  */
@@ -62,55 +67,29 @@ public class SubImages
 
     private static final Logger logger = LoggerFactory.getLogger(SubImages.class);
 
-    private static final int numClasses = OmrShape.values().length;
+    private static final OmrShape[] shapeValues = OmrShape.values();
 
-    /** Color for overlapping cross. */
-    private static final Color CROSS_COLOR = new Color(255, 0, 0, 150);
+    /** Number of features rows handled by one task. */
+    private static final int ROWS_PER_TASK = 100;
 
-    //~ Methods ------------------------------------------------------------------------------------
-    /**
-     * Build the sub-image that corresponds to the provided row of features.
-     *
-     * @param row the flat row of pixel values
-     * @return the bufferedImage
-     */
-    public static BufferedImage buildSubImage (INDArray row)
-    {
-        // Build a gray image with vector values
-        BufferedImage grayImg = new BufferedImage(
-                CONTEXT_WIDTH,
-                CONTEXT_HEIGHT,
-                BufferedImage.TYPE_BYTE_GRAY);
-        WritableRaster raster = grayImg.getRaster();
-        DataBuffer buffer = raster.getDataBuffer();
-        DataBufferByte byteBuffer = (DataBufferByte) buffer;
-
-        for (int r = 0; r < CONTEXT_HEIGHT; r++) {
-            int offset = r * CONTEXT_WIDTH;
-
-            for (int c = 0; c < CONTEXT_WIDTH; c++) {
-                int i = offset + c;
-                int val = (int) Math.rint(row.getDouble(i));
-                val = 255 - val; // Inversion
-                byteBuffer.setElem(i, val);
-            }
-        }
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Renderer and writer of sub-images. */
+    private final PatchWriter writer = new PatchWriter(Main.cli.format, Main.cli.compression);
 
-        // Draw colored reference lines on top of image
-        BufferedImage colorImg = new BufferedImage(
-                CONTEXT_WIDTH,
-                CONTEXT_HEIGHT,
-                BufferedImage.TYPE_4BYTE_ABGR);
-        Graphics2D g = colorImg.createGraphics();
-        g.drawImage(grayImg, null, null);
-        g.setColor(CROSS_COLOR);
-        g.drawLine(CONTEXT_WIDTH / 2, 0, CONTEXT_WIDTH / 2, CONTEXT_HEIGHT);
-        g.drawLine(0, CONTEXT_HEIGHT / 2, CONTEXT_WIDTH, CONTEXT_HEIGHT / 2);
-        g.dispose();
-
-        return colorImg;
-    }
+    /** Number of samples per mosaic, or 0 for one image per sample. */
+    private final int mosaicSize = Math.max(0, Main.cli.mosaic);
+
+    /** Mosaic being filled, per shape. */
+    private final Map<OmrShape, Mosaic> openMosaics = new EnumMap<OmrShape, Mosaic>(
+            OmrShape.class);
+
+    /** Count of mosaics created, per shape. */
+    private final Map<OmrShape, Integer> mosaicCounts = new EnumMap<OmrShape, Integer>(
+            OmrShape.class);
 
+    private PrintWriter mosaicIndex; // For mosaics.csv
+
+    //~ Methods ------------------------------------------------------------------------------------
     /**
      * Direct entry point.
      *
@@ -124,92 +103,363 @@ public class SubImages
     }
 
     /**
-     * Process the features data to generate one sub-image per features row.
+     * Parse one features line.
+     *
+     * @param line   the CSV line: pixel values followed by shape index
+     * @param pixels (output) the pixel values
+     * @return the shape
+     */
+    public static OmrShape parseLine (String line,
+                                      byte[] pixels)
+    {
+        final int length = line.length();
+        int index = 0;
+        int val = 0;
+
+        for (int i = 0; i < length; i++) {
+            final char c = line.charAt(i);
+
+            if (c == ',') {
+                pixels[index++] = (byte) val;
+                val = 0;
+            } else {
+                val = (10 * val) + (c - '0');
+            }
+        }
+
+        return shapeValues[val]; // Last field is shape index
+    }
+
+    /**
+     * Process the features data to generate one sub-image per features row, or one
+     * mosaic image per group of rows of the same shape.
      *
      * @throws Exception in case of IO problem or interruption
      */
     public void process ()
             throws Exception
     {
-        int index = 0;
+        Files.createDirectories(SUB_IMAGES_PATH);
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+        logger.info("SubImages threads:{} mosaic:{}", threads, mosaicSize);
+
+        // Bounded queue, so that reading does not get too far ahead of writing
+        final ExecutorService pool = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(2 * threads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        if (mosaicSize > 0) {
+            mosaicIndex = new PrintWriter(
+                    Files.newBufferedWriter(
+                            SUB_IMAGES_PATH.resolve(MOSAICS_NAME),
+                            StandardCharsets.UTF_8));
+            mosaicIndex.println("# mosaic, tile, x, y, row");
+        }
+
+        int index = 0; // Row index, same as journal row
+
+        try (BufferedReader br = Files.newBufferedReader(FEATURES_PATH, StandardCharsets.UTF_8)) {
+            br.readLine(); // Skip header line
+
+            List<String> lines = new ArrayList<String>(ROWS_PER_TASK);
+            String line;
+
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+
+                if (lines.size() == ROWS_PER_TASK) {
+                    pool.execute(new RowsTask(index, lines));
+                    index += lines.size();
+                    lines = new ArrayList<String>(ROWS_PER_TASK);
+                }
+            }
+
+            if (!lines.isEmpty()) {
+                pool.execute(new RowsTask(index, lines));
+                index += lines.size();
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.DAYS);
+        }
 
-        //First: get the dataset using the record reader. CSVRecordReader handles loading/parsing
-        int numLinesToSkip = 1;
-        String delimiter = ",";
-        RecordReader recordReader = new CSVRecordReader(numLinesToSkip, delimiter);
-        recordReader.initialize(new FileSplit(FEATURES_PATH.toFile()));
-
-        //Second: the RecordReaderDataSetIterator handles conversion to DataSet objects, ready for use in neural network
-        int labelIndex = CONTEXT_WIDTH * CONTEXT_HEIGHT;
-        int batchSize = 500;
-        logger.info(
-                "labelIndex:{}, numClasses:{}, batchSize:{}",
-                labelIndex,
-                numClasses,
-                batchSize);
-
-        DataSetIterator iterator = new RecordReaderDataSetIterator(
-                recordReader,
-                batchSize,
-                labelIndex,
-                numClasses,
-                -1);
-
-        while (iterator.hasNext()) {
-            DataSet dataSet = iterator.next();
-
-            final INDArray features = dataSet.getFeatures();
-            logger.debug("features rows:{} cols:{}", features.rows(), features.columns());
-
-            final INDArray labels = dataSet.getLabels();
-            logger.debug("labels rows:{} cols:{}", labels.rows(), labels.columns());
-
-            final int rows = features.rows();
-            logger.info("Processing {} rows", rows);
-
-            for (int r = 0; r < rows; r++) {
-                INDArray row = features.getRow(r);
-                saveSubImage(buildSubImage(row), ++index, getShape(labels.getRow(r)));
+        if (mosaicSize > 0) {
+            // Flush the partially filled mosaics
+            for (Mosaic mosaic : openMosaics.values()) {
+                mosaic.write();
             }
+
+            mosaicIndex.close();
         }
+
+        logger.info("Processed {} rows", index);
     }
 
     /**
-     * Report the shape name indicated in the labels vector.
+     * Assign the next tile of the current mosaic for the provided shape.
+     * This is called by the reading thread only, in row order.
      *
-     * @param labels the labels vector (1.0 for a shape, 0.0 for the others)
-     * @return the shape name
+     * @param shape the sample shape
+     * @param row   the sample row
+     * @return the mosaic tile
      */
-    private OmrShape getShape (INDArray labels)
+    private Tile assignTile (OmrShape shape,
+                             int row)
     {
-        for (int c = 0; c < numClasses; c++) {
-            double val = labels.getDouble(c);
+        Mosaic mosaic = openMosaics.get(shape);
 
-            if (val != 0) {
-                return OmrShape.values()[c];
-            }
+        if (mosaic == null) {
+            Integer count = mosaicCounts.get(shape);
+            count = (count == null) ? 1 : (count + 1);
+            mosaicCounts.put(shape, count);
+            openMosaics.put(shape, mosaic = new Mosaic(shape, count));
+        }
+
+        Tile tile = new Tile(mosaic, mosaic.assigned++);
+
+        if (mosaic.assigned == mosaicSize) {
+            openMosaics.remove(shape); // This mosaic is now fully assigned
         }
 
-        return null;
+        mosaicIndex.print(mosaic.getName());
+        mosaicIndex.print(",");
+        mosaicIndex.print(tile.index);
+        mosaicIndex.print(",");
+        mosaicIndex.print(tile.x);
+        mosaicIndex.print(",");
+        mosaicIndex.print(tile.y);
+        mosaicIndex.print(",");
+        mosaicIndex.print(row);
+        mosaicIndex.println();
+
+        return tile;
     }
 
     /**
      * Save the sub-image to disk
      *
-     * @param img   the sub-image
+     * @param patch the sub-image pixels
      * @param index sample sequential index
      * @param shape the OMR shape
      * @throws IOException in case of IO problem
      */
-    private void saveSubImage (BufferedImage img,
+    private void saveSubImage (byte[] patch,
                                int index,
                                OmrShape shape)
             throws IOException
     {
-        Files.createDirectories(SUB_IMAGES_PATH);
-        ImageIO.write(
-                img,
-                OUTPUT_IMAGES_FORMAT,
-                SUB_IMAGES_PATH.resolve(shape + "-" + index + OUTPUT_IMAGES_EXT).toFile());
+        writer.write(patch, SUB_IMAGES_PATH.resolve(shape + "-" + index + writer.getExtension()));
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //--------//
+    // Mosaic //
+    //--------//
+    /**
+     * One large image, meant to gather up to mosaicSize samples of the same shape.
+     */
+    private class Mosaic
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        final OmrShape shape;
+
+        final int number;
+
+        /** Number of tiles per mosaic row, for a roughly square mosaic. */
+        final int columns;
+
+        /** Number of tiles assigned so far (by reading thread). */
+        int assigned;
+
+        /** Number of tiles rendered so far (by worker threads). */
+        final AtomicInteger rendered = new AtomicInteger();
+
+        /** Mosaic pixels. */
+        final byte[] pixels;
+
+        final int width;
+
+        final int height;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Mosaic (OmrShape shape,
+                       int number)
+        {
+            this.shape = shape;
+            this.number = number;
+
+            columns = (int) Math.ceil(
+                    Math.sqrt((mosaicSize * (double) CONTEXT_HEIGHT) / CONTEXT_WIDTH));
+
+            final int rows = (mosaicSize + columns - 1) / columns;
+            width = columns * CONTEXT_WIDTH;
+            height = rows * CONTEXT_HEIGHT;
+            pixels = new byte[width * height * writer.getChannels()];
+            Arrays.fill(pixels, (byte) 255); // White background for empty tiles
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        public String getName ()
+        {
+            return shape + "-" + number + writer.getExtension();
+        }
+
+        /**
+         * Notify that one more tile has been rendered.
+         *
+         * @throws IOException in case of IO problem
+         */
+        public void tileRendered ()
+                throws IOException
+        {
+            if (rendered.incrementAndGet() == mosaicSize) {
+                write();
+            }
+        }
+
+        public void write ()
+                throws IOException
+        {
+            writer.write(pixels, width, height, SUB_IMAGES_PATH.resolve(getName()));
+        }
+    }
+
+    //----------//
+    // RowsTask //
+    //----------//
+    /**
+     * Rendering and writing of a sequence of features rows.
+     */
+    private class RowsTask
+            implements Runnable
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Index of row before the first line. */
+        final int firstIndex;
+
+        final List<String> lines;
+
+        final Tile[] tiles;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        /**
+         * Create a task on a sequence of lines.
+         * Mosaic tiles are assigned immediately, to keep mosaic content in row order.
+         * Lines are parsed later by the task, a line with no valid shape just gets no tile.
+         *
+         * @param firstIndex row index before first line
+         * @param lines      the features lines
+         */
+        public RowsTask (int firstIndex,
+                         List<String> lines)
+        {
+            this.firstIndex = firstIndex;
+            this.lines = lines;
+            tiles = new Tile[lines.size()];
+
+            if (mosaicSize > 0) {
+                for (int i = 0; i < tiles.length; i++) {
+                    final OmrShape shape = shapeOf(lines.get(i));
+
+                    if (shape != null) {
+                        tiles[i] = assignTile(shape, firstIndex + i + 1);
+                    }
+                }
+            }
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public void run ()
+        {
+            final byte[] patch = new byte[CONTEXT_WIDTH * CONTEXT_HEIGHT];
+
+            for (int i = 0; i < lines.size(); i++) {
+                final int index = firstIndex + i + 1;
+
+                if (mosaicSize > 0) {
+                    final Tile tile = tiles[i];
+
+                    if (tile == null) {
+                        logger.warn("Error on row {} no valid shape index", index);
+
+                        continue;
+                    }
+
+                    final Mosaic mosaic = tile.mosaic;
+
+                    try {
+                        parseLine(lines.get(i), patch);
+                        writer.render(patch, mosaic.pixels, mosaic.width, tile.x, tile.y);
+                    } catch (Exception ex) {
+                        logger.warn("Error on row {} {}", index, ex.toString(), ex);
+                    } finally {
+                        // Count the tile even if it failed, so that the mosaic still gets written
+                        try {
+                            mosaic.tileRendered();
+                        } catch (IOException ex) {
+                            logger.warn("Error writing mosaic {}", mosaic.getName(), ex);
+                        }
+                    }
+                } else {
+                    try {
+                        saveSubImage(patch, index, parseLine(lines.get(i), patch));
+                    } catch (Exception ex) {
+                        logger.warn("Error on row {} {}", index, ex.toString(), ex);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Report the shape of a features line, without parsing the pixels.
+         *
+         * @param line the features line
+         * @return the shape, or null if last field is not a valid shape index
+         */
+        private OmrShape shapeOf (String line)
+        {
+            try {
+                return shapeValues[Integer.parseInt(line.substring(line.lastIndexOf(',') + 1))];
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                return null;
+            }
+        }
+    }
+
+    //------//
+    // Tile //
+    //------//
+    /**
+     * A tile location within a mosaic.
+     */
+    private static class Tile
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        final Mosaic mosaic;
+
+        final int index;
+
+        final int x;
+
+        final int y;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Tile (Mosaic mosaic,
+                     int index)
+        {
+            this.mosaic = mosaic;
+            this.index = index;
+            x = (index % mosaic.columns) * CONTEXT_WIDTH;
+            y = (index / mosaic.columns) * CONTEXT_HEIGHT;
+        }
     }
 }
@@ -0,0 +1,635 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                      S y n t h e s i z e r                                     //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.Main;
+import org.audiveris.omrdataset.api.SheetAnnotations;
+import org.audiveris.omrdataset.api.SheetAnnotations.SheetInfo;
+import org.audiveris.omrdataset.api.SymbolInfo;
+import static org.audiveris.omrdataset.train.App.*;
+import static org.audiveris.omrdataset.train.AppPaths.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Dimension;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Class {@code Synthesizer} derives a synthetic corpus of any size out of the input
+ * (image + annotations) sheets, for load testing of extraction and training.
+ * <p>
+ * Each input sheet is cut into horizontal blocks (typically one staff or one system each),
+ * separated by blank rows, so that no annotated symbol is ever cut.
+ * A synthetic page stacks blocks randomly picked among all input sheets, with random horizontal
+ * jitter and random vertical gaps, at a random interline value.
+ * Page size varies accordingly. Annotations follow, translated and scaled.
+ * <p>
+ * Generation is deterministic: page #i depends only on the seed and on i, whatever the number
+ * of threads and the number of pages requested.
+ *
+ * @author Hervé Bitteur
+ */
+public class Synthesizer
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Synthesizer.class);
+
+    /** Gray level below which a pixel is considered as ink. */
+    private static final int INK_THRESHOLD = 128;
+
+    /** Minimum height of blank gap between blocks, in interlines. */
+    private static final double MIN_GAP = 1.0;
+
+    /** Horizontal margin kept around block ink, in interlines. */
+    private static final double BLOCK_MARGIN = 1.0;
+
+    /** Number of failed attempts to fit a block before page is considered as full. */
+    private static final int MAX_MISFITS = 5;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Number of pages to generate. */
+    private final int count;
+
+    /** Generation seed. */
+    private final long seed;
+
+    /** Blocks available in input sheets. */
+    private final List<Block> blocks = new ArrayList<Block>();
+
+    /** Largest input sheet width, in interlines. */
+    private double maxWidth;
+
+    /** Largest input sheet height, in interlines. */
+    private double maxHeight;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code Synthesizer} object.
+     *
+     * @param count number of pages to generate
+     * @param seed  generation seed
+     */
+    public Synthesizer (int count,
+                        long seed)
+    {
+        this.count = count;
+        this.seed = seed;
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Generate the synthetic pages from the input sheets.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void process ()
+            throws Exception
+    {
+        // Collect input sheets, sorted to make blocks independent of file system order
+        final List<Path> sheets = new ArrayList<Path>();
+
+        for (Path path : Main.cli.arguments) {
+            if (!Files.exists(path)) {
+                logger.warn("Could not find {}", path);
+            } else {
+                Files.walkFileTree(
+                        path,
+                        new SimpleFileVisitor<Path>()
+                {
+                    @Override
+                    public FileVisitResult visitFile (Path file,
+                                                      BasicFileAttributes attrs)
+                    {
+                        if (file.getFileName().toString().endsWith(INFO_EXT)) {
+                            sheets.add(file);
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        }
+
+        Collections.sort(sheets);
+
+        // Collect blocks from input sheets
+        for (Path sheet : sheets) {
+            loadSheet(sheet);
+        }
+
+        if (blocks.isEmpty()) {
+            logger.warn("No input block available, no page synthesized");
+
+            return;
+        }
+
+        logger.info("Synthesizing {} pages from {} blocks, seed {}", count, blocks.size(), seed);
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ExecutorService pool = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(2 * threads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        final AtomicInteger done = new AtomicInteger();
+
+        try {
+            for (int i = 1; i <= count; i++) {
+                final int index = i;
+                pool.execute(new Runnable()
+                {
+                    @Override
+                    public void run ()
+                    {
+                        try {
+                            writePage(index);
+
+                            final int n = done.incrementAndGet();
+
+                            if ((n % 1000) == 0) {
+                                logger.info("Synthesized {} pages", n);
+                            }
+                        } catch (Exception ex) {
+                            logger.warn("Error synthesizing page {} {}", index, ex.toString(), ex);
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.DAYS);
+        }
+
+        logger.info("Synthesized {} pages in {}", done.get(), SYNTHETIC_PATH.toAbsolutePath());
+    }
+
+    /**
+     * Build the page of provided index.
+     *
+     * @param index page index
+     * @return the page
+     */
+    private Page buildPage (int index)
+    {
+        final Random random = new Random(mix(seed, index));
+        final int interline = SYNTHETIC_MIN_INTERLINE
+                              + random.nextInt(
+                        (SYNTHETIC_MAX_INTERLINE - SYNTHETIC_MIN_INTERLINE) + 1);
+        final int width = (int) Math.ceil(
+                maxWidth * interline * (1 + (0.3 * random.nextDouble())));
+        final int height = (int) Math.ceil(
+                maxHeight * interline * (0.8 + (0.6 * random.nextDouble())));
+        final Page page = new Page(width, height, interline);
+        int y = (int) Math.rint(interline * (2 + (4 * random.nextDouble()))); // Top margin
+        int misfits = 0;
+
+        while (misfits < MAX_MISFITS) {
+            final Block block = blocks.get(random.nextInt(blocks.size()));
+            final double ratio = (double) interline / block.interline;
+            final int w = (int) Math.ceil(block.width * ratio);
+            final int h = (int) Math.ceil(block.height * ratio);
+
+            if ((w > width) || ((y + h + (2 * interline)) > height)) {
+                misfits++;
+
+                continue;
+            }
+
+            final int x = random.nextInt((width - w) + 1); // Horizontal jitter
+            page.paste(block, ratio, x, y);
+            y += (h + (int) Math.rint(interline * (MIN_GAP + (3 * random.nextDouble()))));
+        }
+
+        return page;
+    }
+
+    /**
+     * Cut the provided sheet into blocks.
+     *
+     * @param annotations sheet annotations
+     * @param img         sheet image
+     * @param interline   sheet interline
+     * @return the number of blocks added
+     */
+    int cutBlocks (SheetAnnotations annotations,
+                   BufferedImage img,
+                   int interline)
+    {
+        final int before = blocks.size();
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final Raster raster = img.getRaster();
+        final int[] row = new int[width];
+        final int[] inks = new int[height]; // Number of ink pixels per row
+        final boolean[] occupied = new boolean[height]; // Rows crossed by a symbol
+
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+
+            for (int x = 0; x < width; x++) {
+                if (row[x] < INK_THRESHOLD) {
+                    inks[y]++;
+                }
+            }
+        }
+
+        for (SymbolInfo symbol : annotations.getSymbols()) {
+            final Rectangle2D b = symbol.getBounds();
+            final int y0 = Math.max(0, (int) Math.floor(b.getMinY()));
+            final int y1 = Math.min(height - 1, (int) Math.ceil(b.getMaxY()));
+            Arrays.fill(occupied, y0, y1 + 1, true);
+        }
+
+        // Blocks are separated by gaps of blank rows
+        final int minGap = (int) Math.ceil(MIN_GAP * interline);
+        int start = -1; // First row of current block
+        int blanks = 0; // Current number of consecutive blank rows
+
+        for (int y = 0; y <= height; y++) {
+            final boolean blank = (y == height) || ((inks[y] == 0) && !occupied[y]);
+
+            if (blank) {
+                blanks++;
+
+                if ((start != -1) && ((blanks >= minGap) || (y == height))) {
+                    // Keep one blank row below block, if any within image
+                    final int stop = Math.min(height - 1, (y - blanks) + 1);
+                    addBlock(annotations, img, interline, start, stop);
+                    start = -1;
+                }
+            } else {
+                if (start == -1) {
+                    start = y;
+                }
+
+                blanks = 0;
+            }
+        }
+
+        return blocks.size() - before;
+    }
+
+    /**
+     * Add a block, if it contains some symbol.
+     *
+     * @param annotations sheet annotations
+     * @param img         sheet image
+     * @param interline   sheet interline
+     * @param y0          first block row
+     * @param y1          last block row
+     */
+    private void addBlock (SheetAnnotations annotations,
+                           BufferedImage img,
+                           int interline,
+                           int y0,
+                           int y1)
+    {
+        final List<SymbolInfo> symbols = new ArrayList<SymbolInfo>();
+
+        for (SymbolInfo symbol : annotations.getSymbols()) {
+            final Rectangle2D b = symbol.getBounds();
+
+            if ((b.getMinY() >= y0) && (b.getMaxY() <= (y1 + 1))) {
+                symbols.add(symbol);
+            }
+        }
+
+        if (symbols.isEmpty()) {
+            return;
+        }
+
+        // Horizontal extent of ink
+        final int width = img.getWidth();
+        final Raster raster = img.getRaster();
+        final int[] row = new int[width];
+        int xMin = width;
+        int xMax = -1;
+
+        for (int y = y0; y <= y1; y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+
+            for (int x = 0; x < width; x++) {
+                if (row[x] < INK_THRESHOLD) {
+                    xMin = Math.min(xMin, x);
+                    xMax = Math.max(xMax, x);
+                }
+            }
+        }
+
+        final int margin = (int) Math.rint(BLOCK_MARGIN * interline);
+        final int x0 = Math.max(0, xMin - margin);
+        final int x1 = Math.min(width - 1, xMax + margin);
+        blocks.add(
+                new Block(
+                        img.getSubimage(x0, y0, (x1 - x0) + 1, (y1 - y0) + 1),
+                        x0,
+                        y0,
+                        interline,
+                        symbols));
+    }
+
+    /**
+     * Load one input sheet and cut it into blocks.
+     *
+     * @param path path to annotations file
+     */
+    private void loadSheet (Path path)
+    {
+        try {
+            final SheetAnnotations annotations = SheetAnnotations.unmarshal(path);
+
+            if ((annotations == null) || (annotations.getSheetInfo() == null)) {
+                logger.warn("No annotations in {}", path);
+
+                return;
+            }
+
+            final int interline = getInterline(annotations);
+
+            if (interline == 0) {
+                logger.info("No single interline value in {}, ignored", path);
+
+                return;
+            }
+
+            final Path imgPath = path.resolveSibling(annotations.getSheetInfo().imageFileName);
+            final BufferedImage img = ImageIO.read(imgPath.toFile());
+
+            if ((img == null) || (img.getType() != BufferedImage.TYPE_BYTE_GRAY)) {
+                logger.warn("No gray image for {}", path);
+
+                return;
+            }
+
+            final int added = cutBlocks(annotations, img, interline);
+            maxWidth = Math.max(maxWidth, img.getWidth() / (double) interline);
+            maxHeight = Math.max(maxHeight, img.getHeight() / (double) interline);
+            logger.info("{} blocks from {}", added, path);
+        } catch (Exception ex) {
+            logger.warn("Error loading {} {}", path, ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Build and write the page of provided index.
+     *
+     * @param index page index
+     * @throws Exception if anything goes wrong
+     */
+    private void writePage (int index)
+            throws Exception
+    {
+        final Page page = buildPage(index);
+        final String radix = String.format("synth-%06d", index);
+        final Path folder = SYNTHETIC_PATH.resolve(
+                String.format("%03d", index / SYNTHETIC_FOLDER_SIZE));
+        Files.createDirectories(folder);
+
+        ImageIO.write(page.img, "png", folder.resolve(radix + ".png").toFile());
+
+        final SheetAnnotations annotations = new SheetAnnotations();
+        annotations.setVersion("1.0");
+        annotations.setSource("Synthesized, seed " + seed);
+        annotations.setSheetInfo(
+                new SheetInfo(radix + ".png", new Dimension(page.img.getWidth(),
+                                                            page.img.getHeight())));
+
+        for (SymbolInfo symbol : page.symbols) {
+            annotations.addSymbol(symbol);
+        }
+
+        annotations.marshall(folder.resolve(radix + INFO_EXT));
+    }
+
+    /**
+     * Report the single interline value of a sheet.
+     *
+     * @param annotations sheet annotations
+     * @return the interline value, or 0 if not unique
+     */
+    private static int getInterline (SheetAnnotations annotations)
+    {
+        int interline = 0;
+
+        for (SymbolInfo symbol : annotations.getSymbols()) {
+            final int val = (int) Math.rint(symbol.getInterline());
+
+            if (interline == 0) {
+                interline = val;
+            } else if (val != interline) {
+                return 0;
+            }
+        }
+
+        return interline;
+    }
+
+    /**
+     * Mix seed and index into a well distributed seed (SplitMix64 finalizer).
+     *
+     * @param seed  global seed
+     * @param index page index
+     * @return page seed
+     */
+    private static long mix (long seed,
+                             long index)
+    {
+        long z = seed + (index * 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Copy a symbol (and its inner symbols) into page coordinates.
+     *
+     * @param symbol    source symbol
+     * @param block     containing block
+     * @param ratio     scaling ratio
+     * @param dx        abscissa of block in page
+     * @param dy        ordinate of block in page
+     * @param interline page interline
+     * @return the page symbol
+     */
+    private static SymbolInfo transform (SymbolInfo symbol,
+                                         Block block,
+                                         double ratio,
+                                         int dx,
+                                         int dy,
+                                         int interline)
+    {
+        final Rectangle2D b = symbol.getBounds();
+        final SymbolInfo copy = new SymbolInfo(
+                symbol.getOmrShape(),
+                interline,
+                null,
+                symbol.getScale(),
+                new Rectangle2D.Double(
+                        dx + ((b.getX() - block.x) * ratio),
+                        dy + ((b.getY() - block.y) * ratio),
+                        b.getWidth() * ratio,
+                        b.getHeight() * ratio));
+
+        for (SymbolInfo inner : symbol.getInnerSymbols()) {
+            copy.addInnerSymbol(transform(inner, block, ratio, dx, dy, interline));
+        }
+
+        return copy;
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //-------//
+    // Block //
+    //-------//
+    /**
+     * A horizontal block cut out of an input sheet.
+     */
+    private static class Block
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Block image. */
+        final BufferedImage img;
+
+        /** Block abscissa in sheet. */
+        final int x;
+
+        /** Block ordinate in sheet. */
+        final int y;
+
+        final int width;
+
+        final int height;
+
+        /** Sheet interline. */
+        final int interline;
+
+        /** Block symbols, in sheet coordinates. */
+        final List<SymbolInfo> symbols;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Block (BufferedImage img,
+                      int x,
+                      int y,
+                      int interline,
+                      List<SymbolInfo> symbols)
+        {
+            this.img = img;
+            this.x = x;
+            this.y = y;
+            this.interline = interline;
+            this.symbols = symbols;
+            width = img.getWidth();
+            height = img.getHeight();
+        }
+    }
+
+    //------//
+    // Page //
+    //------//
+    /**
+     * A synthetic page being built.
+     */
+    private static class Page
+    {
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** Page image, white initially. */
+        final BufferedImage img;
+
+        /** Page interline. */
+        final int interline;
+
+        /** Page symbols. */
+        final List<SymbolInfo> symbols = new ArrayList<SymbolInfo>();
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public Page (int width,
+                     int height,
+                     int interline)
+        {
+            this.interline = interline;
+            img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+
+            final WritableRaster raster = img.getRaster();
+            final int[] white = new int[width];
+            Arrays.fill(white, 255);
+
+            for (int y = 0; y < height; y++) {
+                raster.setSamples(0, y, width, 1, 0, white);
+            }
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        /**
+         * Paste a block, scaled, at provided location.
+         *
+         * @param block the block to paste
+         * @param ratio scaling ratio
+         * @param x     target abscissa
+         * @param y     target ordinate
+         */
+        void paste (Block block,
+                    double ratio,
+                    int x,
+                    int y)
+        {
+            final BufferedImage scaled = (ratio == 1) ? block.img
+                    : SheetProcessor.scale(block.img, ratio);
+            final Raster src = scaled.getRaster();
+            final int w = Math.min(scaled.getWidth(), img.getWidth() - x);
+            final int h = Math.min(scaled.getHeight(), img.getHeight() - y);
+            img.getRaster().setDataElements(x, y, src.createChild(
+                    src.getMinX(), src.getMinY(), w, h, 0, 0, null));
+
+            for (SymbolInfo symbol : block.symbols) {
+                symbols.add(transform(symbol, block, ratio, x, y, interline));
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                        T e l e m e t r y                                       //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import static org.audiveris.omrdataset.train.App.TELEMETRY_INTERVAL;
+
+import org.deeplearning4j.datasets.iterator.AsyncDataSetIterator;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.api.IterationListener;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class {@code Telemetry} samples training progress every {@link App#TELEMETRY_INTERVAL}
+ * iterations, and appends the samples to a CSV file.
+ * <p>
+ * Each sample gives score and learning rate at sample time, and over the iterations since
+ * previous sample: examples per second, time spent waiting for data, time spent computing and
+ * time spent in garbage collection.
+ * <p>
+ * Data wait is measured on the training thread by the {@link #wrap(DataSetIterator)} iterator,
+ * which prefetches data sets asynchronously, just like {@link MultiLayerNetwork#fit} does on its
+ * own.
+ *
+ * @author Hervé Bitteur
+ */
+public class Telemetry
+        implements IterationListener, Closeable
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(Telemetry.class);
+
+    private static final long serialVersionUID = 1L;
+
+    /** Size of asynchronous prefetch queue. */
+    private static final int PREFETCH = 2;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    /** Appended CSV output. */
+    private final PrintWriter out;
+
+    /** Current epoch. */
+    private int epoch;
+
+    /** Iterations since previous sample. */
+    private int iterations;
+
+    /** Last iteration done. */
+    private int lastIteration;
+
+    /** Examples since previous sample. */
+    private long examples;
+
+    /** Time spent waiting for data since previous sample. */
+    private long waitNanos;
+
+    /** Time of previous sample. */
+    private long lastNanos;
+
+    /** GC cumulated time at previous sample. */
+    private long lastGcMillis;
+
+    /** Prefetching iterator, if any. */
+    private AsyncDataSetIterator async;
+
+    //~ Constructors -------------------------------------------------------------------------------
+    /**
+     * Creates a new {@code Telemetry} object, appending to the provided file.
+     *
+     * @param path path to CSV file
+     * @throws IOException in case of IO problem
+     */
+    public Telemetry (Path path)
+            throws IOException
+    {
+        Files.createDirectories(path.getParent());
+
+        final boolean exists = Files.exists(path);
+        out = new PrintWriter(
+                Files.newBufferedWriter(
+                        path,
+                        StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND));
+
+        if (!exists) {
+            out.println(
+                    "# time, epoch, iteration, score, learningRate, examplesPerSecond,"
+                    + " dataWaitMs, computeMs, gcMs");
+            out.flush();
+        }
+    }
+
+    //~ Methods ------------------------------------------------------------------------------------
+    @Override
+    public void close ()
+    {
+        if (async != null) {
+            async.shutdown();
+        }
+
+        out.close();
+    }
+
+    /**
+     * End current epoch, with a last sample for the iterations not yet sampled.
+     *
+     * @param model the model being trained
+     */
+    public void endEpoch (Model model)
+    {
+        if (iterations > 0) {
+            sample(model);
+        }
+    }
+
+    @Override
+    public void invoke ()
+    {
+    }
+
+    @Override
+    public boolean invoked ()
+    {
+        return false;
+    }
+
+    @Override
+    public void iterationDone (Model model,
+                               int iteration)
+    {
+        iterations++;
+        examples += model.batchSize();
+        lastIteration = iteration;
+
+        if (iterations >= TELEMETRY_INTERVAL) {
+            sample(model);
+        }
+    }
+
+    /**
+     * Start a new epoch.
+     *
+     * @param epoch epoch number (counted from 1)
+     */
+    public void startEpoch (int epoch)
+    {
+        this.epoch = epoch;
+        iterations = 0;
+        examples = 0;
+        waitNanos = 0;
+        lastNanos = System.nanoTime();
+        lastGcMillis = gcMillis();
+    }
+
+    /**
+     * Wrap the provided training iterator, to measure data wait.
+     * <p>
+     * If the iterator supports it, data sets are prefetched asynchronously.
+     *
+     * @param iter the training iterator
+     * @return the iterator to train upon
+     */
+    public DataSetIterator wrap (DataSetIterator iter)
+    {
+        if (iter.asyncSupported()) {
+            iter = async = new AsyncDataSetIterator(iter, PREFETCH);
+        }
+
+        return new TimingIterator(iter);
+    }
+
+    /**
+     * Report the time spent in garbage collection, since JVM start.
+     *
+     * @return cumulated milliseconds
+     */
+    private static long gcMillis ()
+    {
+        long millis = 0;
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+
+        return millis;
+    }
+
+    /**
+     * Append a sample for the iterations since previous sample.
+     *
+     * @param model the model being trained
+     */
+    private void sample (Model model)
+    {
+        final long now = System.nanoTime();
+        final long gcMillis = gcMillis();
+        final double seconds = (now - lastNanos) / 1e9;
+        final double rate = (model instanceof MultiLayerNetwork)
+                ? ((MultiLayerNetwork) model).getLayer(0).conf().getLearningRateByParam("W")
+                : Double.NaN;
+        out.println(
+                String.format(
+                        Locale.US,
+                        "%d,%d,%d,%.6f,%.6g,%.1f,%.1f,%.1f,%d",
+                        System.currentTimeMillis(),
+                        epoch,
+                        lastIteration,
+                        model.score(),
+                        rate,
+                        examples / seconds,
+                        waitNanos / 1e6,
+                        (now - lastNanos - waitNanos) / 1e6,
+                        gcMillis - lastGcMillis));
+        out.flush();
+
+        iterations = 0;
+        examples = 0;
+        waitNanos = 0;
+        lastNanos = now;
+        lastGcMillis = gcMillis;
+    }
+
+    //~ Inner Classes ------------------------------------------------------------------------------
+    //----------------//
+    // TimingIterator //
+    //----------------//
+    /**
+     * Iterator that measures the time spent by the training thread to get data sets.
+     */
+    private class TimingIterator
+            implements DataSetIterator
+    {
+        //~ Static fields/initializers -------------------------------------------------------------
+
+        private static final long serialVersionUID = 1L;
+
+        //~ Instance fields ------------------------------------------------------------------------
+
+        private final DataSetIterator iter;
+
+        //~ Constructors ---------------------------------------------------------------------------
+        public TimingIterator (DataSetIterator iter)
+        {
+            this.iter = iter;
+        }
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public boolean asyncSupported ()
+        {
+            return false; // Prefetch, if any, is already done by wrapped iterator
+        }
+
+        @Override
+        public int batch ()
+        {
+            return iter.batch();
+        }
+
+        @Override
+        public int cursor ()
+        {
+            return iter.cursor();
+        }
+
+        @Override
+        public List<String> getLabels ()
+        {
+            return iter.getLabels();
+        }
+
+        @Override
+        public DataSetPreProcessor getPreProcessor ()
+        {
+            return iter.getPreProcessor();
+        }
+
+        @Override
+        public boolean hasNext ()
+        {
+            final long start = System.nanoTime();
+            final boolean hasNext = iter.hasNext();
+            waitNanos += System.nanoTime() - start;
+
+            return hasNext;
+        }
+
+        @Override
+        public int inputColumns ()
+        {
+            return iter.inputColumns();
+        }
+
+        @Override
+        public DataSet next ()
+        {
+            final long start = System.nanoTime();
+            final DataSet dataSet = iter.next();
+            waitNanos += System.nanoTime() - start;
+
+            return dataSet;
+        }
+
+        @Override
+        public DataSet next (int num)
+        {
+            final long start = System.nanoTime();
+            final DataSet dataSet = iter.next(num);
+            waitNanos += System.nanoTime() - start;
+
+            return dataSet;
+        }
+
+        @Override
+        public int numExamples ()
+        {
+            return iter.numExamples();
+        }
+
+        @Override
+        public void remove ()
+        {
+            iter.remove();
+        }
+
+        @Override
+        public void reset ()
+        {
+            iter.reset();
+        }
+
+        @Override
+        public boolean resetSupported ()
+        {
+            return iter.resetSupported();
+        }
+
+        @Override
+        public void setPreProcessor (DataSetPreProcessor preProcessor)
+        {
+            iter.setPreProcessor(preProcessor);
+        }
+
+        @Override
+        public int totalExamples ()
+        {
+            return iter.totalExamples();
+        }
+
+        @Override
+        public int totalOutcomes ()
+        {
+            return iter.totalOutcomes();
+        }
+    }
+}
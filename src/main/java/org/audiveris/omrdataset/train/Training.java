@@ -23,9 +23,10 @@ package org.audiveris.omrdataset.train;
 
 import org.audiveris.omrdataset.Main;
 import org.audiveris.omrdataset.api.OmrShape;
+import org.audiveris.omrdataset.train.Metrics.Counter;
+import org.audiveris.omrdataset.train.Metrics.Stage;
 
 import static org.audiveris.omrdataset.classifier.Context.*;
-import static org.audiveris.omrdataset.train.App.*;
 import static org.audiveris.omrdataset.train.AppPaths.*;
 
 import org.datavec.api.records.metadata.RecordMetaData;
@@ -38,6 +39,7 @@ import org.datavec.api.writable.Writable;
 import org.deeplearning4j.api.storage.StatsStorage;
 import org.deeplearning4j.datasets.datavec.RecordReaderDataSetIterator;
 import org.deeplearning4j.eval.meta.Prediction;
+import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -49,6 +51,7 @@ import org.deeplearning4j.nn.conf.layers.OutputLayer;
 import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
+import org.deeplearning4j.optimize.api.IterationListener;
 import org.deeplearning4j.optimize.listeners.ScoreIterationListener;
 import org.deeplearning4j.ui.api.UIServer;
 import org.deeplearning4j.ui.stats.StatsListener;
@@ -59,21 +62,18 @@ import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
 import org.nd4j.linalg.dataset.api.preprocessor.serializer.NormalizerSerializer;
-import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.awt.image.BufferedImage;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
-import javax.imageio.ImageIO;
-
 /**
  * Class {@code Training} performs the training of the classifier neural network based
  * on the features extracted from input images.
@@ -94,6 +94,11 @@ public class Training
     /** Needed to point to origin of mistaken samples. */
     private final Journal journal = new Journal();
 
+    /** To save mistaken samples. */
+    private final PatchWriter mistakeWriter = new PatchWriter(
+            Main.cli.format,
+            Main.cli.compression);
+
     //~ Methods ------------------------------------------------------------------------------------
     /**
      * Direct entry point.
@@ -158,11 +163,20 @@ public class Training
                 -1);
         testIter.setCollectMetaData(true); //Instruct the iterator to collect metadata, and store it in the DataSet objects
 
-        // Normalization
-        DataSetPreProcessor preProcessor = new MyPreProcessor(normalizer);
-        trainIter.setPreProcessor(preProcessor);
+        // Normalization, preceded by augmentation for training only
+        DataSetPreProcessor preProcessor = new MyPreProcessor(normalizer, null);
         testIter.setPreProcessor(preProcessor);
 
+        if (Main.cli.augment) {
+            logger.info("Training patches augmented on the fly");
+            trainIter.setPreProcessor(
+                    new MyPreProcessor(
+                            normalizer,
+                            new Augmenter(CONTEXT_WIDTH, CONTEXT_HEIGHT, Main.cli.seed)));
+        } else {
+            trainIter.setPreProcessor(preProcessor);
+        }
+
         if (false) {
             System.out.println("\n  +++++ Test Set Examples MetaData +++++");
 
@@ -251,10 +265,13 @@ public class Training
         }
 
         // Prepare monitoring
+        final BatchListener batchListener = new BatchListener();
+        final Telemetry telemetry = new Telemetry(TELEMETRY_PATH);
+        final DataSetIterator iter = telemetry.wrap(trainIter);
         UIServer uiServer = null;
 
         try {
-            if (true) {
+            if (Main.cli.ui) {
                 //Initialize the user interface backend
                 uiServer = UIServer.getInstance();
 
@@ -265,9 +282,13 @@ public class Training
                 uiServer.attach(statsStorage);
 
                 //Then add the StatsListener to collect this information from the network, as it trains
-                model.setListeners(new StatsListener(statsStorage), new ScoreIterationListener(10));
+                model.setListeners(
+                        new StatsListener(statsStorage),
+                        new ScoreIterationListener(10),
+                        batchListener,
+                        telemetry);
             } else {
-                model.setListeners(new ScoreIterationListener(10));
+                model.setListeners(new ScoreIterationListener(10), batchListener, telemetry);
             }
 
             logger.info("Training model...");
@@ -275,7 +296,13 @@ public class Training
             for (int epoch = 1; epoch <= nEpochs; epoch++) {
                 Path epochFolder = Main.cli.mistakes ? MISTAKES_PATH.resolve("epoch#" + epoch) : null;
                 long start = System.currentTimeMillis();
-                model.fit(trainIter);
+                Events.Span span = Events.begin(Events.Kind.EPOCH);
+                long startNanos = batchListener.reset();
+                telemetry.startEpoch(epoch);
+                model.fit(iter);
+                telemetry.endEpoch(model);
+                Metrics.addPhase("training", startNanos);
+                span.epoch(epoch).samples(batchListener.samples).end();
 
                 long stop = System.currentTimeMillis();
                 double dur = stop - start;
@@ -332,6 +359,7 @@ public class Training
             }
         } finally {
             // Stop monitoring
+            telemetry.close();
             if (uiServer != null) {
                 uiServer.stop();
             }
@@ -364,27 +392,86 @@ public class Training
             Files.createDirectories(folder);
 
             // Generate mistaken subimage
-            double[] pixels = new double[rawData.size()];
+            byte[] patch = new byte[CONTEXT_WIDTH * CONTEXT_HEIGHT];
 
-            for (int i = 0; i < pixels.length; i++) {
-                pixels[i] = rawData.get(i).toDouble();
+            for (int i = 0; i < patch.length; i++) {
+                patch[i] = (byte) rawData.get(i).toInt();
             }
 
-            INDArray row = Nd4j.create(pixels);
-            BufferedImage img = SubImages.buildSubImage(row);
-
             // Save subimage to disk, with proper naming
-            String name = actual + "-" + line + "-" + predicted + OUTPUT_IMAGES_EXT;
-            ImageIO.write(img, OUTPUT_IMAGES_FORMAT, folder.resolve(name).toFile());
+            String name = actual + "-" + line + "-" + predicted + mistakeWriter.getExtension();
+            mistakeWriter.write(patch, folder.resolve(name));
         }
     }
 
     //~ Inner Classes ------------------------------------------------------------------------------
+    //---------------//
+    // BatchListener //
+    //---------------//
+    /**
+     * Record the latency of each training batch, data loading included, in run metrics.
+     */
+    private static class BatchListener
+            implements IterationListener
+    {
+        //~ Static fields/initializers -------------------------------------------------------------
+
+        private static final long serialVersionUID = 1L;
+
+        //~ Instance fields ------------------------------------------------------------------------
+
+        /** End of previous batch, or start of epoch. */
+        private long lastNanos;
+
+        /** Current batch event. */
+        private Events.Span span;
+
+        /** Samples processed in current epoch. */
+        private int samples;
+
+        //~ Methods --------------------------------------------------------------------------------
+        @Override
+        public void invoke ()
+        {
+        }
+
+        @Override
+        public boolean invoked ()
+        {
+            return false;
+        }
+
+        @Override
+        public void iterationDone (Model model,
+                                   int iteration)
+        {
+            final int batchSize = model.batchSize();
+            lastNanos = Metrics.record(Stage.TRAINING_BATCH, lastNanos);
+            Metrics.add(Counter.TRAINING_SAMPLES, batchSize);
+            samples += batchSize;
+            span.iteration(iteration).samples(batchSize).end();
+            span = Events.begin(Events.Kind.BATCH);
+        }
+
+        /**
+         * Start a new epoch.
+         *
+         * @return epoch start in nanoseconds
+         */
+        public long reset ()
+        {
+            samples = 0;
+            span = Events.begin(Events.Kind.BATCH);
+
+            return lastNanos = System.nanoTime();
+        }
+    }
+
     //----------------//
     // MyPreProcessor //
     //----------------//
     /**
-     * Normalize pixel data on the fly.
+     * Normalize pixel data on the fly, after optional augmentation.
      */
     private static class MyPreProcessor
             implements DataSetPreProcessor
@@ -395,9 +482,14 @@ public class Training
 
         final double std;
 
+        /** Augmenter, if any. */
+        final Augmenter augmenter;
+
         //~ Constructors ---------------------------------------------------------------------------
-        public MyPreProcessor (NormalizerStandardize normalizer)
+        public MyPreProcessor (NormalizerStandardize normalizer,
+                               Augmenter augmenter)
         {
+            this.augmenter = augmenter;
             mean = normalizer.getMean().getDouble(0);
             std = normalizer.getStd().getDouble(0);
             logger.info(String.format("Pixel pre-processor mean:%.2f std:%.2f", mean, std));
@@ -413,6 +505,10 @@ public class Training
 
         public void preProcess (INDArray theFeatures)
         {
+            if (augmenter != null) {
+                augmenter.augment(theFeatures);
+            }
+
             theFeatures.subi(mean);
             theFeatures.divi(std);
         }
@@ -0,0 +1,143 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                              P a t c h C l a s s i f i e r T e s t                             //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.classifier;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Class {@code PatchClassifierTest} checks {@link PatchClassifier} on a small untrained model.
+ *
+ * @author Hervé Bitteur
+ */
+public class PatchClassifierTest
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final int PATCH_LENGTH = CONTEXT_HEIGHT * CONTEXT_WIDTH;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * Create a classifier on a small untrained model, with one dense softmax layer.
+     *
+     * @param replicas      number of model replicas
+     * @param maxBatch      maximum number of patches per batch
+     * @param maxWaitMicros maximum wait time for a partial batch
+     * @return the classifier
+     */
+    public static PatchClassifier createClassifier (int replicas,
+                                                    int maxBatch,
+                                                    long maxWaitMicros)
+    {
+        final MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder() //
+                .seed(123) //
+                .list() //
+                .layer(
+                        0,
+                        new OutputLayer.Builder(
+                                LossFunctions.LossFunction.NEGATIVELOGLIKELIHOOD) //
+                        .nIn(PATCH_LENGTH) //
+                        .nOut(OmrShape.values().length) //
+                        .activation(Activation.SOFTMAX) //
+                        .build()) //
+                .build();
+        final MultiLayerNetwork model = new MultiLayerNetwork(conf);
+        model.init();
+
+        final NormalizerStandardize normalizer = new NormalizerStandardize(
+                Nd4j.create(new double[]{100}),
+                Nd4j.create(new double[]{50}));
+
+        return new PatchClassifier(model, normalizer, replicas, maxBatch, maxWaitMicros);
+    }
+
+    @Test
+    public void testBatches ()
+            throws Exception
+    {
+        final PatchClassifier classifier = createClassifier(1, 16, 200000);
+
+        try {
+            final List<Future<List<Prediction>>> futures
+                    = new ArrayList<Future<List<Prediction>>>();
+
+            for (int i = 0; i < 32; i++) {
+                futures.add(classifier.submit(new int[PATCH_LENGTH], 3));
+            }
+
+            for (Future<List<Prediction>> future : futures) {
+                assertEquals(3, future.get().size());
+            }
+
+            assertEquals(32, classifier.getPatchCount());
+            assertTrue(classifier.getBatchCount() < 32);
+        } finally {
+            classifier.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed ()
+    {
+        final PatchClassifier classifier = createClassifier(1, 8, 0);
+        classifier.close();
+        classifier.submit(new int[PATCH_LENGTH], 3);
+    }
+
+    @Test
+    public void testIllegalK ()
+            throws Exception
+    {
+        final PatchClassifier classifier = createClassifier(1, 8, 200000);
+
+        try {
+            final Future<List<Prediction>> good = classifier.submit(new int[PATCH_LENGTH], 3);
+
+            try {
+                classifier.submit(new int[PATCH_LENGTH], -1);
+                fail("k = -1 should be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+
+            assertEquals(3, good.get().size());
+        } finally {
+            classifier.close();
+        }
+    }
+}
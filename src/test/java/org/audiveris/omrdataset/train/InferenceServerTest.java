@@ -0,0 +1,275 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                              I n f e r e n c e S e r v e r T e s t                             //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.classifier.PatchClassifierTest;
+import static org.audiveris.omrdataset.classifier.Context.*;
+
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class {@code InferenceServerTest} runs an {@link InferenceServer} on an ephemeral port,
+ * with a small untrained model.
+ *
+ * @author Hervé Bitteur
+ */
+public class InferenceServerTest
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final int PATCH_LENGTH = CONTEXT_HEIGHT * CONTEXT_WIDTH;
+
+    //~ Instance fields ----------------------------------------------------------------------------
+    private InferenceServer server;
+
+    private InetSocketAddress address;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    @After
+    public void tearDown ()
+    {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testClassify ()
+            throws IOException
+    {
+        start(0);
+
+        final HttpURLConnection cnx = post("/classify?k=2", csvPatch());
+        assertEquals(200, cnx.getResponseCode());
+        assertEquals("application/json", cnx.getContentType());
+
+        final String json = read(cnx.getInputStream());
+        assertTrue(json, json.matches(
+                "\\{\"predictions\":\\["
+                + "\\{\"shape\":\"\\w+\",\"probability\":[0-9.]+\\},"
+                + "\\{\"shape\":\"\\w+\",\"probability\":[0-9.]+\\}\\]\\}"));
+    }
+
+    /**
+     * Concurrent clients get their patches coalesced into batches, as reported by /stats.
+     */
+    @Test
+    public void testConcurrentStats ()
+            throws Exception
+    {
+        start(50000);
+
+        final int clients = 8;
+        final int perClient = 4;
+        final String body = csvPatch();
+        final ExecutorService pool = Executors.newFixedThreadPool(clients);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+        try {
+            for (int c = 0; c < clients; c++) {
+                futures.add(pool.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call ()
+                            throws IOException
+                    {
+                        int ok = 0;
+
+                        for (int i = 0; i < perClient; i++) {
+                            final HttpURLConnection cnx = post("/classify", body);
+
+                            if (cnx.getResponseCode() == 200) {
+                                read(cnx.getInputStream());
+                                ok++;
+                            }
+                        }
+
+                        return ok;
+                    }
+                }));
+            }
+
+            for (Future<Integer> future : futures) {
+                assertEquals(perClient, (int) future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        final HttpURLConnection cnx = (HttpURLConnection) url("/stats").openConnection();
+        assertEquals(200, cnx.getResponseCode());
+
+        final String json = read(cnx.getInputStream());
+        final Matcher classify = Pattern.compile(
+                "\"classify\":\\{\"requests\":(\\d+),\"p50Ms\":([0-9.]+),\"p99Ms\":([0-9.]+),")
+                .matcher(json);
+        assertTrue(json, classify.find());
+        assertEquals(clients * perClient, Integer.parseInt(classify.group(1)));
+
+        final double p50 = Double.parseDouble(classify.group(2));
+        final double p99 = Double.parseDouble(classify.group(3));
+        assertTrue(json, (p50 > 0) && (p99 >= p50));
+
+        final Matcher batches = Pattern.compile("\"batches\":(\\d+),").matcher(json);
+        assertTrue(json, batches.find());
+
+        final int batchCount = Integer.parseInt(batches.group(1));
+        assertTrue(json, (batchCount > 0) && (batchCount < (clients * perClient)));
+    }
+
+    @Test
+    public void testDetectParameters ()
+            throws IOException
+    {
+        start(0);
+
+        assertEquals(400, post("/detect?interline=0", "").getResponseCode());
+        assertEquals(400, post("/detect?interline=1", "").getResponseCode());
+        assertEquals(400, post("/detect?interline=1000", "").getResponseCode());
+        assertEquals(400, post("/detect?min=2", "").getResponseCode());
+        assertEquals(400, post("/detect", "no image").getResponseCode());
+    }
+
+    @Test
+    public void testErrorEscaped ()
+            throws IOException
+    {
+        start(0);
+
+        final StringBuilder sb = new StringBuilder("\"a\\b\tc");
+
+        for (int i = 1; i < PATCH_LENGTH; i++) {
+            sb.append(",0");
+        }
+
+        final HttpURLConnection cnx = post("/classify", sb.toString());
+        assertEquals(400, cnx.getResponseCode());
+        assertEquals(
+                "{\"error\":\"For input string: \\\"\\\"a\\\\b\\tc\\\"\"}",
+                read(cnx.getErrorStream()));
+    }
+
+    @Test
+    public void testIllegalK ()
+            throws IOException
+    {
+        start(0);
+
+        assertEquals(400, post("/classify?k=-1", csvPatch()).getResponseCode());
+    }
+
+    @Test
+    public void testTooLarge ()
+            throws IOException
+    {
+        start(0);
+
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < PATCH_LENGTH; i++) {
+            sb.append((i > 0) ? "," : "").append("    255");
+        }
+
+        assertEquals(413, post("/classify", sb.toString()).getResponseCode());
+    }
+
+    private static String csvPatch ()
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < PATCH_LENGTH; i++) {
+            sb.append((i > 0) ? "," : "").append(i % 256);
+        }
+
+        return sb.toString();
+    }
+
+    private HttpURLConnection post (String path,
+                                    String body)
+            throws IOException
+    {
+        final HttpURLConnection cnx = (HttpURLConnection) url(path).openConnection();
+        cnx.setRequestMethod("POST");
+        cnx.setDoOutput(true);
+        cnx.setRequestProperty("Content-Type", "text/csv");
+
+        try (OutputStream os = cnx.getOutputStream()) {
+            os.write(body.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        return cnx;
+    }
+
+    private static String read (InputStream is)
+            throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+
+        try {
+            for (int n; (n = is.read(buffer)) > 0;) {
+                bos.write(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Start the server, on a classifier with one replica.
+     *
+     * @param maxWaitMicros maximum wait time for a partial batch
+     */
+    private void start (long maxWaitMicros)
+            throws IOException
+    {
+        server = new InferenceServer(0);
+        address = server.start(PatchClassifierTest.createClassifier(1, 64, maxWaitMicros));
+    }
+
+    private URL url (String path)
+            throws IOException
+    {
+        return new URL("http", address.getHostString(), address.getPort(), path);
+    }
+}
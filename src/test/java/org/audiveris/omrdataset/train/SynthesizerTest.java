@@ -0,0 +1,124 @@
+//------------------------------------------------------------------------------------------------//
+//                                                                                                //
+//                                  S y n t h e s i z e r T e s t                                 //
+//                                                                                                //
+//------------------------------------------------------------------------------------------------//
+// <editor-fold defaultstate="collapsed" desc="hdr">
+//
+//  Copyright © Audiveris 2017. All rights reserved.
+//
+//  This program is free software: you can redistribute it and/or modify it under the terms of the
+//  GNU Affero General Public License as published by the Free Software Foundation, either version
+//  3 of the License, or (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+//  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//  See the GNU Affero General Public License for more details.
+//
+//  You should have received a copy of the GNU Affero General Public License along with this
+//  program.  If not, see <http://www.gnu.org/licenses/>.
+//------------------------------------------------------------------------------------------------//
+// </editor-fold>
+package org.audiveris.omrdataset.train;
+
+import org.audiveris.omrdataset.api.OmrShape;
+import org.audiveris.omrdataset.api.SheetAnnotations;
+import org.audiveris.omrdataset.api.SymbolInfo;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Class {@code SynthesizerTest} checks how {@link Synthesizer} cuts sheets into blocks.
+ *
+ * @author Hervé Bitteur
+ */
+public class SynthesizerTest
+{
+    //~ Static fields/initializers -----------------------------------------------------------------
+
+    private static final int INTERLINE = 10;
+
+    private static final int WIDTH = 100;
+
+    private static final int HEIGHT = 80;
+
+    //~ Methods ------------------------------------------------------------------------------------
+    /**
+     * A symbol whose ink reaches the last image row.
+     */
+    @Test
+    public void testInkOnBottomRow ()
+    {
+        final BufferedImage img = createImage();
+        final SheetAnnotations annotations = new SheetAnnotations();
+        addSymbol(annotations, img, 10, 10, 20, 20, 20, 20);
+        addSymbol(annotations, img, 40, 60, 20, 20, 20, 20);
+
+        assertEquals(2, new Synthesizer(1, 0).cutBlocks(annotations, img, INTERLINE));
+    }
+
+    /**
+     * A symbol whose bounds reach the last image row, with no ink on this row.
+     */
+    @Test
+    public void testSymbolOnBottomRow ()
+    {
+        final BufferedImage img = createImage();
+        final SheetAnnotations annotations = new SheetAnnotations();
+        addSymbol(annotations, img, 40, 60, 20, 20, 20, 10);
+
+        assertEquals(1, new Synthesizer(1, 0).cutBlocks(annotations, img, INTERLINE));
+    }
+
+    /**
+     * Add a symbol to annotations, and paint its ink in image.
+     *
+     * @param annotations the sheet annotations
+     * @param img         the sheet image
+     * @param x           symbol left abscissa
+     * @param y           symbol top ordinate
+     * @param width       symbol width
+     * @param height      symbol height
+     * @param inkWidth    width of ink, from symbol top left corner
+     * @param inkHeight   height of ink, from symbol top left corner
+     */
+    private static void addSymbol (SheetAnnotations annotations,
+                                   BufferedImage img,
+                                   int x,
+                                   int y,
+                                   int width,
+                                   int height,
+                                   int inkWidth,
+                                   int inkHeight)
+    {
+        annotations.addSymbol(
+                new SymbolInfo(
+                        OmrShape.noteheadBlack,
+                        INTERLINE,
+                        null,
+                        null,
+                        new Rectangle2D.Double(x, y, width, height)));
+
+        final Graphics2D g = img.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(x, y, inkWidth, inkHeight);
+        g.dispose();
+    }
+
+    private static BufferedImage createImage ()
+    {
+        final BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+
+        return img;
+    }
+}